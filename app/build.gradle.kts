@@ -39,6 +39,14 @@ android {
                 "proguard-rules.pro"
             )
         }
+        debug {
+            // androidTest 运行在 debug 构建上, 只在这里编译 native 基准测试库
+            externalNativeBuild {
+                cmake {
+                    arguments += "-DPANORAMAPRO_BENCHMARK=ON"
+                }
+            }
+        }
     }
     compileOptions {
         sourceCompatibility = JavaVersion.VERSION_11
@@ -0,0 +1,216 @@
+package com.example.panoramapro;
+
+public class APAPBenchmark {
+    static {
+        System.loadLibrary("panoramapro");
+        // 基准测试接口单独编译 (只在 debug 构建中存在), 依赖 libpanoramapro.so
+        System.loadLibrary("panoramapro_benchmark");
+    }
+
+    // 与 C++ APAP::SolverMode 保持一致
+    public static final int SOLVER_SVD = 0;
+    public static final int SOLVER_NORMAL_EQ_DOUBLE = 1;
+    public static final int SOLVER_NORMAL_EQ_FLOAT = 2;
+
+    // 与 C++ FeatureMatcher::MatcherBackend 保持一致
+    public static final int MATCHER_BRUTE_FORCE = 0;
+    public static final int MATCHER_FLANN_KDTREE = 1;
+    public static final int MATCHER_FLANN_KMEANS = 2;
+
+    // 与 C++ FeatureMatcher::FeatureBackend 保持一致
+    public static final int FEATURE_SIFT = 0;
+    public static final int FEATURE_ORB = 1;
+    public static final int FEATURE_AKAZE = 2;
+
+    // 与 C++ FeatureMatcher::DescriptorMode 保持一致
+    public static final int DESCRIPTOR_FLOAT = 0;
+    public static final int DESCRIPTOR_UINT8 = 1;
+    public static final int DESCRIPTOR_PCA = 2;
+
+    // 与 C++ Projection::Mode 保持一致
+    public static final int PROJECTION_CYLINDRICAL = 1;
+    public static final int PROJECTION_SPHERICAL = 2;
+
+    // 与 C++ Constants::DEFAULT_FOCAL_RATIO 保持一致
+    public static final double DEFAULT_FOCAL_RATIO = 0.75;
+
+    // 与 C++ APAP::EstimatorMode 保持一致
+    public static final int ESTIMATOR_RANSAC = 0;
+    public static final int ESTIMATOR_PROSAC = 1;
+    public static final int ESTIMATOR_MAGSAC = 2;
+
+    /**
+     * 一次运行的统计结果, 各接口只填写与其相关的字段
+     */
+    public static final class Run {
+        public final int count;      // 匹配 / 内点 / 关键点数量
+        public final int correct;    // 符合真实单应性的数量
+        public final double millis;  // 耗时 (ms)
+        public final long bytes;     // 描述子 / 映射表占用的字节数
+        public final int cells;      // 关键点覆盖的网格数 / 求解的网格单应性数量
+        public final double error;   // 该实现自身的误差 (如投影坐标的最大二阶差分)
+
+        Run(int count, int correct, double millis, long bytes, int cells, double error) {
+            this.count = count;
+            this.correct = correct;
+            this.millis = millis;
+            this.bytes = bytes;
+            this.cells = cells;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return correct + " / " + count + " 正确, " + String.format("%.2f", millis) + " ms";
+        }
+    }
+
+    /**
+     * 参考实现与待对比实现在同一输入上的结果
+     */
+    public static final class Comparison {
+        public final Run reference;
+        public final Run candidate;
+        public final double error;      // 两者输出的偏差 (求解器 / 映射表对比)
+        public final boolean verified;  // 先验是否通过验证 (引导匹配直接验证 / 掩码检测无需回退)
+
+        Comparison(Run reference, Run candidate, double error, boolean verified) {
+            this.reference = reference;
+            this.candidate = candidate;
+            this.error = error;
+            this.verified = verified;
+        }
+
+        /** 参考实现耗时 / 待对比实现耗时 */
+        public double speedup() {
+            return reference.millis / Math.max(candidate.millis, 1e-6);
+        }
+    }
+
+    /**
+     * 使用合成匹配点, 分别用稠密 SVD 路径 (reference) 和指定求解方式 (candidate) 计算 100×100 网格的局部单应性
+     * @param numPoints 匹配点数量
+     * @param solverMode 待对比的求解方式
+     * @param sparse 待对比的求解方式是否启用稀疏加权
+     * @return error 为网格中心投影的最大偏差 (像素)
+     */
+    public native Comparison nativeCompareSolvers(int numPoints, int solverMode, boolean sparse);
+
+    /**
+     * 在合成的 100×100 网格局部单应性上对比 LocalWarp 的 float 映射表 (reference) 与定点映射表 (candidate)
+     * @param canvasWidth 画布宽度
+     * @param canvasHeight 画布高度
+     * @param repeat 重复次数 (取最短耗时)
+     * @return error 为输出的平均绝对误差
+     */
+    public native Comparison nativeBenchmarkWarp(int canvasWidth, int canvasHeight, int repeat);
+
+    /**
+     * 在合成图片对 (随机纹理与其单应性变换后的副本) 的 SIFT 特征上, 对比暴力匹配 (reference) 与指定匹配方式的比率测试结果
+     * @param matcherBackend 待对比的匹配方式
+     * @param checks FLANN 搜索时检查的叶子数量
+     */
+    public native Comparison nativeCompareMatchers(int matcherBackend, int checks);
+
+    /**
+     * 在同一合成图片对上, 对比 SIFT (reference) 与指定特征类型的提取 + 比率测试匹配
+     * @param featureBackend 待对比的特征类型
+     */
+    public native Comparison nativeCompareFeatures(int featureBackend);
+
+    /**
+     * 在合成图片的 SIFT 关键点上执行网格均衡的关键点数量上限筛选
+     * @param budget 关键点数量上限
+     * @return reference 为筛选前, candidate 为筛选后 (count 与 cells)
+     */
+    public native Comparison nativeKeypointBudget(int budget);
+
+    /**
+     * 在部分重叠的合成图片对上, 对比整图检测 + 比率测试匹配 (reference) 与金字塔匹配 (粗略层单应性 + 重叠区域检测 + 引导匹配)
+     * @param overlap 两幅图片的重叠比例 (0 ~ 1)
+     */
+    public native Comparison nativeComparePyramid(double overlap);
+
+    /**
+     * 在部分重叠的合成图片对上, 对比整图检测 (reference) 与只在方向先验预测的重叠区域内检测 (candidate) 的检测 + 匹配 + 估计
+     * 掩码内的内点不足时 candidate 与 APAP 一样回退到整图检测
+     * @param overlap 两幅图片的重叠比例 (0 ~ 1)
+     * @param azimuthError 叠加在真实方位角之差上的传感器误差 (度)
+     * @return count 为检测的关键点总数, correct 为正确内点数量, verified 表示是否保留掩码 (未回退)
+     */
+    public native Comparison nativeComparePoseMasks(double overlap, float azimuthError);
+
+    /**
+     * 在合成图片对的 SIFT 特征上, 以同一匹配方式对比原始 float 描述子 (reference) 与指定压缩方式的比率测试匹配
+     * @param descriptorMode 待对比的压缩方式
+     * @param matcherBackend 匹配方式 (uint8 描述子总是暴力匹配, 应传 MATCHER_BRUTE_FORCE)
+     * @param repeat 重复次数 (取最短耗时)
+     * @return millis 为匹配耗时 (不含压缩), bytes 为描述子字节数
+     */
+    public native Comparison nativeCompareDescriptors(int descriptorMode, int matcherBackend, int repeat);
+
+    /**
+     * 在合成图片对的比率测试匹配上, 对比 RANSAC (reference) 与指定估计方式的全局单应性
+     * @param estimator 待对比的估计方式
+     * @param repeat 重复次数 (取平均耗时)
+     * @return count 为内点数量
+     */
+    public native Comparison nativeCompareEstimators(int estimator, int repeat);
+
+    /**
+     * 在合成图片对上, 对比完整匹配 + PROSAC (reference) 与先验引导匹配 + 直接验证 (先验为真实单应性叠加平移误差)
+     * @param priorError 先验的平移误差 (像素)
+     * @return correct 为正确内点数量, verified 表示引导匹配是否通过直接验证
+     */
+    public native Comparison nativeComparePoseGuided(float priorError);
+
+    /**
+     * 在带视差的合成匹配点上, 对比固定 100×100 网格 (reference) 与自适应四叉树网格 (candidate) 的局部单应性
+     * @param maxCells 自适应网格的叶子数量上限
+     * @return cells 为求解的单应性数量, error 为逐像素经查找表选出的单应性投影位置的最大偏差 (像素)
+     */
+    public native Comparison nativeCompareAdaptiveMesh(int maxCells);
+
+    /**
+     * 在带视差的合成匹配点上, 对比固定 100×100 网格 (reference) 与顶点插值网格 (candidate) 的投影连续性:
+     * 将坐标图 (像素值即其坐标) 分别经 LocalWarp / LocalWarpInterpolated 重映射, 得到每个画布像素的投影坐标
+     * @param vertexMeshSize 顶点插值网格的大小
+     * @return 各 Run 的 error 为投影坐标在相邻像素间的最大二阶差分 (像素), cells 为求解的单应性数量, millis 为求解 + 重映射耗时;
+     *         Comparison.error 为两种网格投影坐标的最大偏差
+     */
+    public native Comparison nativeCompareMeshContinuity(int vertexMeshSize);
+
+    /**
+     * 设置 native 内存预算 (与 NativeMemoryBudget 相同的全局预算), 0 表示不限制
+     * @param bytes 预算字节数
+     */
+    public native void nativeSetMemoryBudget(long bytes);
+
+    /**
+     * @return 当前可用的 native 内存预算 (字节, 已计入 onTrimMemory 的收紧), 0 表示不限制
+     */
+    public native long nativeAvailableMemoryBudget();
+
+    /**
+     * APAP 单次合成在给定画布上的峰值内存估算, 与拼接时检查预算使用的估算相同
+     * @param tileSize 分块大小, <= 0 时整块合成
+     * @param linear 是否线性融合
+     */
+    public native long nativeSinglePassBytes(int canvasWidth, int canvasHeight, int tileSize, boolean linear);
+
+    /**
+     * 在 700×500 的坐标图上执行 Projection::Warp, 再按投影的正向公式把每个输出像素对应的原图坐标投影回去
+     * @param projection 投影方式 (PROJECTION_*)
+     * @param focalRatio 焦距与图片长边之比
+     * @return 回到的位置与输出像素本身的最大偏差 (像素)
+     */
+    public native double nativeProjectionRoundTrip(int projection, double focalRatio);
+
+    /**
+     * 由相机绕光心旋转拍摄的两幅合成视图 (700×500, 已知焦距) 执行 Projection::EstimateFocalRatio
+     * @param focalRatio 合成视图的真实焦距与图片长边之比
+     * @param textured false 时视图为纯色 (没有特征), 估计应回退到 DEFAULT_FOCAL_RATIO
+     * @return 估计的焦距比
+     */
+    public native double nativeEstimateFocalRatio(double focalRatio, boolean textured);
+}
@@ -0,0 +1,174 @@
+package com.example.panoramapro;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class APAPMatcherTest {
+
+    private static final String TAG = "APAPMatcherTest";
+    private static final int CHECKS = 64;
+
+    private static void logResult(String name, APAPBenchmark.Comparison result) {
+        Log.i(TAG, name + ": 参考 " + result.reference + "; 对比 " + result.candidate
+                + String.format(", 加速 %.2fx", result.speedup()));
+    }
+
+    @Test
+    public void testFlannKdTreeKeepsRatioTestInliers() {
+        APAPBenchmark bench = new APAPBenchmark();
+        APAPBenchmark.Comparison result = bench.nativeCompareMatchers(APAPBenchmark.MATCHER_FLANN_KDTREE, CHECKS);
+        logResult("FLANN k-d 树", result);
+
+        // 近似最近邻允许少量漏检, 正确匹配数量不应明显少于暴力匹配
+        Assert.assertTrue("k-d 树正确匹配过少: " + result.candidate.correct + " / " + result.reference.correct,
+                result.candidate.correct >= 0.9 * result.reference.correct);
+        // 耗时 (含建树) 由 logResult 记录, 受设备负载影响, 不作为断言条件
+    }
+
+    @Test
+    public void testFlannKMeansKeepsRatioTestInliers() {
+        APAPBenchmark bench = new APAPBenchmark();
+        APAPBenchmark.Comparison result = bench.nativeCompareMatchers(APAPBenchmark.MATCHER_FLANN_KMEANS, CHECKS);
+        logResult("FLANN k-means 树", result);
+
+        Assert.assertTrue("k-means 树正确匹配过少: " + result.candidate.correct + " / " + result.reference.correct,
+                result.candidate.correct >= 0.9 * result.reference.correct);
+    }
+
+    @Test
+    public void testBinaryFeaturesFindCorrectMatches() {
+        APAPBenchmark bench = new APAPBenchmark();
+        int[] backends = {APAPBenchmark.FEATURE_ORB, APAPBenchmark.FEATURE_AKAZE};
+        String[] names = {"ORB", "AKAZE"};
+        for (int i = 0; i < backends.length; i++) {
+            APAPBenchmark.Comparison result = bench.nativeCompareFeatures(backends[i]);
+            logResult(names[i] + " (对比 SIFT)", result);
+
+            // 二进制特征只需提供足够 RANSAC 与局部单应性估计使用的正确匹配, 且误匹配占少数
+            Assert.assertTrue(names[i] + " 正确匹配过少: " + result.candidate.correct, result.candidate.correct >= 100);
+            Assert.assertTrue(names[i] + " 误匹配过多: " + result.candidate,
+                    result.candidate.correct >= 0.5 * result.candidate.count);
+            // 与 SIFT 的耗时对比由 logResult 记录, 受设备负载影响, 不作为断言条件
+        }
+    }
+
+    @Test
+    public void testKeypointBudgetKeepsSpatialCoverage() {
+        APAPBenchmark bench = new APAPBenchmark();
+        int budget = 1000;
+        APAPBenchmark.Comparison result = bench.nativeKeypointBudget(budget);
+        Log.i(TAG, "关键点上限 " + budget + ": " + result.reference.count + " -> " + result.candidate.count
+                + " 个, 覆盖网格 " + result.reference.cells + " -> " + result.candidate.cells
+                + ", 提取 + 匹配耗时 " + result.reference.millis + " -> " + result.candidate.millis + " ms");
+
+        Assert.assertTrue("筛选后超出上限: " + result.candidate.count, result.candidate.count <= budget);
+        Assert.assertEquals("筛选后数量应等于上限", Math.min(budget, result.reference.count), result.candidate.count);
+        // 每个网格先保留最强的关键点, 覆盖范围不应缩小
+        Assert.assertEquals("筛选后覆盖的网格减少", result.reference.cells, result.candidate.cells);
+        // 提取 + 匹配耗时已在上面记录, 受设备负载影响, 不作为断言条件
+    }
+
+    @Test
+    public void testPyramidMatchingKeepsCorrectMatches() {
+        APAPBenchmark bench = new APAPBenchmark();
+        // 典型的全景拍摄重叠比例
+        APAPBenchmark.Comparison result = bench.nativeComparePyramid(0.4);
+        logResult("金字塔匹配 (重叠 40%, 对比整图)", result);
+
+        // 引导匹配只比较预测位置附近的候选, 正确匹配不应明显减少, 误匹配比例不应升高
+        Assert.assertTrue("金字塔正确匹配过少: " + result.candidate.correct + " / " + result.reference.correct,
+                result.candidate.correct >= 0.9 * result.reference.correct);
+        Assert.assertTrue("金字塔误匹配比例升高", (double) result.candidate.correct / result.candidate.count
+                >= (double) result.reference.correct / result.reference.count);
+        // 与整图检测 + 匹配的耗时对比由 logResult 记录, 受设备负载影响, 不作为断言条件
+    }
+
+    @Test
+    public void testPoseMasksReduceDetection() {
+        APAPBenchmark bench = new APAPBenchmark();
+        // 传感器误差在 POSE_ANGLE_TOLERANCE 之内
+        APAPBenchmark.Comparison result = bench.nativeComparePoseMasks(0.4, 3f);
+        logResult("方向先验掩码 (重叠 40%, 对比整图)", result);
+
+        Assert.assertTrue("方向先验掩码被错误回退", result.verified);
+        // 重叠区域 (含外扩) 不到图片的一半, 检测的关键点应减少一半以上, 正确内点不应明显减少
+        Assert.assertTrue("掩码没有减少一半以上的关键点: " + result.candidate.count + " / " + result.reference.count,
+                result.candidate.count < 0.5 * result.reference.count);
+        Assert.assertTrue("掩码检测正确内点过少: " + result.candidate.correct + " / " + result.reference.correct,
+                result.candidate.correct >= 0.9 * result.reference.correct);
+        // 与整图检测的耗时对比由 logResult 记录, 受设备负载影响, 不作为断言条件
+    }
+
+    @Test
+    public void testWrongPoseMasksFallBackToFullDetection() {
+        APAPBenchmark bench = new APAPBenchmark();
+        // 方位角之差的符号错误: 预测的重叠条带位于两幅图片的另一侧, 与真实重叠区域不相交
+        APAPBenchmark.Comparison result = bench.nativeComparePoseMasks(0.4, -60f);
+        logResult("错误的方向先验 (回退整图检测)", result);
+
+        Assert.assertFalse("错误的方向先验没有回退到整图检测", result.verified);
+        Assert.assertTrue("回退后正确内点过少: " + result.candidate.correct + " / " + result.reference.correct,
+                result.candidate.correct >= 0.9 * result.reference.correct);
+    }
+
+    @Test
+    public void testDescriptorCompressionReducesMemory() {
+        APAPBenchmark bench = new APAPBenchmark();
+        int[] modes = {APAPBenchmark.DESCRIPTOR_UINT8, APAPBenchmark.DESCRIPTOR_PCA};
+        // uint8 描述子只用于暴力匹配 (整数 L2 距离), 与暴力匹配的 float 描述子对比; PCA 在默认的 FLANN k-d 树上对比
+        int[] matchers = {APAPBenchmark.MATCHER_BRUTE_FORCE, APAPBenchmark.MATCHER_FLANN_KDTREE};
+        String[] names = {"uint8 量化 (暴力匹配)", "PCA 降维"};
+        // uint8 量化不损失信息; PCA 降维允许比率测试内点有一定损失
+        double[] minKept = {0.95, 0.7};
+        for (int i = 0; i < modes.length; i++) {
+            APAPBenchmark.Comparison result = bench.nativeCompareDescriptors(modes[i], matchers[i], 5);
+            logResult(names[i] + " (对比 float)", result);
+            Log.i(TAG, names[i] + ": 描述子 " + result.reference.bytes / 1024 + " KB -> " + result.candidate.bytes / 1024
+                    + " KB, 正确匹配保留 " + String.format("%.1f%%", 100.0 * result.candidate.correct / result.reference.correct));
+
+            Assert.assertTrue(names[i] + " 描述子内存未减小到 1/4: " + result.candidate.bytes + " / " + result.reference.bytes,
+                    result.candidate.bytes <= 0.25 * result.reference.bytes);
+            Assert.assertTrue(names[i] + " 正确匹配过少: " + result.candidate.correct + " / " + result.reference.correct,
+                    result.candidate.correct >= minKept[i] * result.reference.correct);
+            // 与 float 描述子的匹配耗时对比由 logResult 记录, 受设备负载影响, 不作为断言条件
+        }
+    }
+
+    @Test
+    public void testUsacEstimatorsKeepCleanInliers() {
+        APAPBenchmark bench = new APAPBenchmark();
+        int[] estimators = {APAPBenchmark.ESTIMATOR_PROSAC, APAPBenchmark.ESTIMATOR_MAGSAC};
+        String[] names = {"PROSAC", "MAGSAC++"};
+        for (int i = 0; i < estimators.length; i++) {
+            APAPBenchmark.Comparison result = bench.nativeCompareEstimators(estimators[i], 20);
+            logResult(names[i] + " (对比 RANSAC)", result);
+
+            // 内点中的误匹配比例不应明显高于 RANSAC (同一阈值下允许随机采样带来的微小差异), 且不应漏掉正确匹配
+            Assert.assertTrue(names[i] + " 内点不够干净", (double) result.candidate.correct / result.candidate.count
+                    >= (double) result.reference.correct / result.reference.count - 0.02);
+            Assert.assertTrue(names[i] + " 正确内点过少: " + result.candidate.correct + " / " + result.reference.correct,
+                    result.candidate.correct >= 0.9 * result.reference.correct);
+            // 与 RANSAC 的耗时对比由 logResult 记录, 受设备负载影响, 不作为断言条件
+        }
+    }
+
+    @Test
+    public void testPoseGuidedMatchingSkipsRobustEstimation() {
+        APAPBenchmark bench = new APAPBenchmark();
+        float priorError = 20f;
+        APAPBenchmark.Comparison result = bench.nativeComparePoseGuided(priorError);
+        logResult("先验引导 (误差 " + priorError + " px, " + (result.verified ? "直接验证通过" : "回退鲁棒估计") + ")", result);
+
+        // 先验误差在搜索半径内时, 引导匹配的误匹配很少, 应直接通过验证且不丢失正确匹配
+        Assert.assertTrue("引导匹配未通过直接验证", result.verified);
+        Assert.assertTrue("引导匹配正确内点过少: " + result.candidate.correct + " / " + result.reference.correct,
+                result.candidate.correct >= 0.9 * result.reference.correct);
+        // 与完整匹配 + PROSAC 的耗时对比由 logResult 记录, 受设备负载影响, 不作为断言条件
+    }
+}
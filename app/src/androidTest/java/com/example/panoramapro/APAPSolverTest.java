@@ -0,0 +1,89 @@
+package com.example.panoramapro;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class APAPSolverTest {
+
+    private static final String TAG = "APAPSolverTest";
+    private static final int NUM_POINTS = 400;
+    private static final int TIMING_RUNS = 5;
+    // 与 C++ Constants::ADAPTIVE_MESH_MAX_CELLS 一致
+    private static final int ADAPTIVE_MAX_CELLS = 2500;
+
+    @Test
+    public void testNormalEquationDoubleMatchesSvd() {
+        APAPBenchmark.Comparison result = logMedianTiming("double 法方程", APAPBenchmark.SOLVER_NORMAL_EQ_DOUBLE);
+
+        // 与 SVD 路径的结果应在数值误差范围内一致
+        Assert.assertTrue("法方程(double)与 SVD 结果偏差过大: " + result.error, result.error < 1e-3);
+    }
+
+    @Test
+    public void testNormalEquationFloatMatchesSvd() {
+        APAPBenchmark.Comparison result = logMedianTiming("float 法方程", APAPBenchmark.SOLVER_NORMAL_EQ_FLOAT);
+
+        // float 精度下允许亚像素级偏差
+        Assert.assertTrue("法方程(float)与 SVD 结果偏差过大: " + result.error, result.error < 0.5);
+    }
+
+    @Test
+    public void testSparseWeightingMatchesDense() {
+        APAPBenchmark bench = new APAPBenchmark();
+        APAPBenchmark.Comparison svd = bench.nativeCompareSolvers(NUM_POINTS, APAPBenchmark.SOLVER_SVD, true);
+        APAPBenchmark.Comparison normal = bench.nativeCompareSolvers(NUM_POINTS, APAPBenchmark.SOLVER_NORMAL_EQ_DOUBLE, true);
+
+        Log.i(TAG, "稀疏加权: SVD 最大偏差 " + svd.error + " px, 耗时 " + svd.candidate.millis
+                + " ms; 法方程最大偏差 " + normal.error + " px, 耗时 " + normal.candidate.millis + " ms");
+
+        // 超出截断半径的权重恰好等于 GAMMA, 稀疏计算与稠密计算应一致
+        Assert.assertTrue("稀疏 SVD 与稠密 SVD 结果偏差过大: " + svd.error, svd.error < 1e-3);
+        Assert.assertTrue("稀疏法方程与稠密 SVD 结果偏差过大: " + normal.error, normal.error < 1e-3);
+    }
+
+    @Test
+    public void testAdaptiveMeshStaysWithinBudget() {
+        APAPBenchmark bench = new APAPBenchmark();
+        APAPBenchmark.Comparison result = bench.nativeCompareAdaptiveMesh(ADAPTIVE_MAX_CELLS);
+
+        Log.i(TAG, "自适应网格: " + result.candidate.cells + " 个单应性 (固定网格 " + result.reference.cells
+                + "), 最大投影偏差 " + result.error + " px, 耗时 " + result.candidate.millis + " / "
+                + result.reference.millis + " ms");
+
+        Assert.assertTrue("自适应网格叶子数量超出上限: " + result.candidate.cells,
+                result.candidate.cells <= ADAPTIVE_MAX_CELLS);
+        Assert.assertTrue("自适应网格应少于固定网格的单应性数量: " + result.candidate.cells,
+                result.candidate.cells < result.reference.cells);
+        // 叶子只在相邻层投影相差不足 ADAPTIVE_MESH_TOLERANCE 时停止细分, 查找到的单应性与固定网格相差应在像素级以内
+        Assert.assertTrue("自适应网格与固定网格的投影偏差过大: " + result.error, result.error < 2.0);
+    }
+
+    /**
+     * 重复运行 TIMING_RUNS 次, 记录耗时中位数; 耗时受设备负载影响, 只记录不作为断言条件。
+     * 返回最后一次运行的结果用于精度断言 (求解结果与运行次数无关)。
+     */
+    private static APAPBenchmark.Comparison logMedianTiming(String label, int solver) {
+        APAPBenchmark bench = new APAPBenchmark();
+        double[] reference = new double[TIMING_RUNS];
+        double[] candidate = new double[TIMING_RUNS];
+        APAPBenchmark.Comparison result = null;
+        for (int i = 0; i < TIMING_RUNS; i++) {
+            result = bench.nativeCompareSolvers(NUM_POINTS, solver, false);
+            reference[i] = result.reference.millis;
+            candidate[i] = result.candidate.millis;
+        }
+        Arrays.sort(reference);
+        Arrays.sort(candidate);
+        Log.i(TAG, label + ": 最大偏差 " + result.error + " px, SVD 耗时中位数 " + reference[TIMING_RUNS / 2]
+                + " ms, 法方程耗时中位数 " + candidate[TIMING_RUNS / 2] + " ms");
+        return result;
+    }
+}
@@ -0,0 +1,579 @@
+package com.example.panoramapro;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.panoramapro.core.APAPStitcher;
+import com.example.panoramapro.core.NativeMemoryBudget;
+
+/**
+ * 通过 APAPStitcher 的真实入口 (Java -> JNI -> APAP::Stitching) 对比不同拼接参数的输出
+ * 使用暴力匹配, 使两次拼接的匹配与估计结果完全相同, 输出差异只来自被对比的参数
+ */
+@RunWith(AndroidJUnit4.class)
+public class APAPStitcherTest {
+
+    private static final String TAG = "APAPStitcherTest";
+    // 从 1.jpg 截取的两幅图片的宽度与水平间距 (640×700 小于工作分辨率, 不会被缩放)
+    private static final int CROP_WIDTH = 640;
+    private static final int CROP_SHIFT = 400;
+    // 旋转拍摄的合成视图: 视图大小、焦距 (像素) 与相邻视图的偏航角之差 (度)
+    private static final int VIEW_WIDTH = 400;
+    private static final int VIEW_HEIGHT = 500;
+    private static final double VIEW_FOCAL = 500;
+    private static final double VIEW_YAW_STEP = 15;
+    // 与 C++ Constants::COMPOSITE_TILE_SIZE 一致
+    private static final int TILE_SIZE = 512;
+    private static final long MB = 1024L * 1024L;
+    // ComponentCallbacks2 的 TRIM_MEMORY_* 级别
+    private static final int TRIM_RUNNING_MODERATE = 5;
+    private static final int TRIM_RUNNING_LOW = 10;
+    private static final int TRIM_RUNNING_CRITICAL = 15;
+    private static final int TRIM_UI_HIDDEN = 20;
+    // 与 C++ Constants::DEFAULT_FOCAL_RATIO 一致
+    private static final double DEFAULT_FOCAL_RATIO = 0.75;
+    // 与 C++ Constants::IMAGE_MAX_SIZE 一致
+    private static final int WORK_MAX_PIXELS = 700 * 700;
+
+    @Test
+    public void testAdaptiveMeshMatchesUniform() throws IOException {
+        List<Bitmap> inputs = loadPair();
+
+        // 强制执行 APAP, 否则全局单应性足够时两种网格都不会被使用
+        APAPStitcher.Options uniform = deterministicOptions();
+        uniform.globalResidualThreshold = 0;
+        APAPStitcher.Options adaptive = deterministicOptions();
+        adaptive.globalResidualThreshold = 0;
+        adaptive.meshMode = APAPStitcher.MESH_ADAPTIVE;
+
+        Bitmap expected = stitch(uniform, inputs, true);
+        Bitmap actual = stitch(adaptive, inputs, true);
+        double diff = meanAbsDiff(expected, actual);
+        Log.i(TAG, "自适应网格与固定网格输出的平均绝对误差: " + diff);
+
+        // 画布由全局单应性决定, 与网格划分无关
+        assertSameSize(expected, actual);
+        Assert.assertTrue("自适应网格与固定网格的输出差异过大: " + diff, diff < 2.0);
+    }
+
+    @Test
+    public void testVertexMeshMatchesUniform() throws IOException {
+        List<Bitmap> inputs = loadPair();
+
+        APAPStitcher.Options uniform = deterministicOptions();
+        uniform.globalResidualThreshold = 0;
+        APAPStitcher.Options vertex = deterministicOptions();
+        vertex.globalResidualThreshold = 0;
+        vertex.meshMode = APAPStitcher.MESH_VERTEX;
+
+        Bitmap expected = stitch(uniform, inputs, true);
+        Bitmap actual = stitch(vertex, inputs, true);
+        double diff = meanAbsDiff(expected, actual);
+        Log.i(TAG, "顶点插值网格与固定网格输出的平均绝对误差: " + diff);
+
+        assertSameSize(expected, actual);
+        Assert.assertTrue("顶点插值网格与固定网格的输出差异过大: " + diff, diff < 2.0);
+    }
+
+    @Test
+    public void testFootprintMatchesFullCanvas() throws IOException {
+        List<Bitmap> inputs = loadPair();
+
+        // 强制执行 APAP, 同时覆盖局部单应性的求解范围与融合权重
+        APAPStitcher.Options full = deterministicOptions();
+        full.globalResidualThreshold = 0;
+        full.footprintOnly = false;
+        APAPStitcher.Options footprint = deterministicOptions();
+        footprint.globalResidualThreshold = 0;
+
+        Bitmap expected = stitch(full, inputs, true);
+        Bitmap actual = stitch(footprint, inputs, true);
+        double diff = meanAbsDiff(expected, actual);
+        Log.i(TAG, "覆盖范围与整张画布输出的平均绝对误差: " + diff);
+
+        // 旧画布的距离权重不受覆盖范围影响, 只剩映射表前向差分起点不同带来的取整差异
+        Assert.assertTrue("只在覆盖范围内计算的输出与整张画布不一致: " + diff, diff < 0.1);
+    }
+
+    @Test
+    public void testChainedStitchesThreeImages() throws IOException {
+        // 从 1.jpg 等间距截取三幅相邻重叠的图片, 链式拼接后应还原整张图片
+        Bitmap source = loadBitmapFromAssets("1.jpg");
+        int shift = (source.getWidth() - CROP_WIDTH) / 2;
+        List<Bitmap> inputs = chainedCrops(source);
+
+        APAPStitcher.Options chained = deterministicOptions();
+        chained.chained = true;
+        Bitmap result = stitch(chained, inputs, false);
+        Log.i(TAG, "链式拼接 3 张: " + result.getWidth() + " x " + result.getHeight());
+
+        int expectedWidth = 2 * shift + CROP_WIDTH;
+        Assert.assertEquals("链式拼接画布宽度应覆盖三幅图片", expectedWidth, result.getWidth(), 2.0);
+        Assert.assertEquals("链式拼接画布高度应与输入一致", source.getHeight(), result.getHeight(), 2.0);
+
+        // 三幅图片只差平移, 对齐后最大值融合的结果与原图一致 (只有亚像素重采样差异)
+        int width = Math.min(expectedWidth, result.getWidth());
+        int height = Math.min(source.getHeight(), result.getHeight());
+        double diff = meanAbsDiff(Bitmap.createBitmap(source, 0, 0, width, height),
+                Bitmap.createBitmap(result, 0, 0, width, height));
+        Log.i(TAG, "链式拼接结果与原图的平均绝对误差: " + diff);
+        Assert.assertTrue("链式拼接结果与原图不一致: " + diff, diff < 3.0);
+    }
+
+    @Test
+    public void testSinglePassMatchesIncremental() throws IOException {
+        List<Bitmap> inputs = chainedCrops(loadBitmapFromAssets("1.jpg"));
+
+        // 两种合成方式使用同一组相邻对估计, 变换相同, 只有合成顺序与画布的扩展方式不同
+        APAPStitcher.Options incremental = deterministicOptions();
+        incremental.chained = true;
+        incremental.singlePass = false;
+        APAPStitcher.Options singlePass = deterministicOptions();
+        singlePass.chained = true;
+
+        Bitmap expected = stitch(incremental, inputs, false);
+        Bitmap actual = stitch(singlePass, inputs, false);
+        Log.i(TAG, "增量合成 " + expected.getWidth() + " x " + expected.getHeight()
+                + ", 单次合成 " + actual.getWidth() + " x " + actual.getHeight());
+
+        // 增量合成把已有画布按整数位置复制, 单次合成对参考图片也按亚像素偏移重采样, 画布边界可相差 1 像素
+        Assert.assertEquals("单次合成与增量合成的画布宽度应一致", expected.getWidth(), actual.getWidth(), 1.0);
+        Assert.assertEquals("单次合成与增量合成的画布高度应一致", expected.getHeight(), actual.getHeight(), 1.0);
+
+        int width = Math.min(expected.getWidth(), actual.getWidth());
+        int height = Math.min(expected.getHeight(), actual.getHeight());
+        double diff = meanAbsDiff(Bitmap.createBitmap(expected, 0, 0, width, height),
+                Bitmap.createBitmap(actual, 0, 0, width, height));
+        Log.i(TAG, "单次合成与增量合成输出的平均绝对误差: " + diff);
+        Assert.assertTrue("单次合成与增量合成的输出差异过大: " + diff, diff < 2.0);
+    }
+
+    @Test
+    public void testMemoryBudgetTrimLevels() {
+        APAPBenchmark benchmark = new APAPBenchmark();
+        try {
+            benchmark.nativeSetMemoryBudget(100 * MB);
+            Assert.assertEquals("未收紧时可用预算即为设置值", 100 * MB, benchmark.nativeAvailableMemoryBudget());
+
+            NativeMemoryBudget.onTrimMemory(TRIM_RUNNING_LOW);
+            Assert.assertEquals("RUNNING_LOW 应收紧至一半", 50 * MB, benchmark.nativeAvailableMemoryBudget());
+            NativeMemoryBudget.onTrimMemory(TRIM_RUNNING_MODERATE);
+            Assert.assertEquals("较轻的级别不应放宽已收紧的预算", 50 * MB, benchmark.nativeAvailableMemoryBudget());
+            NativeMemoryBudget.onTrimMemory(TRIM_UI_HIDDEN);
+            Assert.assertEquals("退到后台不应影响预算", 50 * MB, benchmark.nativeAvailableMemoryBudget());
+            NativeMemoryBudget.onTrimMemory(TRIM_RUNNING_CRITICAL);
+            Assert.assertEquals("RUNNING_CRITICAL 应收紧至四分之一", 25 * MB, benchmark.nativeAvailableMemoryBudget());
+
+            benchmark.nativeSetMemoryBudget(100 * MB);
+            Assert.assertEquals("重新设置预算时应清除收紧", 100 * MB, benchmark.nativeAvailableMemoryBudget());
+        } finally {
+            benchmark.nativeSetMemoryBudget(0);
+        }
+    }
+
+    @Test
+    public void testTiledEstimateBoundsLargeCanvas() {
+        // 大画布上分块合成的工作内存只与块大小和线程数有关, 估算应远小于整块合成
+        APAPBenchmark benchmark = new APAPBenchmark();
+        for (boolean linear : new boolean[]{false, true}) {
+            long whole = benchmark.nativeSinglePassBytes(8000, 4000, 0, linear);
+            long tiled = benchmark.nativeSinglePassBytes(8000, 4000, TILE_SIZE, linear);
+            Log.i(TAG, "8000 x 4000 画布" + (linear ? "线性融合" : "最大值融合") + ": 整块 " + (whole / MB)
+                    + " MB, 分块 " + (tiled / MB) + " MB");
+            Assert.assertTrue("分块合成的估算应小于整块合成", tiled < whole);
+            // 画布本身总要分配
+            Assert.assertTrue("估算不应小于画布本身", tiled >= 8000L * 4000L * 3);
+        }
+    }
+
+    @Test
+    public void testBudgetRetryLowersResolution() throws IOException {
+        List<Bitmap> inputs = chainedCrops(loadBitmapFromAssets("1.jpg"));
+        // 不使用两级分辨率, 降级直接降低工作分辨率
+        APAPStitcher.Options options = deterministicOptions();
+        options.chained = true;
+        options.renderMaxSize = 0;
+        Bitmap unconstrained = stitch(options, inputs, false);
+
+        // 预算小于该画布整块与分块合成的估算: 工作分辨率下的合成必然超出预算, 降低分辨率后画布变小才能完成
+        APAPBenchmark benchmark = new APAPBenchmark();
+        int width = unconstrained.getWidth();
+        int height = unconstrained.getHeight();
+        long budget = Math.min(benchmark.nativeSinglePassBytes(width, height, 0, false),
+                benchmark.nativeSinglePassBytes(width, height, TILE_SIZE, false)) - 1;
+        Bitmap degraded;
+        try {
+            benchmark.nativeSetMemoryBudget(budget);
+            degraded = stitch(options, inputs, false);
+        } finally {
+            benchmark.nativeSetMemoryBudget(0);
+        }
+        Log.i(TAG, "预算 " + (budget / MB) + " MB: " + width + " x " + height + " -> "
+                + degraded.getWidth() + " x " + degraded.getHeight());
+
+        Assert.assertTrue("超出预算后应降低分辨率重试", degraded.getWidth() < width && degraded.getHeight() < height);
+        // 降级只改变分辨率, 画布的宽高比不变
+        double aspect = (double) width / height;
+        double degradedAspect = (double) degraded.getWidth() / degraded.getHeight();
+        Assert.assertEquals("降级后画布的宽高比应不变", aspect, degradedAspect, 0.02 * aspect);
+    }
+
+    @Test
+    public void testPyramidMatchingMatchesFullDetection() throws IOException {
+        List<Bitmap> inputs = loadPair();
+
+        Bitmap expected = stitch(deterministicOptions(), inputs, false);
+        APAPStitcher.Options pyramid = deterministicOptions();
+        pyramid.pyramidMatching = true;
+        Bitmap actual = stitch(pyramid, inputs, false);
+        Log.i(TAG, "整图检测 " + expected.getWidth() + " x " + expected.getHeight()
+                + ", 金字塔匹配 " + actual.getWidth() + " x " + actual.getHeight());
+
+        // 两者的内点不同, 全局单应性只有细微差异, 画布大小应基本一致
+        Assert.assertEquals("金字塔匹配的画布宽度与整图检测差异过大",
+                expected.getWidth(), actual.getWidth(), 0.02 * expected.getWidth());
+        Assert.assertEquals("金字塔匹配的画布高度与整图检测差异过大",
+                expected.getHeight(), actual.getHeight(), 0.02 * expected.getHeight());
+    }
+
+    @Test
+    public void testWrongOrientationsStillStitch() throws IOException {
+        List<Bitmap> inputs = cropPair(0f);
+        APAPStitcher.Options options = deterministicOptions();
+        options.chained = true;
+        Bitmap expected = stitch(options, inputs, false);
+
+        // 方位角之差的符号错误: 预测的重叠区域位于两幅图片的另一侧, 掩码内的内点不足, 应回退到整图检测
+        // 真实方位角之差: 平移 CROP_SHIFT 像素, 焦距按默认焦距比与图片长边计算
+        Bitmap left = inputs.get(0);
+        double focal = DEFAULT_FOCAL_RATIO * Math.max(left.getWidth(), left.getHeight());
+        float azimuth = (float) Math.toDegrees(Math.atan(CROP_SHIFT / focal));
+        List<float[]> orientations = new ArrayList<>();
+        orientations.add(new float[]{0f, 0f, 0f});
+        orientations.add(new float[]{-azimuth, 0f, 0f});
+        Bitmap actual = new APAPStitcher(options).stitch(inputs, orientations, false);
+        Assert.assertNotNull("错误的方向先验导致拼接失败", actual);
+        Log.i(TAG, "无方向先验 " + expected.getWidth() + " x " + expected.getHeight()
+                + ", 错误的方向先验 " + actual.getWidth() + " x " + actual.getHeight());
+
+        Assert.assertEquals("回退后的画布宽度应与无方向先验一致", expected.getWidth(), actual.getWidth(), 2.0);
+        Assert.assertEquals("回退后的画布高度应与无方向先验一致", expected.getHeight(), actual.getHeight(), 2.0);
+        int width = Math.min(expected.getWidth(), actual.getWidth());
+        int height = Math.min(expected.getHeight(), actual.getHeight());
+        double diff = meanAbsDiff(Bitmap.createBitmap(expected, 0, 0, width, height),
+                Bitmap.createBitmap(actual, 0, 0, width, height));
+        Log.i(TAG, "错误的方向先验与无方向先验输出的平均绝对误差: " + diff);
+        Assert.assertTrue("错误的方向先验下的拼接结果与无方向先验不一致: " + diff, diff < 3.0);
+    }
+
+    @Test
+    public void testUint8DescriptorsMatchFloat() throws IOException {
+        List<Bitmap> inputs = loadPair();
+
+        // deterministicOptions 使用暴力匹配, uint8 描述子在此匹配方式下生效
+        Bitmap expected = stitch(deterministicOptions(), inputs, false);
+        APAPStitcher.Options quantized = deterministicOptions();
+        quantized.descriptors = APAPStitcher.DESCRIPTORS_UINT8;
+        Bitmap actual = stitch(quantized, inputs, false);
+
+        // OpenCV 的 SIFT 描述子本身就是 [0, 255] 的整数, 量化后的整数 L2 距离与 float 相同, 只有距离比相等时的排序可能不同
+        assertSameSize(expected, actual);
+        double diff = meanAbsDiff(expected, actual);
+        Log.i(TAG, "uint8 与 float 描述子输出的平均绝对误差: " + diff);
+        Assert.assertTrue("uint8 描述子的拼接结果与 float 描述子不一致: " + diff, diff < 0.5);
+    }
+
+    @Test
+    public void testCenterReferenceShrinksCanvas() throws IOException {
+        // 相机原地旋转拍摄的三幅视图: 以第一幅为参考时最右侧视图偏转 2 * VIEW_YAW_STEP, 透视拉伸大得多
+        List<Bitmap> inputs = rotatedViews();
+
+        APAPStitcher.Options first = deterministicOptions();
+        first.chained = true;
+        APAPStitcher.Options center = deterministicOptions();
+        center.chained = true;
+        center.reference = APAPStitcher.REFERENCE_CENTER;
+
+        Bitmap firstResult = stitch(first, inputs, false);
+        Bitmap centerResult = stitch(center, inputs, false);
+        long firstArea = (long) firstResult.getWidth() * firstResult.getHeight();
+        long centerArea = (long) centerResult.getWidth() * centerResult.getHeight();
+        Log.i(TAG, "画布: 以第一张为参考 " + firstResult.getWidth() + " x " + firstResult.getHeight()
+                + ", 以中间为参考 " + centerResult.getWidth() + " x " + centerResult.getHeight());
+
+        Assert.assertTrue("以中间图片为参考的画布应更小: " + centerArea + " / " + firstArea, centerArea < firstArea);
+        Assert.assertTrue("以中间图片为参考的画布高度不应更大",
+                centerResult.getHeight() <= firstResult.getHeight());
+    }
+
+    @Test
+    public void testTiledCompositeMatchesWholeCanvas() throws IOException {
+        List<Bitmap> inputs = loadPair();
+        APAPStitcher.Options whole = deterministicOptions();
+        whole.globalResidualThreshold = 0;
+        APAPStitcher.Options tiled = deterministicOptions();
+        tiled.globalResidualThreshold = 0;
+        tiled.tileSize = TILE_SIZE;
+
+        // 最大值融合与块的划分无关, 只剩映射表前向差分起点不同带来的取整差异
+        Bitmap expected = stitch(whole, inputs, false);
+        Bitmap actual = stitch(tiled, inputs, false);
+        double diff = meanAbsDiff(expected, actual);
+        Log.i(TAG, "分块与整块合成 (最大值融合) 的平均绝对误差: " + diff);
+        Assert.assertTrue("分块合成与整块合成的输出不一致: " + diff, diff < 0.1);
+
+        // 线性融合: 分块时距离权重截断到羽化半径, 只改变重叠区中部的过渡宽度 (两侧内容已对齐, 差异很小)
+        Bitmap expectedLinear = stitch(whole, inputs, true);
+        Bitmap actualLinear = stitch(tiled, inputs, true);
+        double linearDiff = meanAbsDiff(expectedLinear, actualLinear);
+        Log.i(TAG, "分块与整块合成 (线性融合) 的平均绝对误差: " + linearDiff);
+        Assert.assertTrue("分块合成的线性融合与整块合成相差过大: " + linearDiff, linearDiff < 3.0);
+    }
+
+    @Test
+    public void testRenderCanvasMatchesWorkingCanvas() throws IOException {
+        // 1.jpg / 2.jpg 大于工作分辨率: 默认参数下在工作分辨率估计, 在原图分辨率渲染
+        List<Bitmap> inputs = loadPair();
+        Bitmap render = stitch(deterministicOptions(), inputs, true);
+        APAPStitcher.Options workOnly = deterministicOptions();
+        workOnly.renderMaxSize = 0;
+        Bitmap work = stitch(workOnly, inputs, true);
+
+        // 渲染画布 = 工作画布 / 参考图片 (第一张) 的缩放比例, 与 Utils::ResizeImageIfTooLarge 的取整一致
+        Bitmap reference = inputs.get(0);
+        double ratio = Math.sqrt(WORK_MAX_PIXELS / ((double) reference.getWidth() * reference.getHeight()));
+        double scale = (int) (reference.getWidth() * ratio) / (double) reference.getWidth();
+        Log.i(TAG, "工作画布 " + work.getWidth() + " x " + work.getHeight() + ", 渲染画布 " + render.getWidth()
+                + " x " + render.getHeight() + ", 缩放比例 " + scale);
+        Assert.assertEquals("渲染画布宽度应为工作画布按比例换算", work.getWidth() / scale, render.getWidth(), 1.0);
+        Assert.assertEquals("渲染画布高度应为工作画布按比例换算", work.getHeight() / scale, render.getHeight(), 1.0);
+
+        // 缩小到工作分辨率后与工作分辨率的结果一致: 每张图片 (及接缝) 在两个分辨率下的位置相同,
+        // 差异只来自重采样
+        Bitmap downscaled = Bitmap.createScaledBitmap(render, work.getWidth(), work.getHeight(), true);
+        double diff = meanAbsDiff(work, downscaled);
+        Log.i(TAG, "渲染结果缩小后与工作分辨率结果的平均绝对误差: " + diff);
+        Assert.assertTrue("渲染结果与工作分辨率结果未对齐: " + diff, diff < 5.0);
+    }
+
+    @Test
+    public void testPureHomographyTakesGlobalPath() throws IOException {
+        // 同一张图片的两处截取: 两者只差一个平移, 全局单应性的残差只有关键点定位误差
+        List<Bitmap> inputs = cropPair(0f);
+
+        Bitmap automatic = stitch(deterministicOptions(), inputs, true);
+        APAPStitcher.Options global = deterministicOptions();
+        global.globalResidualThreshold = Double.MAX_VALUE;
+        Bitmap expected = stitch(global, inputs, true);
+
+        // 选择全局路径时输出与强制使用全局单应性完全相同
+        double diff = meanAbsDiff(expected, automatic);
+        Log.i(TAG, "纯单应性图片对: 与强制全局路径输出的平均绝对误差 " + diff);
+        Assert.assertEquals("纯单应性图片对应使用全局 warpPerspective", 0.0, diff, 0.0);
+    }
+
+    @Test
+    public void testParallaxTakesLocalPath() throws IOException {
+        // 右图叠加随行变化的水平位移, 单一单应性无法解释, 残差远大于阈值
+        List<Bitmap> inputs = cropPair(8f);
+
+        Bitmap automatic = stitch(deterministicOptions(), inputs, true);
+        APAPStitcher.Options local = deterministicOptions();
+        local.globalResidualThreshold = 0;
+        Bitmap expected = stitch(local, inputs, true);
+        APAPStitcher.Options global = deterministicOptions();
+        global.globalResidualThreshold = Double.MAX_VALUE;
+        Bitmap globalResult = stitch(global, inputs, true);
+
+        double localDiff = meanAbsDiff(expected, automatic);
+        double globalDiff = meanAbsDiff(globalResult, automatic);
+        Log.i(TAG, "视差图片对: 与强制 APAP 输出的平均绝对误差 " + localDiff + ", 与强制全局路径 " + globalDiff);
+        Assert.assertEquals("视差图片对应执行 APAP 局部单应性", 0.0, localDiff, 0.0);
+        Assert.assertTrue("视差图片对的输出不应与全局单应性相同", globalDiff > 0.0);
+    }
+
+    /**
+     * 结果确定的拼接参数: 暴力匹配 (FLANN 的随机 k-d 树每次构建不同)
+     */
+    private static APAPStitcher.Options deterministicOptions() {
+        APAPStitcher.Options options = new APAPStitcher.Options();
+        options.matcher = APAPStitcher.MATCHER_BRUTE_FORCE;
+        return options;
+    }
+
+    private static Bitmap stitch(APAPStitcher.Options options, List<Bitmap> inputs, boolean linearBlending) {
+        long start = System.currentTimeMillis();
+        Bitmap result = new APAPStitcher(options).stitch(inputs, linearBlending);
+        Log.i(TAG, "拼接耗时: " + (System.currentTimeMillis() - start) + "ms");
+        Assert.assertNotNull("拼接结果不应为空", result);
+        return result;
+    }
+
+    private static void assertSameSize(Bitmap expected, Bitmap actual) {
+        Assert.assertEquals("画布宽度应一致", expected.getWidth(), actual.getWidth());
+        Assert.assertEquals("画布高度应一致", expected.getHeight(), actual.getHeight());
+    }
+
+    /**
+     * 两幅同样大小图片 RGB 各通道的平均绝对误差
+     */
+    private static double meanAbsDiff(Bitmap a, Bitmap b) {
+        assertSameSize(a, b);
+        int width = a.getWidth();
+        int height = a.getHeight();
+        int[] rowA = new int[width];
+        int[] rowB = new int[width];
+        long sum = 0;
+        for (int y = 0; y < height; y++) {
+            a.getPixels(rowA, 0, width, 0, y, width, 1);
+            b.getPixels(rowB, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                for (int shift = 0; shift < 24; shift += 8) {
+                    sum += Math.abs(((rowA[x] >> shift) & 0xFF) - ((rowB[x] >> shift) & 0xFF));
+                }
+            }
+        }
+        return (double) sum / ((double) width * height * 3);
+    }
+
+    /**
+     * 从 1.jpg 截取水平间距为 CROP_SHIFT 的两幅图片
+     * @param parallax 右图叠加的水平位移幅度 (像素), 沿竖直方向按正弦变化; 0 时两幅图片只差一个平移
+     */
+    private static List<Bitmap> cropPair(float parallax) throws IOException {
+        Bitmap source = loadBitmapFromAssets("1.jpg");
+        int height = source.getHeight();
+        Bitmap left = Bitmap.createBitmap(source, 0, 0, CROP_WIDTH, height);
+        Bitmap right = Bitmap.createBitmap(source, CROP_SHIFT, 0, CROP_WIDTH, height);
+        if (parallax > 0) {
+            right = distort(right, parallax);
+        }
+        List<Bitmap> inputs = new ArrayList<>();
+        inputs.add(left);
+        inputs.add(right);
+        return inputs;
+    }
+
+    /**
+     * 按网格扭曲图片: 每行水平位移 amplitude * sin(2π y / height)
+     */
+    private static Bitmap distort(Bitmap src, float amplitude) {
+        final int meshWidth = 16;
+        final int meshHeight = 32;
+        float[] verts = new float[(meshWidth + 1) * (meshHeight + 1) * 2];
+        int k = 0;
+        for (int j = 0; j <= meshHeight; j++) {
+            float y = src.getHeight() * j / (float) meshHeight;
+            float shift = amplitude * (float) Math.sin(2 * Math.PI * y / src.getHeight());
+            for (int i = 0; i <= meshWidth; i++) {
+                verts[k++] = src.getWidth() * i / (float) meshWidth + shift;
+                verts[k++] = y;
+            }
+        }
+        Bitmap out = Bitmap.createBitmap(src.getWidth(), src.getHeight(), Bitmap.Config.ARGB_8888);
+        new Canvas(out).drawBitmapMesh(src, meshWidth, meshHeight, verts, 0, null, 0,
+                new Paint(Paint.FILTER_BITMAP_FLAG));
+        return out;
+    }
+
+    /**
+     * 从 source 等间距截取三幅宽 CROP_WIDTH 的相邻重叠图片, 覆盖整个宽度
+     */
+    private static List<Bitmap> chainedCrops(Bitmap source) {
+        int shift = (source.getWidth() - CROP_WIDTH) / 2;
+        List<Bitmap> inputs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            inputs.add(Bitmap.createBitmap(source, i * shift, 0, CROP_WIDTH, source.getHeight()));
+        }
+        return inputs;
+    }
+
+    /**
+     * 从 1.jpg 生成相机绕竖直轴旋转 -VIEW_YAW_STEP, 0, VIEW_YAW_STEP 度拍摄的三幅视图
+     * (1.jpg 视为中间视图所在的平面)
+     */
+    private static List<Bitmap> rotatedViews() throws IOException {
+        Bitmap scene = loadBitmapFromAssets("1.jpg");
+        List<Bitmap> views = new ArrayList<>();
+        for (int i = -1; i <= 1; i++) {
+            views.add(rotatedView(scene, i * VIEW_YAW_STEP));
+        }
+        return views;
+    }
+
+    /**
+     * 场景 -> 视图的单应性为 K R K^-1 (再先平移到以场景中心为中间视图的中心)
+     */
+    private static Bitmap rotatedView(Bitmap scene, double yawDegrees) {
+        double t = Math.toRadians(yawDegrees);
+        double c = Math.cos(t);
+        double s = Math.sin(t);
+        double f = VIEW_FOCAL;
+        double cx = VIEW_WIDTH / 2.0;
+        double cy = VIEW_HEIGHT / 2.0;
+        double[] k = {f, 0, cx, 0, f, cy, 0, 0, 1};
+        double[] r = {c, 0, s, 0, 1, 0, -s, 0, c};
+        double[] kInv = {1 / f, 0, -cx / f, 0, 1 / f, -cy / f, 0, 0, 1};
+        double[] shift = {1, 0, cx - scene.getWidth() / 2.0, 0, 1, cy - scene.getHeight() / 2.0, 0, 0, 1};
+        double[] m = multiply(multiply(multiply(k, r), kInv), shift);
+
+        float[] values = new float[9];
+        for (int i = 0; i < 9; i++) {
+            values[i] = (float) (m[i] / m[8]);
+        }
+        Matrix matrix = new Matrix();
+        matrix.setValues(values);
+        Bitmap view = Bitmap.createBitmap(VIEW_WIDTH, VIEW_HEIGHT, Bitmap.Config.ARGB_8888);
+        new Canvas(view).drawBitmap(scene, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        return view;
+    }
+
+    // 3×3 矩阵乘法 (行优先)
+    private static double[] multiply(double[] a, double[] b) {
+        double[] out = new double[9];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                for (int k = 0; k < 3; k++) {
+                    out[i * 3 + j] += a[i * 3 + k] * b[k * 3 + j];
+                }
+            }
+        }
+        return out;
+    }
+
+    private static List<Bitmap> loadPair() throws IOException {
+        List<Bitmap> inputs = new ArrayList<>();
+        inputs.add(loadBitmapFromAssets("1.jpg"));
+        inputs.add(loadBitmapFromAssets("2.jpg"));
+        return inputs;
+    }
+
+    private static Bitmap loadBitmapFromAssets(String fileName) throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getContext();
+        try (InputStream is = context.getAssets().open(fileName)) {
+            // 与 JNI 层要求的格式一致
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            Bitmap bitmap = BitmapFactory.decodeStream(is, null, options);
+            Assert.assertNotNull("图片加载失败: " + fileName, bitmap);
+            return bitmap;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.panoramapro;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class APAPWarpBenchmarkTest {
+
+    private static final String TAG = "APAPWarpBenchmark";
+    // 与 C++ Constants::VERTEX_MESH_SIZE 一致
+    private static final int VERTEX_MESH_SIZE = 30;
+
+    @Test
+    public void testFixedPointMapsAt4000x1500() {
+        APAPBenchmark bench = new APAPBenchmark();
+        APAPBenchmark.Comparison result = bench.nativeBenchmarkWarp(4000, 1500, 5);
+
+        Log.i(TAG, String.format("4000×1500 LocalWarp: float 映射表 %.1f ms, 定点映射表 %.1f ms, 加速 %.2fx, 平均误差 %.3f",
+                result.reference.millis, result.candidate.millis, result.speedup(), result.error));
+
+        // 两种映射表只在亚像素取整上有差异
+        // 耗时 (5 次中的最短耗时) 受设备负载影响, 只记录不作为断言条件
+        Assert.assertTrue("定点映射表输出与 float 映射表差异过大: " + result.error, result.error < 1.0);
+    }
+
+    @Test
+    public void testVertexMeshIsContinuous() {
+        APAPBenchmark bench = new APAPBenchmark();
+        APAPBenchmark.Comparison result = bench.nativeCompareMeshContinuity(VERTEX_MESH_SIZE);
+
+        Log.i(TAG, String.format("投影坐标最大二阶差分: 固定 100×100 网格 %.4f px (%d 个单应性, %.1f ms), "
+                        + "顶点插值 %d×%d 网格 %.4f px (%d 个单应性, %.1f ms), 两者最大偏差 %.3f px",
+                result.reference.error, result.reference.cells, result.reference.millis,
+                VERTEX_MESH_SIZE, VERTEX_MESH_SIZE, result.candidate.error, result.candidate.cells,
+                result.candidate.millis, result.error));
+
+        // 顶点插值在网格边界上连续, 30×30 网格的平滑度不低于 100×100 的分段单应性
+        Assert.assertTrue("顶点插值网格的投影不如固定网格平滑: " + result.candidate.error + " / " + result.reference.error,
+                result.candidate.error <= result.reference.error);
+        Assert.assertTrue("顶点插值网格应求解更少的单应性", result.candidate.cells < result.reference.cells);
+        // 两者近似同一个平滑的形变场
+        Assert.assertTrue("顶点插值网格与固定网格的投影偏差过大: " + result.error, result.error < 2.0);
+    }
+
+    @Test
+    public void testProjectionRoundTrip() {
+        APAPBenchmark bench = new APAPBenchmark();
+        for (int projection : new int[]{APAPBenchmark.PROJECTION_CYLINDRICAL, APAPBenchmark.PROJECTION_SPHERICAL}) {
+            for (double focalRatio : new double[]{0.5, APAPBenchmark.DEFAULT_FOCAL_RATIO, 1.5}) {
+                double error = bench.nativeProjectionRoundTrip(projection, focalRatio);
+                Log.i(TAG, String.format("投影 %d, 焦距比 %.2f: 往返最大偏差 %.4f px", projection, focalRatio, error));
+                // 只有映射表定点插值 (1/32 像素) 的量化误差
+                Assert.assertTrue("投影的反向映射与正向公式不一致: " + error, error < 0.1);
+            }
+        }
+    }
+
+    @Test
+    public void testFocalRatioEstimate() {
+        APAPBenchmark bench = new APAPBenchmark();
+        // 真实焦距比与默认值相差较大, 估计结果不会因回退而碰巧通过
+        double focalRatio = 1.2;
+        double estimate = bench.nativeEstimateFocalRatio(focalRatio, true);
+        Log.i(TAG, String.format("焦距比: 真实 %.3f, 估计 %.3f", focalRatio, estimate));
+        Assert.assertEquals("由单应性估计的焦距比偏差过大", focalRatio, estimate, 0.2 * focalRatio);
+
+        // 没有特征时无法估计, 回退到默认焦距比
+        double fallback = bench.nativeEstimateFocalRatio(focalRatio, false);
+        Assert.assertEquals("无法估计时应回退到默认焦距比", APAPBenchmark.DEFAULT_FOCAL_RATIO, fallback, 0.0);
+    }
+}
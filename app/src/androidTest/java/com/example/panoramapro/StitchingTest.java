@@ -52,6 +52,45 @@ public class StitchingTest {
         Assert.assertNotNull("拼接结果不应为空", result);
         Assert.assertTrue("结果宽度应大于0", result.getWidth() > 0);
         Assert.assertTrue("结果高度应大于0", result.getHeight() > 0);
+        engine.release();
+    }
+
+    @Test
+    public void testRecomposeReusesRegistration() throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getContext();
+
+        List<Bitmap> inputBitmaps = new ArrayList<>();
+        inputBitmaps.add(loadBitmapFromAssets(context, "1.jpg"));
+        inputBitmaps.add(loadBitmapFromAssets(context, "2.jpg"));
+
+        SIFTStitcher engine = new SIFTStitcher();
+
+        // 1. 完整拼接 (配准 + 合成)
+        long startTime = System.currentTimeMillis();
+        Bitmap full = engine.stitch(inputBitmaps, true);
+        long stitchMs = System.currentTimeMillis() - startTime;
+        Assert.assertNotNull("拼接结果不应为空", full);
+        Assert.assertTrue("拼接成功后应保留配准结果", engine.hasSession());
+
+        // 2. 更换融合方式, 只重新合成
+        startTime = System.currentTimeMillis();
+        Bitmap feather = engine.recompose(false, SIFTStitcher.OUTPUT_ORIGINAL);
+        long recomposeMs = System.currentTimeMillis() - startTime;
+        Assert.assertNotNull("重新合成结果不应为空", feather);
+        Assert.assertEquals("配准结果相同, 画布宽度应一致", full.getWidth(), feather.getWidth());
+        Assert.assertEquals("配准结果相同, 画布高度应一致", full.getHeight(), feather.getHeight());
+
+        // 3. 降低输出分辨率
+        Bitmap preview = engine.recompose(true, 0.3);
+        Assert.assertNotNull("低分辨率合成结果不应为空", preview);
+        Assert.assertTrue("低分辨率合成结果应更小", preview.getWidth() < full.getWidth());
+
+        Log.i(TAG, "完整拼接耗时: " + stitchMs + "ms, 重新合成耗时: " + recomposeMs + "ms");
+
+        // 4. 释放后不能再重新合成
+        engine.release();
+        Assert.assertFalse(engine.hasSession());
+        Assert.assertNull(engine.recompose(true, SIFTStitcher.OUTPUT_ORIGINAL));
     }
 
     /**
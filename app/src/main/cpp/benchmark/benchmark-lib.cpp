@@ -0,0 +1,745 @@
+//
+// Created by 31830 on 2026/10/17.
+//
+// androidTest 中 APAPBenchmark 使用的 JNI 接口, 单独编译为 libpanoramapro_benchmark.so
+// 只在 PANORAMAPRO_BENCHMARK=ON (debug 构建) 时编译, 不会进入发布版的 libpanoramapro.so
+//
+
+#include <jni.h>
+#include <vector>
+#include <algorithm>
+#include <cfloat>
+#include <cmath>
+#include <opencv2/opencv.hpp>
+#include "APAP.h"
+#include "Utils.h"
+#include "Constants.h"
+#include "FeatureMatcher.h"
+#include "KeypointBudget.h"
+#include "MemoryBudget.h"
+#include "PosePrior.h"
+#include "Projection.h"
+
+// 一次运行的统计结果, 与 Java 端 APAPBenchmark.Run 对应
+struct BenchmarkRun {
+    int count = 0;        // 匹配 / 内点 / 关键点数量
+    int correct = 0;      // 符合真实单应性的数量
+    double millis = 0.0;  // 耗时 (ms)
+    long long bytes = 0;  // 描述子 / 映射表占用的字节数
+    int cells = 0;        // 关键点覆盖的网格数 / 求解的网格单应性数量
+    double error = 0.0;   // 该实现自身的误差 (如投影坐标的最大二阶差分)
+};
+
+// 构造 APAPBenchmark.Comparison: 参考实现与待对比实现的结果
+static jobject NewComparison(JNIEnv* env, const BenchmarkRun& reference, const BenchmarkRun& candidate,
+                             double error = 0.0, bool verified = false) {
+    jclass run_class = env->FindClass("com/example/panoramapro/APAPBenchmark$Run");
+    jmethodID run_init = env->GetMethodID(run_class, "<init>", "(IIDJID)V");
+    auto new_run = [&](const BenchmarkRun& run) {
+        return env->NewObject(run_class, run_init, (jint)run.count, (jint)run.correct, (jdouble)run.millis,
+                              (jlong)run.bytes, (jint)run.cells, (jdouble)run.error);
+    };
+
+    jclass comparison_class = env->FindClass("com/example/panoramapro/APAPBenchmark$Comparison");
+    jmethodID comparison_init = env->GetMethodID(
+            comparison_class, "<init>",
+            "(Lcom/example/panoramapro/APAPBenchmark$Run;Lcom/example/panoramapro/APAPBenchmark$Run;DZ)V");
+    return env->NewObject(comparison_class, comparison_init, new_run(reference), new_run(candidate),
+                          (jdouble)error, verified ? JNI_TRUE : JNI_FALSE);
+}
+
+static double ElapsedMs(int64 t0) {
+    return (double)(cv::getTickCount() - t0) * 1000.0 / cv::getTickFrequency();
+}
+
+// 生成一组带噪声的合成匹配点 (dst = H_true * src), 用于求解器/映射表的对比测试
+// parallax > 0 时再叠加幅度为 parallax 像素的平滑正弦位移 (模拟视差), 单一单应性无法解释
+static void MakeSyntheticMatches(int num_points, int width, int height,
+                                 std::vector<cv::Point2f>& src, std::vector<cv::Point2f>& dst,
+                                 double parallax = 0.0) {
+    cv::RNG rng(12345);
+    cv::Matx33d H_true(1.02, 0.015, -0.45 * width,
+                       -0.01, 1.0, 8.0,
+                       2e-5, -1e-5, 1.0);
+    src.clear();
+    dst.clear();
+    for (int i = 0; i < num_points; ++i) {
+        // 匹配点只分布在右半部分 (模拟重叠区域)
+        double x = rng.uniform(width * 0.5, (double)width);
+        double y = rng.uniform(0.0, (double)height);
+        cv::Vec3d p = H_true * cv::Vec3d(x, y, 1.0);
+        double shift = parallax * std::sin(2.0 * CV_PI * y / height);
+        src.emplace_back((float)x, (float)y);
+        dst.emplace_back((float)(p[0] / p[2] + shift + rng.gaussian(0.5)),
+                         (float)(p[1] / p[2] + rng.gaussian(0.5)));
+    }
+}
+
+// 合成图片对: 模糊后的随机纹理 (产生大量斑点与角点特征) 与其经已知单应性变换后的副本
+static void MakeSyntheticPair(cv::Mat& image1, cv::Mat& image2, cv::Matx33d& H_true) {
+    const int width = 700, height = 700;
+    image1.create(height, width, CV_8UC3);
+    cv::randu(image1, cv::Scalar::all(0), cv::Scalar::all(255));
+    cv::GaussianBlur(image1, image1, cv::Size(0, 0), 2.0);
+    H_true = cv::Matx33d(0.98, 0.02, 12.0,
+                         -0.015, 1.01, -6.0,
+                         1e-5, -2e-5, 1.0);
+    cv::warpPerspective(image1, image2, cv::Mat(H_true), image1.size());
+}
+
+// 部分重叠的合成图片对: 从较宽的随机纹理中截取左右两幅 (重叠比例为 overlap), 右图再叠加轻微的透视变换
+// 与全景拍摄一致, 大部分像素不在重叠区域内
+static void MakeOverlappingPair(double overlap, cv::Mat& image1, cv::Mat& image2, cv::Matx33d& H_true) {
+    const int width = 700, height = 700;
+    const int shift = cvRound(width * (1.0 - overlap));
+    cv::Mat wide(height, width + shift, CV_8UC3);
+    cv::randu(wide, cv::Scalar::all(0), cv::Scalar::all(255));
+    cv::GaussianBlur(wide, wide, cv::Size(0, 0), 2.0);
+    image1 = wide(cv::Rect(0, 0, width, height)).clone();
+
+    // image1 与 wide 坐标相同; image2 = 平移 -shift 后再透视变换
+    cv::Matx33d T(1, 0, -shift, 0, 1, 0, 0, 0, 1);
+    cv::Matx33d P(1.0, 0.01, 4.0,
+                  -0.01, 1.0, -3.0,
+                  1e-5, 0.0, 1.0);
+    H_true = P * T;
+    cv::warpPerspective(wide, image2, cv::Mat(H_true), cv::Size(width, height));
+}
+
+// 符合真实单应性 (误差 < 3 像素) 的匹配数量
+static int CountCorrectMatches(const std::vector<cv::Point2f>& pts1, const std::vector<cv::Point2f>& pts2,
+                               const cv::Matx33d& H_true) {
+    int correct = 0;
+    for (size_t i = 0; i < pts1.size(); ++i) {
+        cv::Vec3d p = H_true * cv::Vec3d(pts1[i].x, pts1[i].y, 1.0);
+        double dx = p[0] / p[2] - pts2[i].x;
+        double dy = p[1] / p[2] - pts2[i].y;
+        if (dx * dx + dy * dy < 9.0) ++correct;
+    }
+    return correct;
+}
+
+// 统计 status 标记的内点中符合真实单应性的数量
+static int CountCorrectInliers(const std::vector<cv::Point2f>& pts1, const std::vector<cv::Point2f>& pts2,
+                               const std::vector<uchar>& status, const cv::Matx33d& H_true, int& inliers) {
+    std::vector<cv::Point2f> in1, in2;
+    for (size_t i = 0; i < status.size(); ++i) {
+        if (!status[i]) continue;
+        in1.push_back(pts1[i]);
+        in2.push_back(pts2[i]);
+    }
+    inliers = (int)in1.size();
+    return CountCorrectMatches(in1, in2, H_true);
+}
+
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_example_panoramapro_APAPBenchmark_nativeCompareSolvers(
+        JNIEnv* env,
+        jobject /* this */,
+        jint num_points,
+        jint solver_mode,
+        jboolean sparse) {
+
+    const int width = 700, height = 700;
+    std::vector<cv::Point2f> src, dst;
+    MakeSyntheticMatches(num_points, width, height, src, dst);
+
+    int mesh_cols = Constants::MESH_SIZE;
+    int mesh_rows = Constants::MESH_SIZE;
+    std::vector<cv::Point2f> mesh_vertices = Utils::GetMeshVertices(width, height, mesh_cols, mesh_rows, 0, 0);
+
+    BenchmarkRun svd, solver;
+    int64 t0 = cv::getTickCount();
+    // 参考结果: 原始的稠密 SVD 路径
+    auto reference = APAP::LocalHomography(src, dst, mesh_vertices, mesh_cols, mesh_rows, APAP::SOLVER_SVD, false);
+    svd.millis = ElapsedMs(t0);
+    t0 = cv::getTickCount();
+    auto candidate = APAP::LocalHomography(src, dst, mesh_vertices, mesh_cols, mesh_rows,
+                                           static_cast<APAP::SolverMode>(solver_mode), sparse == JNI_TRUE);
+    solver.millis = ElapsedMs(t0);
+
+    // 以网格中心点投影后的像素偏差衡量两种求解方式的差异
+    double max_diff = 0.0;
+    for (size_t i = 0; i < mesh_vertices.size(); ++i) {
+        Eigen::Vector3d p(mesh_vertices[i].x, mesh_vertices[i].y, 1.0);
+        Eigen::Vector3d a = reference[i] * p;
+        Eigen::Vector3d b = candidate[i] * p;
+        double diff = (a.hnormalized() - b.hnormalized()).norm();
+        if (diff > max_diff) max_diff = diff;
+    }
+
+    return NewComparison(env, svd, solver, max_diff);
+}
+
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_example_panoramapro_APAPBenchmark_nativeBenchmarkWarp(
+        JNIEnv* env,
+        jobject /* this */,
+        jint canvas_width,
+        jint canvas_height,
+        jint repeat) {
+
+    // 合成输入: 随机纹理图像 + 由合成匹配点求得的 100×100 网格局部单应性
+    cv::Mat image(canvas_height, canvas_width / 2, CV_8UC3);
+    cv::randu(image, cv::Scalar::all(0), cv::Scalar::all(255));
+
+    std::vector<cv::Point2f> src, dst;
+    MakeSyntheticMatches(400, canvas_width, canvas_height, src, dst);
+
+    int mesh_cols = Constants::MESH_SIZE;
+    int mesh_rows = Constants::MESH_SIZE;
+    std::vector<cv::Point2f> mesh_vertices = Utils::GetMeshVertices(canvas_width, canvas_height, mesh_cols, mesh_rows, 0, 0);
+    auto local_Hs = APAP::LocalHomography(src, dst, mesh_vertices, mesh_cols, mesh_rows);
+
+    cv::Size canvas_size(canvas_width, canvas_height);
+    cv::Point2f offset(0, 0);
+
+    // 各取多次运行中的最短耗时
+    auto time_warp = [&](bool fast_maps, cv::Mat& out) {
+        double best = 1e30;
+        for (int i = 0; i < std::max(1, (int)repeat); ++i) {
+            int64 t0 = cv::getTickCount();
+            out = APAP::LocalWarp(image, local_Hs, mesh_cols, mesh_rows, canvas_size, offset, {}, cv::Rect(), fast_maps);
+            best = std::min(best, ElapsedMs(t0));
+        }
+        return best;
+    };
+
+    cv::Mat warped_float, warped_fixed;
+    BenchmarkRun float_maps, fixed_maps;
+    float_maps.millis = time_warp(false, warped_float);
+    fixed_maps.millis = time_warp(true, warped_fixed);
+
+    // 两种映射表的输出差异 (每个通道的平均绝对误差)
+    double mean_diff = cv::norm(warped_float, warped_fixed, cv::NORM_L1) / (double)warped_float.total() / 3.0;
+
+    return NewComparison(env, float_maps, fixed_maps, mean_diff);
+}
+
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_example_panoramapro_APAPBenchmark_nativeCompareMatchers(
+        JNIEnv* env,
+        jobject /* this */,
+        jint matcher_backend,
+        jint checks) {
+
+    cv::Mat image1, image2;
+    cv::Matx33d H_true;
+    MakeSyntheticPair(image1, image2, H_true);
+
+    FeatureMatcher reference(FeatureMatcher::FEATURE_SIFT, FeatureMatcher::MATCHER_BRUTE_FORCE);
+    FeatureMatcher candidate(FeatureMatcher::FEATURE_SIFT,
+                             static_cast<FeatureMatcher::MatcherBackend>(matcher_backend), checks);
+    FeatureMatcher::Features f1 = reference.Detect(image1);
+    FeatureMatcher::Features f2 = reference.Detect(image2);
+
+    auto run = [&](const FeatureMatcher& matcher) {
+        BenchmarkRun result;
+        std::vector<cv::Point2f> pts1, pts2;
+        int64 t0 = cv::getTickCount();
+        matcher.MatchFeatures(f1, f2, pts1, pts2);
+        result.millis = ElapsedMs(t0);
+        result.count = (int)pts1.size();
+        result.correct = CountCorrectMatches(pts1, pts2, H_true);
+        return result;
+    };
+
+    BenchmarkRun brute_force = run(reference);
+    return NewComparison(env, brute_force, run(candidate));
+}
+
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_example_panoramapro_APAPBenchmark_nativeCompareFeatures(
+        JNIEnv* env,
+        jobject /* this */,
+        jint feature_backend) {
+
+    cv::Mat image1, image2;
+    cv::Matx33d H_true;
+    MakeSyntheticPair(image1, image2, H_true);
+
+    // 提取 + 匹配的总耗时
+    auto run = [&](const FeatureMatcher& matcher) {
+        BenchmarkRun result;
+        std::vector<cv::Point2f> pts1, pts2;
+        int64 t0 = cv::getTickCount();
+        FeatureMatcher::Features f1 = matcher.Detect(image1);
+        FeatureMatcher::Features f2 = matcher.Detect(image2);
+        matcher.MatchFeatures(f1, f2, pts1, pts2);
+        result.millis = ElapsedMs(t0);
+        result.count = (int)pts1.size();
+        result.correct = CountCorrectMatches(pts1, pts2, H_true);
+        return result;
+    };
+
+    BenchmarkRun sift = run(FeatureMatcher(FeatureMatcher::FEATURE_SIFT));
+    return NewComparison(env, sift, run(FeatureMatcher(static_cast<FeatureMatcher::FeatureBackend>(feature_backend))));
+}
+
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_example_panoramapro_APAPBenchmark_nativeKeypointBudget(
+        JNIEnv* env,
+        jobject /* this */,
+        jint budget) {
+
+    cv::Mat image1, image2;
+    cv::Matx33d H_true;
+    MakeSyntheticPair(image1, image2, H_true);
+
+    std::vector<cv::KeyPoint> keypoints;
+    FeatureMatcher::CreateDetector(FeatureMatcher::FEATURE_SIFT, 0)->detect(image1, keypoints);
+
+    // 以 KEYPOINT_GRID_SIZE 网格统计被关键点覆盖的网格数, 衡量筛选前后的空间分布
+    auto occupied_cells = [&](const std::vector<cv::KeyPoint>& kps) {
+        const int grid = Constants::KEYPOINT_GRID_SIZE;
+        std::vector<char> occupied(grid * grid, 0);
+        for (const auto& kp : kps) {
+            int cx = std::min(grid - 1, (int)(kp.pt.x * grid / image1.cols));
+            int cy = std::min(grid - 1, (int)(kp.pt.y * grid / image1.rows));
+            occupied[cy * grid + cx] = 1;
+        }
+        return (int)std::count(occupied.begin(), occupied.end(), 1);
+    };
+
+    BenchmarkRun raw, selected;
+    raw.count = (int)keypoints.size();
+    raw.cells = occupied_cells(keypoints);
+
+    std::vector<cv::KeyPoint> kept;
+    for (int idx : KeypointBudget::Select(keypoints, image1.size(), budget, Constants::KEYPOINT_GRID_SIZE)) {
+        kept.push_back(keypoints[idx]);
+    }
+    selected.count = (int)kept.size();
+    selected.cells = occupied_cells(kept);
+
+    // 提取 + 匹配的总耗时: 不限制关键点数量与限制为 budget
+    auto time_pair = [&](int limit) {
+        FeatureMatcher matcher(FeatureMatcher::FEATURE_SIFT, FeatureMatcher::MATCHER_FLANN_KDTREE,
+                               Constants::FLANN_CHECKS, limit);
+        std::vector<cv::Point2f> pts1, pts2;
+        int64 t0 = cv::getTickCount();
+        matcher.MatchFeatures(matcher.Detect(image1), matcher.Detect(image2), pts1, pts2);
+        return ElapsedMs(t0);
+    };
+    raw.millis = time_pair(0);
+    selected.millis = time_pair(budget);
+
+    return NewComparison(env, raw, selected);
+}
+
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_example_panoramapro_APAPBenchmark_nativeComparePyramid(
+        JNIEnv* env,
+        jobject /* this */,
+        jdouble overlap) {
+
+    cv::Mat image1, image2;
+    cv::Matx33d H_true;
+    MakeOverlappingPair(overlap, image1, image2, H_true);
+
+    // 提取 + 匹配的总耗时
+    FeatureMatcher matcher;
+    auto run = [&](bool pyramid) {
+        BenchmarkRun result;
+        std::vector<cv::Point2f> pts1, pts2;
+        int64 t0 = cv::getTickCount();
+        if (pyramid) matcher.RunPyramid(image1, image2, pts1, pts2);
+        else matcher.Run(image1, image2, pts1, pts2);
+        result.millis = ElapsedMs(t0);
+        result.count = (int)pts1.size();
+        result.correct = CountCorrectMatches(pts1, pts2, H_true);
+        return result;
+    };
+
+    BenchmarkRun full = run(false);
+    return NewComparison(env, full, run(true));
+}
+
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_example_panoramapro_APAPBenchmark_nativeComparePoseMasks(
+        JNIEnv* env,
+        jobject /* this */,
+        jdouble overlap,
+        jfloat azimuth_error) {
+
+    cv::Mat image1, image2;
+    cv::Matx33d H_true;
+    MakeOverlappingPair(overlap, image1, image2, H_true);
+
+    // 合成图片对只差水平平移, 与圆柱面上的旋转拍摄一致: 焦距取图片宽度, 方位角之差 = 平移量 / 焦距
+    const double focal_ratio = 1.0;
+    const double shift = image1.cols * (1.0 - overlap);
+    std::vector<PosePrior::Orientation> orientations(2);
+    orientations[1].azimuth = (float)(std::atan(shift / (focal_ratio * image1.cols)) * 180.0 / CV_PI) + azimuth_error;
+    const std::vector<cv::Mat> masks = PosePrior::OverlapMasks({image1, image2}, orientations, focal_ratio,
+                                                               Projection::CYLINDRICAL);
+
+    // 检测的关键点总数, 符合真实单应性的内点数量, 检测 + 匹配 + 估计耗时
+    FeatureMatcher matcher;
+    auto run = [&](const cv::Mat& mask1, const cv::Mat& mask2, BenchmarkRun& result) {
+        std::vector<cv::Point2f> pts1, pts2;
+        std::vector<uchar> status;
+        FeatureMatcher::Features f1 = matcher.Detect(image1, mask1);
+        FeatureMatcher::Features f2 = matcher.Detect(image2, mask2);
+        matcher.MatchFeatures(f1, f2, pts1, pts2);
+        APAP::EstimateHomography(pts2, pts1, APAP::ESTIMATOR_PROSAC, status);
+        int inliers = 0;
+        result.count = (int)(f1.keypoints.size() + f2.keypoints.size());
+        result.correct = CountCorrectInliers(pts1, pts2, status, H_true, inliers);
+        return inliers;
+    };
+
+    BenchmarkRun full, masked;
+    int64 t0 = cv::getTickCount();
+    run(cv::Mat(), cv::Mat(), full);
+    full.millis = ElapsedMs(t0);
+
+    // 与 APAP 一致: 掩码内的内点不足时视为预测有误, 在整张图片上重新检测一次
+    bool kept_masks = !masks.empty();
+    t0 = cv::getTickCount();
+    if (kept_masks && run(masks[0], masks[1], masked) < Constants::PRIOR_MIN_INLIERS) kept_masks = false;
+    if (!kept_masks) run(cv::Mat(), cv::Mat(), masked);
+    masked.millis = ElapsedMs(t0);
+
+    return NewComparison(env, full, masked, 0.0, kept_masks);
+}
+
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_example_panoramapro_APAPBenchmark_nativeCompareDescriptors(
+        JNIEnv* env,
+        jobject /* this */,
+        jint descriptor_mode,
+        jint matcher_backend,
+        jint repeat) {
+
+    cv::Mat image1, image2;
+    cv::Matx33d H_true;
+    MakeSyntheticPair(image1, image2, H_true);
+
+    // 参考与待对比使用同一匹配方式 (uint8 描述子总是暴力匹配, 应与暴力匹配的 float 描述子对比)
+    FeatureMatcher matcher(FeatureMatcher::FEATURE_SIFT, static_cast<FeatureMatcher::MatcherBackend>(matcher_backend));
+    const std::vector<FeatureMatcher::Features> table = {matcher.Detect(image1), matcher.Detect(image2)};
+
+    // 匹配耗时 (取最短, 压缩在提取阶段只做一次, 不计入) 与压缩后描述子的字节数
+    auto run = [&](FeatureMatcher::DescriptorMode mode) {
+        BenchmarkRun result;
+        std::vector<FeatureMatcher::Features> features = table;
+        FeatureMatcher::DescriptorCompressor(mode).Fit(features);
+        std::vector<cv::Point2f> pts1, pts2;
+        result.millis = DBL_MAX;
+        for (int r = 0; r < std::max(1, (int)repeat); ++r) {
+            int64 t0 = cv::getTickCount();
+            matcher.MatchFeatures(features[0], features[1], pts1, pts2);
+            result.millis = std::min(result.millis, ElapsedMs(t0));
+        }
+        result.count = (int)pts1.size();
+        result.correct = CountCorrectMatches(pts1, pts2, H_true);
+        result.bytes = (long long)(features[0].descriptors.total() * features[0].descriptors.elemSize()
+                                   + features[1].descriptors.total() * features[1].descriptors.elemSize());
+        return result;
+    };
+
+    BenchmarkRun original = run(FeatureMatcher::DESCRIPTOR_FLOAT);
+    return NewComparison(env, original, run(static_cast<FeatureMatcher::DescriptorMode>(descriptor_mode)));
+}
+
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_example_panoramapro_APAPBenchmark_nativeCompareEstimators(
+        JNIEnv* env,
+        jobject /* this */,
+        jint estimator,
+        jint repeat) {
+
+    cv::Mat image1, image2;
+    cv::Matx33d H_true;
+    MakeSyntheticPair(image1, image2, H_true);
+
+    // 匹配点按比率测试的质量排列, 与 APAP 中的输入一致
+    FeatureMatcher matcher;
+    std::vector<cv::Point2f> pts1, pts2;
+    matcher.MatchFeatures(matcher.Detect(image1), matcher.Detect(image2), pts1, pts2);
+
+    // 内点数量与平均耗时
+    auto run = [&](APAP::EstimatorMode mode) {
+        BenchmarkRun result;
+        std::vector<uchar> status;
+        int64 t0 = cv::getTickCount();
+        for (int r = 0; r < repeat; ++r) APAP::EstimateHomography(pts1, pts2, mode, status);
+        result.millis = ElapsedMs(t0) / std::max(1, (int)repeat);
+        result.correct = CountCorrectInliers(pts1, pts2, status, H_true, result.count);
+        return result;
+    };
+
+    BenchmarkRun ransac = run(APAP::ESTIMATOR_RANSAC);
+    return NewComparison(env, ransac, run(static_cast<APAP::EstimatorMode>(estimator)));
+}
+
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_example_panoramapro_APAPBenchmark_nativeComparePoseGuided(
+        JNIEnv* env,
+        jobject /* this */,
+        jfloat prior_error) {
+
+    cv::Mat image1, image2;
+    cv::Matx33d H_true;
+    MakeSyntheticPair(image1, image2, H_true);
+
+    FeatureMatcher matcher;
+    FeatureMatcher::Features f1 = matcher.Detect(image1);
+    FeatureMatcher::Features f2 = matcher.Detect(image2);
+
+    // 模拟设备方向预测的先验: 真实单应性叠加 prior_error 像素的平移误差
+    cv::Matx33d T(1, 0, prior_error, 0, 1, -0.5 * prior_error, 0, 0, 1);
+    cv::Mat prior(T * H_true);
+    const float radius = 2.0f * prior_error + (float)Constants::POSE_ANGLE_TOLERANCE;
+
+    // 匹配数量, 符合真实单应性的内点数量, 匹配 + 估计耗时
+    BenchmarkRun full, guided;
+    {
+        std::vector<cv::Point2f> pts1, pts2;
+        std::vector<uchar> status;
+        int64 t0 = cv::getTickCount();
+        matcher.MatchFeatures(f1, f2, pts1, pts2);
+        APAP::EstimateHomography(pts2, pts1, APAP::ESTIMATOR_PROSAC, status);
+        full.millis = ElapsedMs(t0);
+        int inliers = 0;
+        full.count = (int)pts1.size();
+        full.correct = CountCorrectInliers(pts1, pts2, status, H_true, inliers);
+    }
+    bool verified;
+    {
+        std::vector<cv::Point2f> pts1, pts2;
+        std::vector<uchar> status;
+        cv::Mat H;
+        int64 t0 = cv::getTickCount();
+        matcher.MatchGuided(f1, f2, prior, radius, pts1, pts2);
+        verified = APAP::VerifyGuided(pts1, pts2, H, status);
+        if (!verified) APAP::EstimateHomography(pts2, pts1, APAP::ESTIMATOR_PROSAC, status);
+        guided.millis = ElapsedMs(t0);
+        int inliers = 0;
+        guided.count = (int)pts1.size();
+        guided.correct = CountCorrectInliers(pts1, pts2, status, H_true, inliers);
+    }
+    return NewComparison(env, full, guided, 0.0, verified);
+}
+
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_example_panoramapro_APAPBenchmark_nativeCompareAdaptiveMesh(
+        JNIEnv* env,
+        jobject /* this */,
+        jint max_cells) {
+
+    // 带视差的合成匹配点, 局部单应性在重叠区域内变化, 自适应网格需要在此细分
+    const int width = 700, height = 700;
+    std::vector<cv::Point2f> src, dst;
+    MakeSyntheticMatches(400, width, height, src, dst, 4.0);
+    cv::Size canvas_size(width, height);
+    cv::Point2f offset(0, 0);
+
+    // 参考结果: 固定 MESH_SIZE × MESH_SIZE 网格
+    BenchmarkRun uniform, adaptive;
+    const int mesh_cols = Constants::MESH_SIZE;
+    const int mesh_rows = Constants::MESH_SIZE;
+    int64 t0 = cv::getTickCount();
+    std::vector<cv::Point2f> mesh_vertices = Utils::GetMeshVertices(width, height, mesh_cols, mesh_rows, 0, 0);
+    auto uniform_Hs = APAP::LocalHomography(src, dst, mesh_vertices, mesh_cols, mesh_rows);
+    uniform.millis = ElapsedMs(t0);
+    uniform.cells = (int)uniform_Hs.size();
+
+    t0 = cv::getTickCount();
+    APAP::AdaptiveMesh mesh = APAP::BuildAdaptiveMesh(src, dst, canvas_size, offset, max_cells);
+    adaptive.millis = ElapsedMs(t0);
+    adaptive.cells = (int)mesh.homographies.size();
+
+    // 逐像素 (每 4 像素采样) 比较两种网格经查找表选出的单应性的投影位置
+    const double uniform_x = (double)width / mesh_cols, uniform_y = (double)height / mesh_rows;
+    const double adaptive_x = (double)width / mesh.cols, adaptive_y = (double)height / mesh.rows;
+    double max_diff = 0.0;
+    for (int y = 0; y < height; y += 4) {
+        for (int x = 0; x < width; x += 4) {
+            int u = std::min((int)(y / uniform_y), mesh_rows - 1) * mesh_cols + std::min((int)(x / uniform_x), mesh_cols - 1);
+            int a = std::min((int)(y / adaptive_y), mesh.rows - 1) * mesh.cols + std::min((int)(x / adaptive_x), mesh.cols - 1);
+            Eigen::Vector3d p(x, y, 1.0);
+            Eigen::Vector3d q_u = uniform_Hs[u] * p;
+            Eigen::Vector3d q_a = mesh.homographies[mesh.cell_lookup[a]] * p;
+            max_diff = std::max(max_diff, (q_u.hnormalized() - q_a.hnormalized()).norm());
+        }
+    }
+
+    return NewComparison(env, uniform, adaptive, max_diff);
+}
+
+// 画布上相邻像素投影坐标的最大二阶差分 (x / y 方向): 平滑的投影变换接近 0, 网格边界处的跳变直接体现为峰值
+static double MaxSecondDifference(const cv::Mat& coords) {
+    auto second = [](const cv::Vec2f& a, const cv::Vec2f& b, const cv::Vec2f& c) {
+        return std::hypot((double)a[0] - 2.0 * b[0] + c[0], (double)a[1] - 2.0 * b[1] + c[1]);
+    };
+    double worst = 0.0;
+    for (int y = 1; y + 1 < coords.rows; ++y) {
+        const auto prev = coords.ptr<cv::Vec2f>(y - 1);
+        const auto row = coords.ptr<cv::Vec2f>(y);
+        const auto next = coords.ptr<cv::Vec2f>(y + 1);
+        for (int x = 1; x + 1 < coords.cols; ++x) {
+            worst = std::max(worst, second(row[x - 1], row[x], row[x + 1]));
+            worst = std::max(worst, second(prev[x], row[x], next[x]));
+        }
+    }
+    return worst;
+}
+
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_example_panoramapro_APAPBenchmark_nativeCompareMeshContinuity(
+        JNIEnv* env,
+        jobject /* this */,
+        jint vertex_mesh_size) {
+
+    // 带视差的合成匹配点, 相邻网格的单应性互不相同
+    const int width = 700, height = 700;
+    std::vector<cv::Point2f> src, dst;
+    MakeSyntheticMatches(400, width, height, src, dst, 4.0);
+    cv::Size canvas_size(width, height);
+    cv::Point2f offset(0, 0);
+
+    // 源图像为坐标图 (每个像素的值即其坐标), 双线性重映射的输出就是每个画布像素的投影坐标
+    // 单应性左乘平移 kPad, 使整个画布的投影都落在坐标图内部
+    const float kPad = 600.0f;
+    cv::Mat coords(height + 2 * (int)kPad, width + 2 * (int)kPad, CV_32FC2);
+    for (int y = 0; y < coords.rows; ++y) {
+        auto row = coords.ptr<cv::Vec2f>(y);
+        for (int x = 0; x < coords.cols; ++x) row[x] = cv::Vec2f((float)x, (float)y);
+    }
+    Eigen::Matrix3d T_pad = Eigen::Matrix3d::Identity();
+    T_pad(0, 2) = kPad;
+    T_pad(1, 2) = kPad;
+
+    // 参考: 固定 MESH_SIZE × MESH_SIZE 网格, 每个网格一个单应性
+    BenchmarkRun uniform, vertex;
+    const int mesh_size = Constants::MESH_SIZE;
+    int64 t0 = cv::getTickCount();
+    std::vector<cv::Point2f> centers = Utils::GetMeshVertices(width, height, mesh_size, mesh_size, 0, 0);
+    auto uniform_Hs = APAP::LocalHomography(src, dst, centers, mesh_size, mesh_size);
+    for (auto& H : uniform_Hs) H = T_pad * H;
+    cv::Mat uniform_coords = APAP::LocalWarp(coords, uniform_Hs, mesh_size, mesh_size, canvas_size, offset);
+    uniform.millis = ElapsedMs(t0);
+    uniform.cells = (int)uniform_Hs.size();
+    uniform.error = MaxSecondDifference(uniform_coords);
+
+    // 顶点插值: 较粗的网格, 单应性在角点处求解
+    t0 = cv::getTickCount();
+    std::vector<cv::Point2f> corners = Utils::GetMeshCorners(width, height, vertex_mesh_size, vertex_mesh_size, 0, 0);
+    auto vertex_Hs = APAP::LocalHomography(src, dst, corners, (int)corners.size(), 1);
+    for (auto& H : vertex_Hs) H = T_pad * H;
+    cv::Mat vertex_coords = APAP::LocalWarpInterpolated(coords, vertex_Hs, vertex_mesh_size, vertex_mesh_size,
+                                                        canvas_size, offset);
+    vertex.millis = ElapsedMs(t0);
+    vertex.cells = (int)vertex_Hs.size();
+    vertex.error = MaxSecondDifference(vertex_coords);
+
+    // 两种网格投影坐标的最大偏差
+    cv::Mat diff;
+    cv::absdiff(uniform_coords, vertex_coords, diff);
+    double max_diff = 0.0;
+    cv::minMaxLoc(diff.reshape(1), nullptr, &max_diff);
+
+    return NewComparison(env, uniform, vertex, max_diff);
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_example_panoramapro_APAPBenchmark_nativeSetMemoryBudget(
+        JNIEnv* env,
+        jobject /* this */,
+        jlong bytes) {
+    MemoryBudget::SetBudget(bytes > 0 ? (size_t)bytes : 0);
+}
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_example_panoramapro_APAPBenchmark_nativeAvailableMemoryBudget(
+        JNIEnv* env,
+        jobject /* this */) {
+    return (jlong)MemoryBudget::Available();
+}
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_example_panoramapro_APAPBenchmark_nativeSinglePassBytes(
+        JNIEnv* env,
+        jobject /* this */,
+        jint canvas_width,
+        jint canvas_height,
+        jint tile_size,
+        jboolean linear) {
+    return (jlong)MemoryBudget::SinglePassBytes(cv::Size(canvas_width, canvas_height), tile_size, linear);
+}
+
+extern "C" JNIEXPORT jdouble JNICALL
+Java_com_example_panoramapro_APAPBenchmark_nativeProjectionRoundTrip(
+        JNIEnv* env,
+        jobject /* this */,
+        jint mode,
+        jdouble focal_ratio) {
+    // 源图像为坐标图, Projection::Warp 输出的每个像素值即其反向映射到原图的坐标;
+    // 再按圆柱面 / 球面的正向公式把该坐标投影回去, 应回到输出像素本身
+    const int width = 700, height = 500;
+    const double focal = focal_ratio * std::max(width, height);
+    const auto projection = static_cast<Projection::Mode>(mode);
+    cv::Mat coords(height, width, CV_32FC2);
+    for (int y = 0; y < height; ++y) {
+        auto row = coords.ptr<cv::Vec2f>(y);
+        for (int x = 0; x < width; ++x) row[x] = cv::Vec2f((float)x, (float)y);
+    }
+    cv::Mat projected = Projection::Warp(coords, focal, projection);
+    // 双线性插值的四个邻点都在原图内的像素才参与比较 (原图边界处会与黑色背景混合)
+    cv::Mat valid = Projection::Warp(cv::Mat::ones(height, width, CV_32FC1), focal, projection);
+
+    const double cx = (width - 1) * 0.5, cy = (height - 1) * 0.5;
+    const double out_cx = (projected.cols - 1) * 0.5, out_cy = (projected.rows - 1) * 0.5;
+    double worst = 0.0;
+    for (int v = 0; v < projected.rows; ++v) {
+        const auto row = projected.ptr<cv::Vec2f>(v);
+        const float* w = valid.ptr<float>(v);
+        for (int u = 0; u < projected.cols; ++u) {
+            if (w[u] < 0.999f) continue;
+            const double x = row[u][0] - cx, y = row[u][1] - cy;
+            const double r = std::sqrt(x * x + focal * focal);
+            const double theta = std::atan2(x, focal);
+            const double h = projection == Projection::SPHERICAL ? std::atan2(y, r) : y / r;
+            worst = std::max(worst, std::hypot(focal * theta + out_cx - u, focal * h + out_cy - v));
+        }
+    }
+    return worst;
+}
+
+extern "C" JNIEXPORT jdouble JNICALL
+Java_com_example_panoramapro_APAPBenchmark_nativeEstimateFocalRatio(
+        JNIEnv* env,
+        jobject /* this */,
+        jdouble focal_ratio,
+        jboolean textured) {
+    // 相机绕光心旋转拍摄同一平面场景的两幅视图: 视图 = K R K^-1 * 场景 (场景中心对准未旋转时的视图中心)
+    // 不带纹理时两幅视图都是纯色, 没有特征, 应回退到默认焦距比
+    const int width = 700, height = 500;
+    const double f = focal_ratio * std::max(width, height);
+    cv::Mat scene(900, 1600, CV_8UC3, cv::Scalar::all(128));
+    if (textured) {
+        cv::randu(scene, cv::Scalar::all(0), cv::Scalar::all(255));
+        cv::GaussianBlur(scene, scene, cv::Size(0, 0), 2.0);
+    }
+    const double cx = width * 0.5, cy = height * 0.5;
+    cv::Matx33d K(f, 0, cx, 0, f, cy, 0, 0, 1);
+    cv::Matx33d T(1, 0, cx - scene.cols * 0.5, 0, 1, cy - scene.rows * 0.5, 0, 0, 1);
+
+    // 两幅视图相差 10° 偏航与 4° 俯仰 (只绕一个轴旋转时 focalsFromHomography 退化)
+    std::vector<cv::Mat> images;
+    for (int i = 0; i < 2; ++i) {
+        const double yaw = (i == 0 ? -5.0 : 5.0) * CV_PI / 180.0;
+        const double pitch = (i == 0 ? -2.0 : 2.0) * CV_PI / 180.0;
+        cv::Matx33d Ry(std::cos(yaw), 0, std::sin(yaw), 0, 1, 0, -std::sin(yaw), 0, std::cos(yaw));
+        cv::Matx33d Rx(1, 0, 0, 0, std::cos(pitch), -std::sin(pitch), 0, std::sin(pitch), std::cos(pitch));
+        cv::Mat view;
+        cv::warpPerspective(scene, view, cv::Mat(K * Ry * Rx * K.inv() * T), cv::Size(width, height));
+        images.push_back(view);
+    }
+
+    FeatureExtractor extractor([]() { return FeatureMatcher::CreateDetector(); });
+    FeatureMatcher matcher(FeatureMatcher::FEATURE_SIFT, FeatureMatcher::MATCHER_BRUTE_FORCE);
+    return Projection::EstimateFocalRatio(images, extractor.Extract(images), matcher);
+}
@@ -8,12 +8,117 @@
 #include <Eigen/Core>
 #include <Eigen/Dense>
 #include <vector>
+#include "Constants.h"
+#include "FeatureExtractor.h"
+#include "Projection.h"
+#include "PosePrior.h"
 
 class APAP {
 public:
     APAP() = default;
     ~APAP() = default;
 
+    // 局部单应性 (Moving DLT) 求解方式
+    enum SolverMode {
+        SOLVER_SVD = 0,              // 原始实现: 每个网格对 2N×9 加权矩阵做 JacobiSVD
+        SOLVER_NORMAL_EQ_DOUBLE = 1, // 批量法方程: 预计算 9×9 外积贡献, 9×9 对称特征分解 (double)
+        SOLVER_NORMAL_EQ_FLOAT = 2   // 同上, 使用 float 精度 (更快, 精度略低)
+    };
+
+    // 网格划分方式
+    enum MeshMode {
+        MESH_UNIFORM = 0,  // 固定 MESH_SIZE × MESH_SIZE 网格
+        MESH_ADAPTIVE = 1, // 按长宽比划分初始网格, 在局部单应性变化处四叉树细分
+        MESH_VERTEX = 2    // 较粗的网格, 单应性在网格顶点处求解, 网格内对投影坐标双线性混合
+    };
+
+    // 自适应网格: 叶子网格大小不一, 通过最细层查找表映射到叶子
+    struct AdaptiveMesh {
+        int cols = 0, rows = 0;                     // 最细层查找表的列数 / 行数
+        std::vector<int> cell_lookup;               // 最细层网格 (行优先) -> 叶子下标
+        std::vector<cv::Point2f> centers;           // 叶子中心 (图像1坐标系)
+        std::vector<Eigen::Matrix3d> homographies;  // 叶子对应的单应性矩阵
+    };
+
+    // 全局单应性的鲁棒估计方式
+    enum EstimatorMode {
+        ESTIMATOR_RANSAC = 0, // cv::RANSAC: 均匀采样, 固定内点计数
+        ESTIMATOR_PROSAC = 1, // USAC: 按比率测试质量顺序采样 (PROSAC), MSAC 评分, 局部优化, 达到置信度后提前终止
+        ESTIMATOR_MAGSAC = 2  // USAC: PROSAC 采样, MAGSAC++ 评分与 sigma 局部优化, 对阈值不敏感
+    };
+
+    enum ReferenceMode {
+        REFERENCE_FIRST = 0,        // 以第一张图片为参考坐标系, 依次向后拼接
+        REFERENCE_CENTER = 1,       // 以中间的图片为参考, 向两侧交替拼接
+        REFERENCE_MOST_OVERLAP = 2  // 以与相邻图片重叠最多的图片为参考, 向两侧交替拼接
+    };
+
+    /**
+     * @brief 求解得到的画布 -> 新图片映射, 与渲染分辨率无关, 可通过 Rescale 换算到原图分辨率
+     */
+    struct MeshWarp {
+        MeshMode mode = MESH_UNIFORM;
+        bool global = false;                        // 单一全局单应性, 使用 warpPerspective 渲染
+        int cols = 1, rows = 1;                     // 网格大小 (MESH_VERTEX 时为网格数, 单应性在角点)
+        std::vector<int> cell_lookup;               // MESH_ADAPTIVE 的网格查找表
+        std::vector<Eigen::Matrix3d> homographies;  // 画布 (img1 坐标系) -> 新图片
+    };
+
+    // 拼接参数 (默认值即为推荐配置, A/B 对比时可单独修改某一项)
+    struct Options {
+        SolverMode solver = SOLVER_NORMAL_EQ_DOUBLE;
+        // 稀疏加权: 只对网格中心附近权重大于 GAMMA 的匹配点计算 exp(), 其余统一按 GAMMA 处理 (结果与稠密计算一致)
+        bool sparse_weighting = true;
+        // 内点数量上限, 超出时空间均衡采样 (0 表示不采样)
+        int max_inliers = Constants::APAP_MAX_INLIERS;
+        MeshMode mesh_mode = MESH_UNIFORM;
+        // 自适应网格的叶子数量上限
+        int adaptive_max_cells = Constants::ADAPTIVE_MESH_MAX_CELLS;
+        // 顶点插值模式的网格大小
+        int vertex_mesh_size = Constants::VERTEX_MESH_SIZE;
+        // 只在新图片的投影覆盖范围内求解单应性与重映射, 再按偏移合成到画布 (融合权重仍与整张画布计算一致)
+        bool footprint_only = true;
+        // 映射表生成: 前向差分 + 定点映射表 (false 时使用逐像素 double 计算的 float 映射表)
+        bool fast_maps = true;
+        // 全局单应性已能解释内点时 (RMS 重投影误差低于该值) 直接使用 warpPerspective, <= 0 时总是执行 APAP
+        double global_residual_threshold = Constants::GLOBAL_RESIDUAL_THRESHOLD;
+        // 渲染分辨率上限 (像素数): 匹配与估计在 IMAGE_MAX_SIZE 下进行, 最终画布用不超过该尺寸的原图合成
+        // 0 表示直接输出工作分辨率的结果
+        int render_max_size = Constants::RENDER_IMAGE_MAX_SIZE;
+        // 分块合成的块大小: 映射表、重映射与融合逐块进行, 工作内存与画布大小无关, 线性融合的距离权重截断到
+        // BLEND_FEATHER_RADIUS. 0 表示整块处理 (距离权重不截断), 超出内存预算时自动改为 COMPOSITE_TILE_SIZE 分块
+        int tile_size = 0;
+        // 邻接链式模式: 每张图片只提取一次特征, 只与前一张匹配, 各相邻对并行估计后串联到画布坐标系
+        bool chained = false;
+        // 参考图片的选择: 以靠中间的图片为参考可减小画布包围盒与远端的拉伸
+        ReferenceMode reference = REFERENCE_FIRST;
+        // 链式模式下先求出所有图片的变换与最终画布边界, 再将所有图片一次性合成到同一画布
+        bool single_pass = true;
+        // 特征类型: ORB / AKAZE 的二进制描述子提取与汉明距离匹配远快于 SIFT, 稳健性略低
+        FeatureMatcher::FeatureBackend features = FeatureMatcher::FEATURE_SIFT;
+        // 每张图片的关键点数量上限, 按网格均衡保留最强的关键点, 匹配与局部单应性的工作量随之有界 (<= 0 不限制)
+        int keypoint_budget = Constants::KEYPOINT_BUDGET;
+        // 特征匹配的最近邻搜索方式与 FLANN 搜索精度 (BRUTE_FORCE 为精确结果, 用于对比)
+        FeatureMatcher::MatcherBackend matcher = FeatureMatcher::MATCHER_FLANN_KDTREE;
+        int flann_checks = Constants::FLANN_CHECKS;
+        // 投影预变换: 旋转拍摄的图片先投影到圆柱面 / 球面再配准, 画布大小与扫过的角度成正比
+        Projection::Mode projection = Projection::PLANAR;
+        // 焦距与图片长边之比 (来自相机参数), <= 0 时由相邻图片的单应性估计
+        double focal_ratio = 0.0;
+        // 金字塔匹配: 先在缩小的图像上估计相邻图片的粗略单应性, 工作分辨率下只在预测的重叠区域内检测特征,
+        // 并按预测位置引导匹配
+        bool pyramid_matching = false;
+        // SIFT 描述子压缩: uint8 量化或 PCA 降维, 描述子内存与匹配耗时减小, 比率测试内点略有减少
+        FeatureMatcher::DescriptorMode descriptors = FeatureMatcher::DESCRIPTOR_FLOAT;
+        // 全局单应性的估计方式: PROSAC 利用匹配质量顺序更快找到正确模型, 局部优化使送入局部单应性的内点更干净
+        EstimatorMode estimator = ESTIMATOR_PROSAC;
+    };
+
+    /**
+     * @brief 设置拼接参数
+     */
+    void SetOptions(const Options& _options) { options = _options; }
+
     /**
      * @brief 加载图像
      * @param _images 图像列表
@@ -21,12 +126,41 @@ public:
      */
     bool Load_image(std::vector<cv::Mat>&& _images);
 
+    /**
+     * @brief 设置每张图片拍摄时的设备方向 (与图片一一对应), 用于预测相邻图片的重叠区域, 只在其中检测特征
+     * 数量与图片不一致时忽略; 预测有误导致配准失败时在整张图片上重新检测一次
+     */
+    void SetOrientations(std::vector<PosePrior::Orientation> _orientations) { orientations = std::move(_orientations); }
+
     /**
      * @brief 进行图像拼接
      * @return 拼接结果图像
      */
     cv::Mat Stitching(bool enable_linear_blending = false);
 
+    /**
+     * @brief 鲁棒估计全局单应性 src -> dst
+     * @param src, dst 匹配点, PROSAC / MAGSAC 要求按匹配质量从高到低排列 (MatchFeatures 的输出顺序)
+     * @param status   输出: 内点标记
+     * @param threshold 内点的重投影误差阈值 (像素)
+     */
+    static cv::Mat EstimateHomography(const std::vector<cv::Point2f>& src,
+                                      const std::vector<cv::Point2f>& dst,
+                                      EstimatorMode mode,
+                                      std::vector<uchar>& status,
+                                      double threshold = Constants::RANSAC_THRESHOLD);
+
+    /**
+     * @brief 验证引导匹配: 最小二乘拟合 img2 -> img1 的单应性, 与之一致 (误差小于 PRIOR_VERIFY_THRESHOLD) 的匹配
+     * 不少于 PRIOR_VERIFY_INLIER_RATIO 时在一致的匹配上重新拟合并通过
+     * @param H      输出: 通过时的单应性
+     * @param status 输出: 内点标记
+     */
+    static bool VerifyGuided(const std::vector<cv::Point2f>& pts1,
+                             const std::vector<cv::Point2f>& pts2,
+                             cv::Mat& H,
+                             std::vector<uchar>& status);
+
     /**
      * @brief 计算局部单应性矩阵 (Local Homography)
      * * @param src_pts      源图像匹配点 (归一化前)
@@ -34,13 +168,37 @@ public:
      * @param mesh_vertices 网格中心点坐标 (用于计算权重) shape: [mesh_h * mesh_w]
      * @param canvas_width  画布宽度 (用于确定网格数量)
      * @param canvas_height 画布高度
+     * @param solver       求解方式 (SVD 为原始实现, 保留用于 A/B 计时)
+     * @param sparse       是否使用空间索引只计算邻近匹配点的权重
      * @return std::vector<Eigen::Matrix3d> 每个网格对应的单应性矩阵 (行优先顺序: i*w + j)
      */
     static std::vector<Eigen::Matrix3d> LocalHomography(
             const std::vector<cv::Point2f>& src_pts,
             const std::vector<cv::Point2f>& dst_pts,
             const std::vector<cv::Point2f>& mesh_vertices,
-            int mesh_cols, int mesh_rows);
+            int mesh_cols, int mesh_rows,
+            SolverMode solver = SOLVER_NORMAL_EQ_DOUBLE,
+            bool sparse = true);
+
+    /**
+     * @brief 构建自适应四叉树网格并计算每个叶子的局部单应性
+     * 初始网格按画布长宽比划分为近似正方形; 每一层只探测附近存在匹配点的叶子
+     * (远离匹配点处权重全为 GAMMA, 单应性不变), 若子网格中心的投影与父网格相差超过
+     * ADAPTIVE_MESH_TOLERANCE 则细分, 按偏差从大到小细分直到达到叶子数量上限
+     * @param canvas_size  画布大小
+     * @param offset       画布偏移量
+     * @param max_cells    叶子数量上限
+     * @param frame        网格中心 (画布 img1 坐标系) 到 src_pts 坐标系的变换, 结果单应性以 src_pts 坐标系为输入
+     */
+    static AdaptiveMesh BuildAdaptiveMesh(
+            const std::vector<cv::Point2f>& src_pts,
+            const std::vector<cv::Point2f>& dst_pts,
+            cv::Size canvas_size,
+            cv::Point2f offset,
+            int max_cells,
+            SolverMode solver = SOLVER_NORMAL_EQ_DOUBLE,
+            bool sparse = true,
+            const Eigen::Matrix3d& frame = Eigen::Matrix3d::Identity());
 
     /**
      * @brief 局部扭曲 (Local Warp)
@@ -50,16 +208,143 @@ public:
      * @param mesh_rows    网格行数
      * @param canvas_size  最终画布大小
      * @param offset       画布偏移量 (x, y)，即 warp 后图像在画布上的左上角偏移
-     * @return cv::Mat     扭曲后的图像
+     * @param cell_lookup  可选: 网格 -> 单应性下标的查找表 (自适应网格使用), 为空时一一对应
+     * @param roi          可选: 只计算画布中的该区域, 为空时计算整个画布
+     * @param fast_maps    是否使用前向差分生成定点映射表 (CV_16SC2 + 插值表)
+     * @return cv::Mat     扭曲后的图像 (大小为 roi 大小, 未指定 roi 时为画布大小)
      */
     static cv::Mat LocalWarp(
             const cv::Mat& image,
             const std::vector<Eigen::Matrix3d>& local_homographies,
             int mesh_cols, int mesh_rows,
             cv::Size canvas_size,
-            cv::Point2f offset);
+            cv::Point2f offset,
+            const std::vector<int>& cell_lookup = {},
+            cv::Rect roi = cv::Rect(),
+            bool fast_maps = true);
+
+    /**
+     * @brief 顶点插值局部扭曲
+     * 每个网格内像素分别用四个角点的单应性投影, 再按像素在网格内的位置双线性混合,
+     * 因此投影结果在网格边界上连续, 可以用比 LocalWarp 粗得多的网格达到相同的平滑度
+     * @param vertex_homographies 网格角点处的单应性, 共 (mesh_rows + 1) * (mesh_cols + 1) 个, 行优先
+     * @param roi          可选: 只计算画布中的该区域, 为空时计算整个画布
+     */
+    static cv::Mat LocalWarpInterpolated(
+            const cv::Mat& image,
+            const std::vector<Eigen::Matrix3d>& vertex_homographies,
+            int mesh_cols, int mesh_rows,
+            cv::Size canvas_size,
+            cv::Point2f offset,
+            cv::Rect roi = cv::Rect());
+
+    /**
+     * @brief 将 MeshWarp 的所有单应性换算到另一分辨率
+     * H' = diag(1/image_scale) * H * diag(canvas_scale)
+     * @param canvas_scale 求解时的画布分辨率 / 渲染画布分辨率
+     * @param image_scale  求解时的新图片分辨率 / 渲染用新图片分辨率
+     */
+    static MeshWarp Rescale(const MeshWarp& warp, double canvas_scale, double image_scale);
+
+    /**
+     * @brief 按 MeshWarp 将 image 扭曲到画布的 roi 区域
+     * @return roi 大小的扭曲结果
+     */
+    static cv::Mat RenderWarp(const cv::Mat& image,
+                              const MeshWarp& warp,
+                              cv::Size canvas_size,
+                              cv::Point2f offset,
+                              cv::Rect roi,
+                              bool fast_maps = true);
 
 private:
+    // 一对图片的配准结果
+    struct PairEstimate {
+        cv::Mat H;                           // 全局单应性 img2 -> img1 (RANSAC)
+        std::vector<cv::Point2f> pts1, pts2; // 内点 (可能经过空间均衡采样)
+        bool use_global = false;             // 全局单应性已足够, 跳过局部单应性
+        int inliers = 0;                     // 采样前的内点数量
+    };
+
+    // 按 options 中的特征类型与匹配方式创建匹配器 / 并行特征提取器
+    FeatureMatcher MakeMatcher() const;
+    FeatureExtractor MakeExtractor() const;
+    // 按 options 中的压缩方式创建描述子压缩器 (uint8 量化只用于暴力匹配, 其他匹配方式保持 float)
+    FeatureMatcher::DescriptorCompressor MakeCompressor() const;
+
+    /**
+     * @brief 投影预变换 (平面模式下不做任何处理): 未提供焦距时先在工作分辨率下估计焦距比
+     * 在降级重试的范围内调用, 内存不足时与 StitchOnce 一样抛出 std::bad_alloc
+     */
+    void ProjectInputs(int work_max_size);
+
+    /**
+     * @brief 按给定的工作/渲染分辨率上限执行一次完整拼接
+     * 内存不足或超出 MemoryBudget 时抛出 std::bad_alloc, 由 Stitching 降低分辨率后重试
+     * @param render_max_size 渲染分辨率上限, 0 表示直接输出工作分辨率的结果
+     */
+    cv::Mat StitchOnce(bool enable_linear_blending, int work_max_size, int render_max_size);
+
+    /**
+     * @brief RANSAC 估计全局单应性, 筛选内点, 检查残差并按需采样
+     * @param guided 匹配点来自先验引导匹配: 先直接验证, 验证失败时才执行完整的鲁棒估计
+     * @return 匹配点或内点不足时返回 false
+     */
+    bool EstimatePair(const std::vector<cv::Point2f>& pts1,
+                      const std::vector<cv::Point2f>& pts2,
+                      PairEstimate& pair,
+                      bool guided = false) const;
+
+
+    /**
+     * @brief 链式模式: 使用特征表并行估计所有相邻对 (i - 1, i)
+     * @return 第 i - 1 项为 images[i] -> images[i - 1] 的配准结果, 失败时为空
+     */
+    std::vector<PairEstimate> EstimateChainedPairs(const FeatureTable& features,
+                                                   const std::vector<cv::Mat>& priors,
+                                                   const std::vector<int>& margins) const;
+
+    /**
+     * @brief 金字塔匹配的粗略层: 在缩小的图像上并行估计所有相邻对的单应性
+     * @return 第 i - 1 项为 images[i - 1] -> images[i] 的粗略单应性 (工作分辨率坐标), 失败时为空矩阵
+     */
+    std::vector<cv::Mat> EstimateCoarsePriors() const;
+
+    /**
+     * @brief 链式模式的单次合成: 串联所有相邻对得到各图片到参考坐标系的变换, 计算一次最终画布边界,
+     * 求解各图片的局部单应性后按块并行渲染并一次性融合
+     * @param order   拼接顺序, order[0] 为参考图片
+     * @param anchors order[k] 的相邻图片 (靠近参考图片一侧)
+     */
+    cv::Mat StitchSinglePass(const std::vector<int>& order,
+                             const std::vector<int>& anchors,
+                             std::vector<PairEstimate>& pairs,
+                             const std::vector<cv::Mat>& render_images,
+                             const std::vector<double>& render_scales,
+                             bool two_resolution,
+                             bool enable_linear_blending) const;
+
+    /**
+     * @brief 按 options.reference 选择参考图片
+     * @param pairs 链式模式的相邻对配准结果 (以内点数衡量重叠), 为空时用特征匹配数衡量
+     */
+    int SelectReference(const FeatureTable& features, const std::vector<PairEstimate>& pairs) const;
+
+    /**
+     * @brief 按 options.mesh_mode 求解 footprint 区域内 (画布 img1 坐标系 -> 新图片) 的局部单应性
+     * @param frame 画布 img1 坐标系到 pts1 坐标系的变换 (pts1 不在画布坐标系时使用, 如链式模式中的前一张图片)
+     */
+    MeshWarp SolveWarp(const std::vector<cv::Point2f>& pts1,
+                       const std::vector<cv::Point2f>& pts2,
+                       cv::Size canvas_size,
+                       cv::Point2f offset,
+                       const cv::Rect& footprint,
+                       const Eigen::Matrix3d& frame) const;
+
     std::vector<cv::Mat> images;
+    std::vector<PosePrior::Orientation> orientations;
+    // 投影预变换与方向先验使用的焦距比 (Stitching 中确定)
+    double focal_ratio = 0.0;
+    Options options;
 };
 #endif //PANORAMAPRO_APAP_H
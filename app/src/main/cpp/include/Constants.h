@@ -10,18 +10,100 @@ namespace Constants {
     // 图像处理参数
     constexpr int MESH_SIZE = 100;
     constexpr int IMAGE_MAX_SIZE = 700 * 700;
+    // 最终合成所用原图的最大像素数 (两级分辨率: 在 IMAGE_MAX_SIZE 下估计, 在该尺寸下渲染)
+    constexpr int RENDER_IMAGE_MAX_SIZE = 2000 * 1500;
 
-    // RANSAC 参数
+    // 并行特征提取的工作线程上限 (实际线程数不超过 CPU 核数与图片数量)
+    constexpr int FEATURE_MAX_WORKERS = 8;
+
+    // 每张图片的关键点数量上限 (可按设备档次调整, 0 表示不限制) 与网格非极大值抑制的长边网格数
+    constexpr int KEYPOINT_BUDGET = 4000;
+    constexpr int KEYPOINT_GRID_SIZE = 16;
+
+    // 金字塔匹配: 粗略层缩放比例, 粗略单应性所需的最少匹配数与 RANSAC 阈值 (原分辨率像素),
+    // 预测重叠区域的外扩像素, 引导匹配的搜索半径 (原分辨率像素)
+    constexpr double PYRAMID_COARSE_SCALE = 0.25;
+    constexpr int PYRAMID_MIN_MATCHES = 20;
+    constexpr double PYRAMID_RANSAC_THRESHOLD = 8.0;
+    constexpr int PYRAMID_OVERLAP_MARGIN = 32;
+    constexpr float PYRAMID_GUIDE_RADIUS = 32.0f;
+
+    // 方向先验: 方位角的传感器误差 (度), 用于预测重叠区域的外扩与引导匹配的搜索半径
+    constexpr double POSE_ANGLE_TOLERANCE = 5.0;
+    // 引导匹配后直接验证: 与最小二乘模型的误差小于 PRIOR_VERIFY_THRESHOLD 像素的匹配比例不低于该值时跳过鲁棒估计
+    // 阈值远小于 RANSAC_THRESHOLD, 最小二乘模型被误匹配拉偏时无法通过
+    constexpr double PRIOR_VERIFY_INLIER_RATIO = 0.9;
+    constexpr double PRIOR_VERIFY_THRESHOLD = 3.0;
+    // 只在预测重叠区域内检测时, 相邻对的内点少于该值视为预测有误, 在整张图片上重新检测
+    constexpr int PRIOR_MIN_INLIERS = 30;
+
+    // SIFT 描述子 PCA 压缩: 保留的维数与拟合基时的最大采样数
+    constexpr int DESCRIPTOR_PCA_DIMS = 32;
+    constexpr int DESCRIPTOR_PCA_SAMPLES = 20000;
+
+    // SIFT 拼接 (cv::Stitcher) 的配准 / 接缝估计分辨率预设 (百万像素); BALANCED 与 cv::Stitcher 的默认值一致
+    constexpr double SIFT_FAST_REGISTRATION_RESOL = 0.3;
+    constexpr double SIFT_FAST_SEAM_RESOL = 0.05;
+    constexpr double SIFT_BALANCED_REGISTRATION_RESOL = 0.6;
+    constexpr double SIFT_BALANCED_SEAM_RESOL = 0.1;
+    constexpr double SIFT_FULL_SEAM_RESOL = 1.0;
+
+    // FLANN 近似最近邻匹配参数: 搜索时检查的叶子数量, 随机 k-d 树数量, 层次 k-means 树的分支数
+    constexpr int FLANN_CHECKS = 64;
+    constexpr int FLANN_KDTREE_TREES = 4;
+    constexpr int FLANN_KMEANS_BRANCHING = 32;
+
+    // 二进制特征参数: ORB 特征数量上限, AKAZE 检测响应阈值 (默认 0.001, 略微降低以获得更多特征)
+    constexpr int ORB_MAX_FEATURES = 5000;
+    constexpr double AKAZE_THRESHOLD = 0.0005;
+
+    // RANSAC 参数 (MAX_ITERATION 为 USAC 估计器的迭代上限, 达到置信度后提前终止)
     constexpr int MAX_ITERATION = 500;
     constexpr double RANSAC_THRESHOLD = 30.0;
+    constexpr double RANSAC_CONFIDENCE = 0.995;
+    // USAC 局部优化的迭代次数与每次使用的内点数
+    constexpr int USAC_LO_ITERATIONS = 10;
+    constexpr int USAC_LO_SAMPLE_SIZE = 14;
+    // 全局单应性内点重投影误差 (RMS, 像素) 低于该值时跳过 APAP, 直接 warpPerspective
+    constexpr double GLOBAL_RESIDUAL_THRESHOLD = 1.0;
 
     // APAP 参数
     constexpr double GAMMA = 0.1;
     constexpr double SIGMA = 8.5;
+    // 参与局部单应性估计的内点上限, 超出时做空间均衡采样 (0 表示不采样)
+    constexpr int APAP_MAX_INLIERS = 2000;
+
+    // 顶点插值网格大小: 单应性在 (VERTEX_MESH_SIZE + 1)^2 个网格顶点处求解, 网格内双线性混合
+    constexpr int VERTEX_MESH_SIZE = 30;
+
+    // 自适应网格参数
+    constexpr int ADAPTIVE_MESH_BASE = 16;          // 长边方向的初始网格数 (短边按长宽比取整)
+    constexpr int ADAPTIVE_MESH_DEPTH = 4;          // 四叉树最大细分层数
+    constexpr int ADAPTIVE_MESH_MAX_CELLS = 2500;   // 叶子网格数量上限
+    constexpr double ADAPTIVE_MESH_TOLERANCE = 0.5; // 父子网格投影偏差超过该值 (像素) 时细分
+
+    // 新图片覆盖范围 (全局单应性投影包围盒) 的外扩像素, 容纳局部单应性相对全局的形变
+    constexpr int FOOTPRINT_MARGIN = 64;
 
     // 融合参数
     constexpr int BLEND_WIDTH = 8;
 
+    // 分块合成: 块大小 (像素) 与线性融合的羽化半径 (工作分辨率下的像素, 距离权重在该半径处截断)
+    // 默认整块合成, 不截断距离权重; 只有整块合成超出内存预算时才改为按该大小分块, 重叠区中部的过渡随之变窄
+    constexpr int COMPOSITE_TILE_SIZE = 512;
+    constexpr int BLEND_FEATHER_RADIUS = 64;
+
+    // 投影预变换: 无法获取或估计焦距时使用的焦距与图片长边之比 (约对应 26mm 等效焦距的 4:3 主摄)
+    constexpr double DEFAULT_FOCAL_RATIO = 0.75;
+    // 由相邻对单应性估计焦距时的最少匹配点数与 RANSAC 阈值 (像素)
+    constexpr int FOCAL_MIN_MATCHES = 30;
+    constexpr double FOCAL_RANSAC_THRESHOLD = 3.0;
+    // 投影结果特征检测掩码的边界收缩量 (像素)
+    constexpr int PROJECTION_MASK_MARGIN = 8;
+
+    // 内存不足时降低分辨率重试的最大次数
+    constexpr int MEMORY_MAX_RETRIES = 3;
+
     // 聚类数量
     constexpr int NUM_CLUSTERS = 2;
 
@@ -0,0 +1,79 @@
+//
+// Created by 31830 on 2026/10/17.
+//
+
+#ifndef PANORAMAPRO_FEATUREEXTRACTOR_H
+#define PANORAMAPRO_FEATUREEXTRACTOR_H
+#include <opencv2/opencv.hpp>
+#include <functional>
+#include <vector>
+#include "Constants.h"
+#include "FeatureMatcher.h"
+
+// 一次拼接任务中所有输入图片的特征, 下标与输入图片一致
+using FeatureTable = std::vector<FeatureMatcher::Features>;
+
+/**
+ * @brief 并行特征提取阶段
+ * 所有输入图片转灰度后在有界的工作线程池中并发检测与描述, 每个工作线程持有独立的检测器实例
+ */
+class FeatureExtractor {
+public:
+    using DetectorFactory = std::function<cv::Ptr<cv::Feature2D>()>;
+
+    explicit FeatureExtractor(DetectorFactory factory, int max_workers = Constants::FEATURE_MAX_WORKERS);
+
+    /**
+     * @brief 提取所有图片的特征
+     * @param images 输入图片 (BGR 或灰度)
+     * @param masks  可选: 每张图片的检测掩码, 为空时检测整张图片
+     * @return 特征表, 顺序与 images 一致
+     */
+    FeatureTable Extract(const std::vector<cv::Mat>& images,
+                         const std::vector<cv::Mat>& masks = {}) const;
+
+private:
+    DetectorFactory factory;
+    int max_workers;
+};
+
+/**
+ * @brief 供 cv::Stitcher 使用的特征提取器
+ * cv::Stitcher 先对所有图片批量 detect, 再批量 compute. 批量 detect 时用 FeatureExtractor 并行完成检测与描述,
+ * 结果保存在特征表中, 随后的批量 compute 直接返回表中的描述子. 单张图片的接口委托给普通检测器
+ */
+class ParallelFeaturesFinder : public cv::Feature2D {
+public:
+    explicit ParallelFeaturesFinder(const FeatureExtractor::DetectorFactory& factory,
+                                    int max_workers = Constants::FEATURE_MAX_WORKERS);
+
+    using cv::Feature2D::detect;
+    using cv::Feature2D::compute;
+
+    void detect(cv::InputArrayOfArrays images,
+                std::vector<std::vector<cv::KeyPoint>>& keypoints,
+                cv::InputArrayOfArrays masks) override;
+
+    void compute(cv::InputArrayOfArrays images,
+                 std::vector<std::vector<cv::KeyPoint>>& keypoints,
+                 cv::OutputArrayOfArrays descriptors) override;
+
+    void detectAndCompute(cv::InputArray image, cv::InputArray mask,
+                          std::vector<cv::KeyPoint>& keypoints,
+                          cv::OutputArray descriptors,
+                          bool useProvidedKeypoints) override;
+
+    int descriptorSize() const override;
+    int descriptorType() const override;
+    int defaultNorm() const override;
+    bool empty() const override;
+
+    // 最近一次批量提取的特征表
+    const FeatureTable& Table() const { return table; }
+
+private:
+    FeatureExtractor extractor;
+    cv::Ptr<cv::Feature2D> detector;
+    FeatureTable table;
+};
+#endif //PANORAMAPRO_FEATUREEXTRACTOR_H
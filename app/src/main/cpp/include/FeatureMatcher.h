@@ -7,30 +7,166 @@
 #include <opencv2/opencv.hpp>
 #include <vector>
 #include <string>
+#include "Constants.h"
 
 class FeatureMatcher {
 public:
-    FeatureMatcher();
+    // 特征类型
+    enum FeatureBackend {
+        FEATURE_SIFT = 0,  // SIFT 浮点描述子, L2 距离, 最稳健
+        FEATURE_ORB = 1,   // ORB 二进制描述子, 汉明距离, 最快
+        FEATURE_AKAZE = 2  // AKAZE (MLDB) 二进制描述子, 汉明距离, 速度与稳健性介于两者之间
+    };
+
+    // 描述子最近邻搜索方式
+    enum MatcherBackend {
+        MATCHER_BRUTE_FORCE = 0, // 暴力匹配 O(N·M), 精确结果, 作为对比基准
+        MATCHER_FLANN_KDTREE = 1, // FLANN 随机 k-d 树
+        MATCHER_FLANN_KMEANS = 2  // FLANN 层次 k-means 树
+    };
+
+    // SIFT 描述子的压缩方式 (二进制描述子不受影响)
+    enum DescriptorMode {
+        DESCRIPTOR_FLOAT = 0, // 原始 128 维 float
+        DESCRIPTOR_UINT8 = 1, // 128 维 uint8: 内存为 1/4, 暴力匹配与引导匹配直接使用整数 L2 距离 (FLANN 不支持, 总是暴力匹配)
+        DESCRIPTOR_PCA = 2    // PCA 降至 DESCRIPTOR_PCA_DIMS 维 float, 所有图片共用同一组基, FLANN 在低维上搜索
+    };
+
+    // 单张图片的特征
+    struct Features {
+        std::vector<cv::KeyPoint> keypoints;
+        cv::Mat descriptors;
+        // 量化为 uint8 的 SIFT 描述子 (同为 CV_8U, 但按 L2 距离而不是汉明距离匹配)
+        bool quantized = false;
+    };
+
+    /**
+     * @param feature 特征类型
+     * @param backend 最近邻搜索方式 (FLANN 只用于 SIFT 描述子, 二进制描述子总是使用汉明距离暴力匹配)
+     * @param checks  FLANN 搜索时检查的叶子数量, 越大越接近暴力匹配的结果, 也越慢
+     * @param keypoint_budget 每张图片的关键点数量上限 (网格均衡保留最强的关键点), <= 0 时不限制
+     */
+    explicit FeatureMatcher(FeatureBackend feature = FEATURE_SIFT,
+                            MatcherBackend backend = MATCHER_FLANN_KDTREE,
+                            int checks = Constants::FLANN_CHECKS,
+                            int keypoint_budget = Constants::KEYPOINT_BUDGET);
     ~FeatureMatcher() = default;
 
+    // 创建与 FeatureMatcher 相同配置的检测器 (供并行提取阶段的每个工作线程使用)
+    // keypoint_budget > 0 时用 KeypointBudget 包装, 只保留网格均衡的最强关键点及其描述子
+    static cv::Ptr<cv::Feature2D> CreateDetector(FeatureBackend feature = FEATURE_SIFT,
+                                                 int keypoint_budget = Constants::KEYPOINT_BUDGET);
+
     // 执行特征提取和匹配
     // 输出: pts1 (image1 中的点), pts2 (image2 中的点)
     void Run(const cv::Mat& image1, const cv::Mat& image2,
              std::vector<cv::Point2f>& pts1,
              std::vector<cv::Point2f>& pts2);
 
+    // 金字塔模式的 Run: 先在缩小的图像上估计粗略单应性, 再只在预测的重叠区域内检测, 并按预测位置引导匹配
+    // 粗略估计失败时退回 Run
+    void RunPyramid(const cv::Mat& image1, const cv::Mat& image2,
+                    std::vector<cv::Point2f>& pts1,
+                    std::vector<cv::Point2f>& pts2);
+
+    // 只提取单张图片的特征, 供多次匹配复用 (mask 非空时只在掩码区域内检测)
+    Features Detect(const cv::Mat& image, const cv::Mat& mask = cv::Mat()) const;
+
+    // 匹配两组已提取的特征 (与 Run 相同的比率测试), 可在多个线程中同时调用
+    // 输出按最近邻与次近邻的距离比从小到大排列, 即匹配质量从高到低 (MatchGuided 相同)
+    void MatchFeatures(const Features& features1, const Features& features2,
+                       std::vector<cv::Point2f>& pts1,
+                       std::vector<cv::Point2f>& pts2) const;
+
+    /**
+     * @brief 引导匹配: features1 的每个关键点只与 prior 预测位置 radius 范围内的 features2 关键点比较,
+     * 在这些候选中做比率测试. 候选数远少于全部关键点, 且排除了位置不一致的误匹配
+     * @param prior  image1 -> image2 的单应性 (CV_64F 3×3)
+     * @param radius 预测位置的搜索半径 (像素)
+     */
+    void MatchGuided(const Features& features1, const Features& features2,
+                     const cv::Mat& prior, float radius,
+                     std::vector<cv::Point2f>& pts1,
+                     std::vector<cv::Point2f>& pts2) const;
+
+    /**
+     * @brief 匹配粗略层的特征, 匹配点换算到原分辨率坐标 (保持 MatchFeatures 按匹配质量排列的顺序)
+     * @param scale 粗略层相对原分辨率的缩放比例
+     * @return 匹配点少于 PYRAMID_MIN_MATCHES 时返回 false
+     */
+    bool CoarseMatches(const Features& coarse1, const Features& coarse2, double scale,
+                       std::vector<cv::Point2f>& pts1,
+                       std::vector<cv::Point2f>& pts2) const;
+
+    /**
+     * @brief 由粗略层的特征 (CoarseMatches) 以 RANSAC 估计 image1 -> image2 的单应性 (换算到原分辨率)
+     * @param scale 粗略层相对原分辨率的缩放比例
+     * @return 匹配点不足或估计失败时返回空矩阵
+     */
+    cv::Mat CoarseHomography(const Features& coarse1, const Features& coarse2, double scale) const;
+
+    /**
+     * @brief 预测的重叠区域掩码: 将另一张图片的边界按 H 投影到本图片, 外扩 margin 像素
+     * @param size       本图片尺寸
+     * @param other_size 另一张图片尺寸
+     * @param H          另一张图片 -> 本图片的单应性
+     */
+    static cv::Mat OverlapMask(cv::Size size, cv::Size other_size, const cv::Mat& H, int margin);
+
+    /**
+     * @brief 按拍摄顺序排列的图片中, 每张图片与前后相邻图片的预测重叠区域之并
+     * @param H       第 i - 1 项为 images[i - 1] -> images[i] 的单应性
+     * @param margins 第 i - 1 项为该相邻对的外扩像素
+     * @return 任一相邻对的单应性为空时返回空 (在整张图片上检测)
+     */
+    static std::vector<cv::Mat> NeighbourOverlapMasks(const std::vector<cv::Size>& sizes,
+                                                      const std::vector<cv::Mat>& H,
+                                                      const std::vector<int>& margins);
+
+    /**
+     * @brief SIFT 描述子压缩, 压缩后仍用 MatchFeatures / MatchGuided 匹配
+     * 相互匹配的特征必须经过同一个压缩器: PCA 的基由 Fit 时所有图片的描述子拟合, 之后检测的特征 (如画布) 用 Apply 投影到同一子空间
+     */
+    class DescriptorCompressor {
+    public:
+        explicit DescriptorCompressor(DescriptorMode mode = DESCRIPTOR_FLOAT,
+                                      int pca_dims = Constants::DESCRIPTOR_PCA_DIMS)
+                : mode(mode), pca_dims(pca_dims) {}
+
+        // 由特征表拟合 PCA 基 (最多等间隔采样 DESCRIPTOR_PCA_SAMPLES 个描述子), 并压缩特征表
+        void Fit(std::vector<Features>& table);
+        // 压缩单张图片的特征 (PCA 模式需先 Fit, 描述子不足以拟合时保持原样)
+        void Apply(Features& features) const;
+
+    private:
+        DescriptorMode mode;
+        int pca_dims;
+        cv::PCA pca;
+        bool fitted = false;
+    };
+
 private:
     void FeatureDetect(const cv::Mat& image1, const cv::Mat& image2);
     void Match();
     void SelectGoodMatches(std::vector<cv::Point2f>& pts1, std::vector<cv::Point2f>& pts2);
+    std::vector<cv::DMatch> RatioTestMatches(const cv::Mat& descriptors1, const cv::Mat& descriptors2,
+                                             bool quantized = false) const;
+    // 按 backend 创建匹配器 (每次匹配单独创建, MatchFeatures 可在多个线程中同时调用)
+    cv::Ptr<cv::DescriptorMatcher> CreateMatcher(int descriptor_type, bool quantized) const;
+    // 描述子的距离: 二进制描述子为汉明距离, 其余 (包括量化后的 SIFT) 为 L2
+    static int DescriptorNorm(int descriptor_type, bool quantized);
 
 private:
     cv::Ptr<cv::Feature2D> detector;
+    MatcherBackend backend;
+    int checks;
 
     std::vector<cv::KeyPoint> kpt1, kpt2;
     cv::Mat des1, des2;
     std::vector<cv::DMatch> good_matches;
 
     const float good_ratio = 0.7f;
+    // 二进制描述子的汉明距离分辨率较低, 最近邻与次近邻的距离更接近, 比率阈值放宽
+    const float binary_good_ratio = 0.8f;
 };
 #endif //PANORAMAPRO_FEATUREMATCHER_H
@@ -0,0 +1,56 @@
+//
+// Created by 31830 on 2026/10/17.
+//
+
+#ifndef PANORAMAPRO_KEYPOINTBUDGET_H
+#define PANORAMAPRO_KEYPOINTBUDGET_H
+#include <opencv2/opencv.hpp>
+#include <vector>
+#include "Constants.h"
+
+/**
+ * @brief 带关键点数量上限的特征检测器
+ * 先用内部检测器检测全部关键点, 再按网格做非极大值抑制: 每个网格内按响应排序,
+ * 逐轮从每个网格取出当前最强的关键点, 直到达到上限.
+ * detectAndCompute 只调用一次内部检测器 (SIFT 高斯金字塔 / AKAZE 非线性尺度空间只构建一次),
+ * 再只保留被选中关键点的描述子; 匹配、RANSAC 与局部单应性的工作量与上限成正比, 且关键点在图像中分布均匀
+ */
+class KeypointBudget : public cv::Feature2D {
+public:
+    /**
+     * @param detector  内部检测器 (SIFT / ORB / AKAZE)
+     * @param budget    关键点数量上限, <= 0 时不限制
+     * @param grid_size 长边方向的网格数, 短边按长宽比取整
+     */
+    KeypointBudget(cv::Ptr<cv::Feature2D> detector, int budget,
+                   int grid_size = Constants::KEYPOINT_GRID_SIZE);
+
+    /**
+     * @brief 按网格均衡地选出最强的 budget 个关键点
+     * @return 被选中关键点的下标 (未超出上限时为全部下标)
+     */
+    static std::vector<int> Select(const std::vector<cv::KeyPoint>& keypoints, cv::Size image_size,
+                                   int budget, int grid_size);
+
+    using cv::Feature2D::detect;
+    using cv::Feature2D::compute;
+
+    void detect(cv::InputArray image, std::vector<cv::KeyPoint>& keypoints,
+                cv::InputArray mask) override;
+
+    void detectAndCompute(cv::InputArray image, cv::InputArray mask,
+                          std::vector<cv::KeyPoint>& keypoints,
+                          cv::OutputArray descriptors,
+                          bool useProvidedKeypoints) override;
+
+    int descriptorSize() const override;
+    int descriptorType() const override;
+    int defaultNorm() const override;
+    bool empty() const override;
+
+private:
+    cv::Ptr<cv::Feature2D> detector;
+    int budget;
+    int grid_size;
+};
+#endif //PANORAMAPRO_KEYPOINTBUDGET_H
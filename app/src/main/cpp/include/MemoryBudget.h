@@ -0,0 +1,63 @@
+//
+// Created by 31830 on 2026/10/17.
+//
+
+#ifndef PANORAMAPRO_MEMORYBUDGET_H
+#define PANORAMAPRO_MEMORYBUDGET_H
+#include <opencv2/opencv.hpp>
+#include <cstddef>
+#include <new>
+#include <vector>
+
+/**
+ * @brief Native 内存预算
+ * 预算由 Java 层根据 ActivityManager 的内存等级设置, onTrimMemory 时按级别收紧.
+ * 各阶段运行前估算峰值分配, 超出预算时先切换分块处理, 仍超出则抛出 Exceeded,
+ * 由调用方 (与 std::bad_alloc 相同) 降低分辨率后重试
+ */
+class MemoryBudget {
+public:
+    // 阶段估算超出预算
+    class Exceeded : public std::bad_alloc {
+    public:
+        const char* what() const noexcept override { return "native memory budget exceeded"; }
+    };
+
+    // 设置预算 (字节), 0 表示不限制; 同时清除 onTrimMemory 的收紧
+    static void SetBudget(size_t bytes);
+
+    // 按 ComponentCallbacks2 的 TRIM_MEMORY_* 级别收紧预算
+    static void OnTrimMemory(int level);
+
+    // 当前可用预算 (字节), 0 表示不限制
+    static size_t Available();
+
+    static bool Fits(size_t bytes);
+
+    // 超出预算时记录日志并抛出 Exceeded
+    static void Require(size_t bytes, const char* stage);
+
+    // OpenCV 内部分配失败 (StsNoMem); 只有这类异常与 std::bad_alloc 才应降低分辨率重试
+    static bool IsOutOfMemory(const cv::Exception& e) { return e.code == cv::Error::StsNoMem; }
+
+    // ---- 各阶段的峰值估算 ----
+
+    static size_t ImageBytes(cv::Size size, int channels = 3);
+
+    /**
+     * APAP 单次迭代的合成: 新画布 + 旧画布 + 映射表/重映射/融合的工作内存
+     * tile_size > 0 时工作内存只与块大小有关, 否则与新图片的覆盖范围成正比 (线性融合另需旧画布大小的距离图)
+     */
+    static size_t CompositeBytes(cv::Size canvas, cv::Size base, cv::Size footprint,
+                                 int tile_size, bool linear);
+
+    // APAP 单次合成: 最终画布 + 每个工作线程一套块缓冲区 (tile_size <= 0 时整块处理, 只有一套画布大小的缓冲区)
+    static size_t SinglePassBytes(cv::Size canvas, int tile_size, bool linear);
+
+    // cv::Stitcher 的合成阶段 (全景图面积约为所有输入面积之和)
+    static size_t StitcherBytes(const std::vector<cv::Mat>& images, double compose_scale, bool multi_band);
+
+    // LaMa 补全: 掩码与前后处理缓冲区 + 固定大小的输入输出 Tensor
+    static size_t InpaintBytes(cv::Size size);
+};
+#endif //PANORAMAPRO_MEMORYBUDGET_H
@@ -0,0 +1,48 @@
+//
+// Created by 31830 on 2026/10/17.
+//
+
+#ifndef PANORAMAPRO_POINTGRID_H
+#define PANORAMAPRO_POINTGRID_H
+#include <opencv2/opencv.hpp>
+#include <vector>
+
+/**
+ * 均匀网格空间索引 (只读)
+ * 点按所在桶连续存放 (CSR 结构), 半径查询只需访问邻近的几个桶
+ */
+class PointGrid {
+public:
+    /**
+     * @param pts       需要索引的点集 (构造后不可修改, 需保证生命周期长于 PointGrid)
+     * @param cell_size 桶的边长, 一般取常用查询半径
+     */
+    PointGrid(const std::vector<cv::Point2f>& pts, float cell_size);
+
+    /**
+     * @brief 半径查询
+     * @param center 查询中心
+     * @param radius 查询半径
+     * @param out    输出: 距离 center 严格小于 radius 的点的下标 (会先清空)
+     */
+    void Query(const cv::Point2f& center, float radius, std::vector<int>& out) const;
+
+    /**
+     * @brief 空间均衡采样: 将点分配到网格桶中, 轮流从每个非空桶中取点, 直到达到数量上限
+     * @param pts       点集
+     * @param max_count 最多保留的点数
+     * @return 被保留的点的下标 (升序); 若 pts.size() <= max_count 则返回全部下标
+     */
+    static std::vector<int> BalancedSubsample(const std::vector<cv::Point2f>& pts, int max_count);
+
+private:
+    const std::vector<cv::Point2f>& points;
+    float cell_size;
+    float origin_x = 0, origin_y = 0;
+    int grid_cols = 0, grid_rows = 0;
+
+    std::vector<int> cell_start; // 大小 grid_cols * grid_rows + 1
+    std::vector<int> indices;    // 按桶排序后的点下标
+};
+
+#endif //PANORAMAPRO_POINTGRID_H
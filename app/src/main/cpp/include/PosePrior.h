@@ -0,0 +1,70 @@
+//
+// Created by 31830 on 2026/10/17.
+//
+
+#ifndef PANORAMAPRO_POSEPRIOR_H
+#define PANORAMAPRO_POSEPRIOR_H
+#include <opencv2/opencv.hpp>
+#include <vector>
+#include "Projection.h"
+
+/**
+ * @brief 由拍摄时的设备方向预测相邻图片之间的几何关系
+ * 旋转拍摄时相邻图片只差一个旋转, 方位角之差决定水平方向的重叠. 预测的重叠区域用作特征检测掩码,
+ * 只在与相邻图片重叠的条带内检测与匹配, 不依赖任何特征匹配
+ */
+class PosePrior {
+public:
+    // 拍摄时的设备方向 (度), 与 CaptureFragment 中 currentOrientation 的顺序与单位一致
+    struct Orientation {
+        float azimuth = 0; // 方位角, 顺时针增大
+        float pitch = 0;   // 俯仰角
+        float roll = 0;    // 横滚角
+    };
+
+    /**
+     * @brief 由方位角之差预测 image1 -> image2 的单应性
+     * 俯仰角与横滚角的正负随设备方向的坐标重映射而变化, 不参与预测, 只计入 Margin 的外扩量
+     * @param focal 焦距 (像素)
+     * @param mode  图片是否已做投影预变换 (圆柱面 / 球面上水平旋转即为平移)
+     * @return 两张图片的视场不相交时返回空矩阵
+     */
+    static cv::Mat PredictHomography(cv::Size size1, cv::Size size2,
+                                     const Orientation& o1, const Orientation& o2,
+                                     double focal, Projection::Mode mode);
+
+    /**
+     * @brief 预测位置的误差范围 (像素): 方位角的传感器误差与俯仰角之差按焦距换算, 横滚角之差按图片半对角线换算
+     */
+    static int Margin(cv::Size size, const Orientation& o1, const Orientation& o2, double focal);
+
+    /**
+     * @brief 预测所有相邻对 images[i - 1] -> images[i] 的单应性与误差范围
+     * @param focal_ratio 焦距与图片长边之比
+     * @param margins     输出: 各相邻对的误差范围 (像素), 用作重叠区域的外扩与引导匹配的搜索半径
+     * @return 方向数量与图片数量不一致, 或任一相邻对的视场不相交时返回空
+     */
+    static std::vector<cv::Mat> PredictNeighbours(const std::vector<cv::Size>& sizes,
+                                                  const std::vector<Orientation>& orientations,
+                                                  double focal_ratio, Projection::Mode mode,
+                                                  std::vector<int>& margins);
+
+    /**
+     * @brief cv::Stitcher 的图片对匹配掩码 (n×n, CV_8U): 只匹配预测视场相交的图片对
+     * 拍摄顺序上相邻的图片对总是匹配, 保证匹配图连通
+     * @return 方向数量与图片数量不一致时返回空 (匹配所有图片对)
+     */
+    static cv::Mat MatchingMask(const std::vector<cv::Size>& sizes,
+                                const std::vector<Orientation>& orientations,
+                                double focal_ratio);
+
+    /**
+     * @brief 每张图片与前后相邻图片的预测重叠区域之并, 用作特征检测掩码
+     * @param focal_ratio 焦距与图片长边之比
+     * @return 方向数量与图片数量不一致, 或任一相邻对的视场不相交时返回空 (在整张图片上检测)
+     */
+    static std::vector<cv::Mat> OverlapMasks(const std::vector<cv::Mat>& images,
+                                             const std::vector<Orientation>& orientations,
+                                             double focal_ratio, Projection::Mode mode);
+};
+#endif //PANORAMAPRO_POSEPRIOR_H
@@ -0,0 +1,47 @@
+//
+// Created by 31830 on 2026/10/17.
+//
+
+#ifndef PANORAMAPRO_PROJECTION_H
+#define PANORAMAPRO_PROJECTION_H
+#include <opencv2/opencv.hpp>
+#include <vector>
+#include "FeatureExtractor.h"
+#include "FeatureMatcher.h"
+
+/**
+ * @brief 拼接前的投影预变换
+ * 手持旋转拍摄的图片在平面上对齐时, 越远离参考图片拉伸越严重, 画布随旋转角度急剧增大.
+ * 先以相机焦距把每张图片投影到圆柱面或球面上, 相邻图片之间近似只差平移, 画布宽度与扫过的角度成正比
+ */
+class Projection {
+public:
+    enum Mode {
+        PLANAR = 0,      // 不做预变换, 直接在平面上对齐
+        CYLINDRICAL = 1, // 圆柱面: 水平方向按角度展开, 竖直方向保持透视
+        SPHERICAL = 2    // 球面: 水平与竖直方向都按角度展开, 适合带俯仰的拍摄
+    };
+
+    /**
+     * @brief 由相邻图片的平面单应性估计焦距 (cv::detail::focalsFromHomography), 取各相邻对的中位数
+     * @param images   输入图片, 按拍摄顺序排列, 尺寸相同
+     * @param features 各图片的特征
+     * @param matcher  相邻图片之间的特征匹配器
+     * @return 焦距与图片长边之比, 所有相邻对都无法估计时返回 DEFAULT_FOCAL_RATIO
+     */
+    static double EstimateFocalRatio(const std::vector<cv::Mat>& images, const FeatureTable& features,
+                                     const FeatureMatcher& matcher);
+
+    /**
+     * @brief 将图片投影到圆柱面 / 球面, 投影中心为图片中心, 投影半径等于焦距 (中心处分辨率不变)
+     * @param focal 焦距 (像素)
+     * @return 投影结果, 原图覆盖范围之外为黑色 (与画布空白区域的约定一致)
+     */
+    static cv::Mat Warp(const cv::Mat& image, double focal, Mode mode);
+
+    /**
+     * @brief 投影结果中的有效区域 (向内收缩若干像素), 用作特征检测掩码, 避免在投影边界的曲线上检测到特征
+     */
+    static cv::Mat ValidMask(const cv::Mat& projected);
+};
+#endif //PANORAMAPRO_PROJECTION_H
@@ -9,12 +9,41 @@
 #include <opencv2/features2d.hpp>
 #include <vector>
 #include <iostream>
+#include "FeatureMatcher.h"
+#include "FeatureExtractor.h"
+#include "PosePrior.h"
 
 class SIFT {
 public:
     SIFT() = default;
     ~SIFT() = default;
 
+    // 分辨率预设
+    enum Quality {
+        QUALITY_FAST = 0,     // 配准与接缝都在很小的图上进行, 适合预览与低端设备
+        QUALITY_BALANCED = 1, // cv::Stitcher 的默认分辨率
+        QUALITY_FULL = 2      // 配准使用原图分辨率, 接缝在较大的图上估计, 最慢
+    };
+
+    /**
+     * @brief cv::Stitcher 各阶段的工作分辨率 (百万像素, ORIGINAL_RESOL 表示原图分辨率)
+     * 配准 (特征 + 光束法平差) 与图割接缝的耗时随分辨率增长, 合成分辨率决定输出大小
+     */
+    struct Options {
+        static constexpr double ORIGINAL_RESOL = -1.0;
+        double registration_resol = Constants::SIFT_BALANCED_REGISTRATION_RESOL;
+        double seam_resol = Constants::SIFT_BALANCED_SEAM_RESOL;
+        double compositing_resol = ORIGINAL_RESOL;
+    };
+
+    /**
+     * @brief 预设的配准 / 接缝分辨率
+     * @param compositing_resol 调用者要求的输出分辨率 (百万像素), <= 0 表示原图分辨率
+     */
+    static Options Preset(Quality quality, double compositing_resol = Options::ORIGINAL_RESOL);
+
+    void SetOptions(const Options& _options) { options = _options; }
+
     /**
      * @brief 加载图像 (使用移动语义减少拷贝)
      * @param _images 图像列表
@@ -23,14 +52,59 @@ public:
     bool Load_image(std::vector<cv::Mat>&& _images);
 
     /**
-     * @brief 进行图像拼接
+     * @brief 设置特征类型 (默认 SIFT; ORB / AKAZE 更快, cv::Stitcher 对二进制描述子自动使用 LSH 匹配)
+     */
+    void SetFeatureBackend(FeatureMatcher::FeatureBackend backend) { feature_backend = backend; }
+
+    /**
+     * @brief 设置每张图片的关键点数量上限 (<= 0 不限制)
+     */
+    void SetKeypointBudget(int budget) { keypoint_budget = budget; }
+
+    /**
+     * @brief 设置每张图片拍摄时的设备方向, 特征只在预测的相邻重叠区域内检测 (数量与图片不一致时忽略)
+     * 配准因特征或图片对不足而失败时, 去掉掩码在整张图片上重新配准一次
+     */
+    void SetOrientations(std::vector<PosePrior::Orientation> _orientations) { orientations = std::move(_orientations); }
+
+    /**
+     * @brief 设置相机焦距与图片长边之比, 用于由方向先验预测重叠区域 (<= 0 时使用 DEFAULT_FOCAL_RATIO)
+     */
+    void SetFocalRatio(double ratio) { focal_ratio = ratio > 0 ? ratio : Constants::DEFAULT_FOCAL_RATIO; }
+
+    /**
+     * @brief 进行图像拼接 (EstimateTransform + Compose)
      * @param enable_linear_blending 是否启用线性融合（去除拼缝）
      * @return 拼接结果图像
      */
     cv::Mat Stitching(bool enable_linear_blending = false);
 
+    /**
+     * @brief 配准: 特征提取、匹配与光束法平差, 相机参数保存在内部的 cv::Stitcher 中
+     * 之后可以多次调用 Compose 更换融合方式或输出分辨率, 无需重新配准
+     * @return 是否配准成功
+     */
+    bool EstimateTransform();
+
+    /**
+     * @brief 使用已有的配准结果合成全景图 (只执行 composePanorama)
+     * @param enable_linear_blending 是否启用多频段融合
+     * @param compositing_resol 合成分辨率 (百万像素), <= 0 表示原图分辨率
+     * @return 拼接结果图像, 未配准或合成失败时为空
+     */
+    cv::Mat Compose(bool enable_linear_blending, double compositing_resol = Options::ORIGINAL_RESOL);
+
+    bool HasTransform() const { return stitcher != nullptr; }
+
 private:
     std::vector<cv::Mat> images;
+    cv::Ptr<cv::Stitcher> stitcher;       // EstimateTransform 成功后持有的配准结果
+    cv::Ptr<ParallelFeaturesFinder> finder;
+    FeatureMatcher::FeatureBackend feature_backend = FeatureMatcher::FEATURE_SIFT;
+    int keypoint_budget = Constants::KEYPOINT_BUDGET;
+    std::vector<PosePrior::Orientation> orientations;
+    double focal_ratio = Constants::DEFAULT_FOCAL_RATIO;
+    Options options;
 
     /**
      * @brief 内部核心函数：拼接两张图片
@@ -26,6 +26,9 @@ public:
 
     static std::vector<cv::Point2f> GetMeshVertices(int width, int height, int mesh_cols, int mesh_rows, double offset_x, double offset_y);
 
+    // 网格角点 (而非中心点), 共 (mesh_rows + 1) * (mesh_cols + 1) 个, 行优先
+    static std::vector<cv::Point2f> GetMeshCorners(int width, int height, int mesh_cols, int mesh_rows, double offset_x, double offset_y);
+
     /**
          * Bitmap -> cv::Mat
          * 1. 锁定像素
@@ -4,12 +4,75 @@
 #include <opencv2/opencv.hpp>
 #include <android/bitmap.h>
 #include <cmath>
+#include <algorithm>
+#include <memory>
 #include "APAP.h"
 #include "Utils.h"
 #include "ImageCompleter.h"
 #include "onnxruntime_cxx_api.h"
 #include "LaMaInpainter.h"
 #include "SIFT.h"
+#include "Constants.h"
+#include "MemoryBudget.h"
+#include "Logger.h"
+#include "FeatureMatcher.h"
+#include "PosePrior.h"
+
+// 读取每张图片拍摄时的设备方向 (每张 3 个 float: 方位角, 俯仰角, 横滚角)
+// 数组为空、长度不符, 或有图片转换失败 (方向与图片无法对应) 时返回空
+static std::vector<PosePrior::Orientation> ReadOrientations(JNIEnv* env, jfloatArray orientations,
+                                                            int count, size_t loaded) {
+    std::vector<PosePrior::Orientation> result;
+    if (orientations == nullptr || (int)loaded != count) return result;
+    if (env->GetArrayLength(orientations) != count * 3) return result;
+
+    std::vector<jfloat> values(count * 3);
+    env->GetFloatArrayRegion(orientations, 0, count * 3, values.data());
+    result.resize(count);
+    for (int i = 0; i < count; ++i) {
+        result[i].azimuth = values[i * 3];
+        result[i].pitch = values[i * 3 + 1];
+        result[i].roll = values[i * 3 + 2];
+    }
+    return result;
+}
+
+// 读取 APAPStitcher.Options 中的拼接参数, 未暴露到 Java 层的参数保持 APAP::Options 的默认值
+static APAP::Options ReadOptions(JNIEnv* env, jobject java_options) {
+    APAP::Options options;
+    if (java_options == nullptr) return options;
+
+    jclass cls = env->GetObjectClass(java_options);
+    auto get_int = [&](const char* name) {
+        return env->GetIntField(java_options, env->GetFieldID(cls, name, "I"));
+    };
+    auto get_double = [&](const char* name) {
+        return env->GetDoubleField(java_options, env->GetFieldID(cls, name, "D"));
+    };
+    auto get_bool = [&](const char* name) {
+        return env->GetBooleanField(java_options, env->GetFieldID(cls, name, "Z")) == JNI_TRUE;
+    };
+
+    options.features = static_cast<FeatureMatcher::FeatureBackend>(get_int("featureBackend"));
+    options.keypoint_budget = get_int("keypointBudget");
+    options.projection = static_cast<Projection::Mode>(get_int("projection"));
+    options.focal_ratio = env->GetFloatField(java_options, env->GetFieldID(cls, "focalRatio", "F"));
+    options.mesh_mode = static_cast<APAP::MeshMode>(get_int("meshMode"));
+    options.vertex_mesh_size = std::max(1, (int)get_int("vertexMeshSize"));
+    options.matcher = static_cast<FeatureMatcher::MatcherBackend>(get_int("matcher"));
+    options.global_residual_threshold = get_double("globalResidualThreshold");
+    options.footprint_only = get_bool("footprintOnly");
+    options.render_max_size = get_int("renderMaxSize");
+    options.tile_size = get_int("tileSize");
+    options.chained = get_bool("chained");
+    options.reference = static_cast<APAP::ReferenceMode>(get_int("reference"));
+    options.single_pass = get_bool("singlePass");
+    options.pyramid_matching = get_bool("pyramidMatching");
+    options.descriptors = static_cast<FeatureMatcher::DescriptorMode>(get_int("descriptors"));
+
+    env->DeleteLocalRef(cls);
+    return options;
+}
 
 extern "C" JNIEXPORT jstring JNICALL
 Java_com_example_panoramapro_MainActivity_stringFromJNI(
@@ -24,7 +87,9 @@ Java_com_example_panoramapro_core_APAPStitcher_nativeStitchImages(
         JNIEnv* env,
         jobject /* this */,
         jobjectArray bitmaps,
-        jboolean enable_linear_blending) {
+        jboolean enable_linear_blending,
+        jobject options,
+        jfloatArray orientations) {
 
     // --- 1. 循环读取图片 ---
     int count = env->GetArrayLength(bitmaps);
@@ -52,6 +117,8 @@ Java_com_example_panoramapro_core_APAPStitcher_nativeStitchImages(
 
     // --- 2. 执行算法 ---
     APAP apap;
+    apap.SetOptions(ReadOptions(env, options));
+    apap.SetOrientations(ReadOrientations(env, orientations, count, images.size()));
     if (!apap.Load_image(std::move(images))) {
         return nullptr;
     }
@@ -129,6 +196,46 @@ Java_com_example_panoramapro_core_LaMaCompleter_nativeInit(
     }
 }
 
+// LaMa 补全的内存保护: 超出预算或分配失败时在缩小的图片上补全, 再只把补全的黑边区域放大回原图
+static cv::Mat InpaintWithinBudget(LaMaInpainter* inpainter, const cv::Mat& src) {
+    double scale = 1.0;
+    size_t need = MemoryBudget::InpaintBytes(src.size());
+    if (!MemoryBudget::Fits(need)) {
+        scale = std::sqrt((double)MemoryBudget::Available() / (double)need);
+        LOGI("LaMa 补全预计需要 %zu MB, 超出预算, 缩放至 %.2f", need >> 20, scale);
+    }
+
+    for (int attempt = 0; attempt <= Constants::MEMORY_MAX_RETRIES; ++attempt, scale *= 0.5) {
+        try {
+            if (scale >= 1.0) return inpainter->process(src);
+
+            cv::Mat small;
+            cv::resize(src, small, cv::Size(), scale, scale, cv::INTER_AREA);
+            cv::Mat filled = inpainter->process(small);
+            if (filled.empty()) return {};
+
+            cv::Mat upscaled, gray, holes;
+            cv::resize(filled, upscaled, src.size(), 0, 0, cv::INTER_LINEAR);
+            cv::cvtColor(src, gray, cv::COLOR_BGR2GRAY);
+            cv::threshold(gray, holes, Constants::BLACK_THRESHOLD, 255, cv::THRESH_BINARY_INV);
+            cv::Mat dst = src.clone();
+            upscaled.copyTo(dst, holes);
+            return dst;
+        } catch (const std::bad_alloc& e) {
+            LOGE("LaMa 补全内存不足 (%s), 缩放 %.2f", e.what(), scale);
+        } catch (const cv::Exception& e) {
+            // 只有内存分配失败才缩小后重试
+            if (!MemoryBudget::IsOutOfMemory(e)) {
+                LOGE("LaMa 补全 OpenCV 异常 (%s)", e.what());
+                return {};
+            }
+            LOGE("LaMa 补全 OpenCV 内存不足 (%s), 缩放 %.2f", e.what(), scale);
+        }
+        scale = std::min(scale, 1.0);
+    }
+    return {};
+}
+
 extern "C" JNIEXPORT jobject JNICALL
 Java_com_example_panoramapro_core_LaMaCompleter_nativeProcess(
         JNIEnv* env, jobject, jlong handle, jobject bitmap) {
@@ -139,13 +246,25 @@ Java_com_example_panoramapro_core_LaMaCompleter_nativeProcess(
     // 1. Bitmap -> Mat (BGR)
     cv::Mat src = Utils::bitmapToMat(env, bitmap);
 
-    // 2. Run LaMa
-    cv::Mat dst = inpainter->process(src);
+    // 2. Run LaMa (受内存预算约束)
+    cv::Mat dst = InpaintWithinBudget(inpainter, src);
 
     // 3. Mat -> Bitmap
     return Utils::matToBitmap(env, dst);
 }
 
+extern "C" JNIEXPORT void JNICALL
+Java_com_example_panoramapro_core_NativeMemoryBudget_nativeSetBudget(
+        JNIEnv* env, jclass, jlong bytes) {
+    MemoryBudget::SetBudget(bytes > 0 ? (size_t)bytes : 0);
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_example_panoramapro_core_NativeMemoryBudget_nativeOnTrimMemory(
+        JNIEnv* env, jclass, jint level) {
+    MemoryBudget::OnTrimMemory(level);
+}
+
 extern "C" JNIEXPORT void JNICALL
 Java_com_example_panoramapro_core_LaMaCompleter_nativeRelease(
         JNIEnv* env, jobject, jlong handle) {
@@ -210,16 +329,21 @@ result_rgba.copyTo(dst_rgba);
 AndroidBitmap_unlockPixels(env, output_bitmap);
 }
 }
-extern "C" JNIEXPORT jobject JNICALL
-Java_com_example_panoramapro_core_SIFTStitcher_nativeStitchImages(
+// SIFTStitcher 会话: 配准一次后保存 cv::Stitcher, 之后的重新合成只执行 composePanorama
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_example_panoramapro_core_SIFTStitcher_nativeCreateSession(
         JNIEnv* env,
         jobject /* this */,
         jobjectArray bitmaps,
-        jboolean enable_linear_blending) {
+        jint feature_backend,
+        jint keypoint_budget,
+        jfloatArray orientations,
+        jint quality,
+        jfloat focal_ratio) {
 
     // --- 1. 循环读取图片 ---
     int count = env->GetArrayLength(bitmaps);
-    if (count < 2) return nullptr;
+    if (count < 2) return 0;
 
     std::vector<cv::Mat> images;
     images.reserve(count);
@@ -239,16 +363,44 @@ Java_com_example_panoramapro_core_SIFTStitcher_nativeStitchImages(
         env->DeleteLocalRef(bitmap);
     }
 
-    if (images.size() < 2) return nullptr;
-
-    // --- 2. 执行算法 ---
-    SIFT stitcher;
-    if (!stitcher.Load_image(std::move(images))) {
-        return nullptr;
+    if (images.size() < 2) return 0;
+
+    // --- 2. 配准 (特征提取、匹配与光束法平差) ---
+    // 句柄返回给 Java 之前由 unique_ptr 持有, 配准失败或抛出异常时自动释放
+    std::unique_ptr<SIFT> stitcher(new SIFT());
+    stitcher->SetFeatureBackend(static_cast<FeatureMatcher::FeatureBackend>(feature_backend));
+    stitcher->SetKeypointBudget(keypoint_budget);
+    stitcher->SetOrientations(ReadOrientations(env, orientations, count, images.size()));
+    stitcher->SetFocalRatio(focal_ratio);
+    stitcher->SetOptions(SIFT::Preset(static_cast<SIFT::Quality>(quality)));
+    if (!stitcher->Load_image(std::move(images)) || !stitcher->EstimateTransform()) {
+        return 0;
     }
 
-    cv::Mat result = stitcher.Stitching(enable_linear_blending == JNI_TRUE);
+    return reinterpret_cast<jlong>(stitcher.release());
+}
+
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_example_panoramapro_core_SIFTStitcher_nativeCompose(
+        JNIEnv* env,
+        jobject /* this */,
+        jlong handle,
+        jboolean enable_linear_blending,
+        jdouble output_megapixels) {
+
+    auto* stitcher = reinterpret_cast<SIFT*>(handle);
+    if (!stitcher) return nullptr;
+
+    cv::Mat result = stitcher->Compose(enable_linear_blending == JNI_TRUE, output_megapixels);
 
     // --- 3. 输出转换 ---
     return Utils::matToBitmap(env, result);
 }
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_example_panoramapro_core_SIFTStitcher_nativeReleaseSession(
+        JNIEnv* env, jobject, jlong handle) {
+
+    auto* stitcher = reinterpret_cast<SIFT*>(handle);
+    delete stitcher;
+}
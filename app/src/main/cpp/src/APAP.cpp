@@ -7,8 +7,15 @@
 #include "Logger.h"
 #include "Constants.h"
 #include "FeatureMatcher.h"
+#include "FeatureExtractor.h"
+#include "PointGrid.h"
+#include "MemoryBudget.h"
 #include <iostream>
 #include <algorithm>
+#include <atomic>
+#include <memory>
+#include <functional>
+#include <limits>
 
 static Eigen::Matrix3d GetConditioner(const std::vector<Eigen::Vector2d>& points) {
     // 计算均值和标准差
@@ -80,11 +87,192 @@ static Eigen::MatrixXd ConstructA(const std::vector<Eigen::Vector2d>& src, const
     return A;
 }
 
+// 9×9 对称矩阵上三角的元素个数
+static constexpr int kGramSize = 45;
+// 法方程求解时每批处理的网格数量 (权重矩阵 kCellBatch × N)
+static constexpr int kCellBatch = 32;
+
+/**
+ * 预计算每个匹配点对 A^T A 的贡献 (只保留上三角, 每行 45 个元素)
+ * 第 k 个点对应 A 的第 2k, 2k+1 行: C_k = r1^T r1 + r2^T r2
+ * 加权后 (WA)^T (WA) = sum_k w_k^2 * C_k, 因此每个网格只需一次 (权重^2 × 贡献) 的矩阵乘法
+ */
+template <typename Scalar>
+static Eigen::Matrix<Scalar, Eigen::Dynamic, kGramSize, Eigen::RowMajor> ComputeContributions(const Eigen::MatrixXd& A) {
+    int n = (int)A.rows() / 2;
+    Eigen::Matrix<Scalar, Eigen::Dynamic, kGramSize, Eigen::RowMajor> P(n, kGramSize);
+    for (int k = 0; k < n; ++k) {
+        int idx = 0;
+        for (int r = 0; r < 9; ++r) {
+            for (int c = r; c < 9; ++c) {
+                P(k, idx++) = (Scalar)(A(2 * k, r) * A(2 * k, c) + A(2 * k + 1, r) * A(2 * k + 1, c));
+            }
+        }
+    }
+    return P;
+}
+
+// 将条件化空间中的 h 向量还原为最终的单应性矩阵
+// H_final = inv(N2) * inv(C2) * H_local * C1 * N1
+static Eigen::Matrix3d RestoreHomography(const Eigen::Matrix<double, 9, 1>& h_vec,
+                                         const Eigen::Matrix3d& T_left,
+                                         const Eigen::Matrix3d& T_right) {
+    Eigen::Matrix3d H_cond;
+    H_cond << h_vec(0), h_vec(1), h_vec(2),
+            h_vec(3), h_vec(4), h_vec(5),
+            h_vec(6), h_vec(7), h_vec(8);
+
+    Eigen::Matrix3d H = T_left * H_cond * T_right;
+
+    // 归一化
+    if (std::abs(H(2, 2)) > 1e-8) {
+        H /= H(2, 2);
+    }
+    return H;
+}
+
+// 权重 max(GAMMA, exp(-d^2 / SIGMA^2)) 在 d^2 >= SIGMA^2 * ln(1 / GAMMA) 时恰好等于 GAMMA
+// 因此只有该半径内的匹配点需要单独计算权重
+static double WeightCutoffRadius() {
+    return Constants::SIGMA * std::sqrt(std::log(1.0 / Constants::GAMMA));
+}
+
+// 由 45 维上三角向量还原 9×9 系统并求最小特征值对应的特征向量
+template <typename Scalar>
+static Eigen::Matrix<double, 9, 1> SolveGram(const Eigen::Matrix<Scalar, 1, kGramSize>& g,
+                                            Eigen::Matrix<Scalar, 9, 9>& M,
+                                            Eigen::SelfAdjointEigenSolver<Eigen::Matrix<Scalar, 9, 9>>& eigen_solver) {
+    int idx = 0;
+    for (int r = 0; r < 9; ++r) {
+        for (int c = r; c < 9; ++c) {
+            M(r, c) = g(idx);
+            M(c, r) = g(idx);
+            ++idx;
+        }
+    }
+
+    // 特征值按升序排列, 第 0 列即最小特征值对应的特征向量
+    eigen_solver.compute(M, Eigen::ComputeEigenvectors);
+    return eigen_solver.eigenvectors().col(0).template cast<double>();
+}
+
+/**
+ * 批量法方程求解:
+ * 1. 每批 kCellBatch 个网格构造权重平方矩阵 W2 (kCellBatch × N)
+ * 2. G = W2 * P 一次得到整批网格的 9×9 系统 (上三角)
+ * 3. 对每个 9×9 对称矩阵做定长特征分解, 最小特征值对应的特征向量即为 SVD 的最后一个右奇异向量
+ * 工作区 (W2, G, 特征分解器) 按并行分片预分配, 循环内不再申请内存
+ *
+ * 稀疏模式下: G = GAMMA^2 * sum(C_k) + sum_{邻近点} (w_k^2 - GAMMA^2) * C_k,
+ * 第一项所有网格共用; 邻近点为空的网格直接共用同一个 GAMMA 加权单应性
+ */
+template <typename Scalar>
+static void SolveNormalEquations(const std::vector<cv::Point2f>& src_pts_cv,
+                                 const Eigen::MatrixXd& A,
+                                 const std::vector<cv::Point2f>& mesh_vertices,
+                                 const Eigen::Matrix3d& T_left,
+                                 const Eigen::Matrix3d& T_right,
+                                 bool sparse,
+                                 std::vector<Eigen::Matrix3d>& local_homographies) {
+    typedef Eigen::Matrix<Scalar, Eigen::Dynamic, Eigen::Dynamic, Eigen::RowMajor> MatrixRX;
+    typedef Eigen::Matrix<Scalar, 1, kGramSize> GramRow;
+    typedef Eigen::Matrix<Scalar, 9, 9> Matrix9;
+
+    const int num_points = (int)src_pts_cv.size();
+    const int total_meshes = (int)local_homographies.size();
+    const double inv_sigma_sq = 1.0 / (Constants::SIGMA * Constants::SIGMA);
+
+    const auto P = ComputeContributions<Scalar>(A);
+
+    if (sparse) {
+        const double gamma_sq = Constants::GAMMA * Constants::GAMMA;
+        const auto radius = (float)WeightCutoffRadius();
+        PointGrid grid(src_pts_cv, radius);
+
+        // 所有网格共享的 GAMMA 加权部分及其单应性
+        const GramRow g_gamma = (Scalar)gamma_sq * P.colwise().sum();
+        Eigen::Matrix3d H_gamma;
+        {
+            Matrix9 M;
+            Eigen::SelfAdjointEigenSolver<Matrix9> eigen_solver;
+            H_gamma = RestoreHomography(SolveGram<Scalar>(g_gamma, M, eigen_solver), T_left, T_right);
+        }
+
+        std::atomic<int> shared_cells(0);
+        cv::parallel_for_(cv::Range(0, total_meshes), [&](const cv::Range& range) {
+            // 线程私有工作区
+            std::vector<int> nearby;
+            GramRow g;
+            Matrix9 M;
+            Eigen::SelfAdjointEigenSolver<Matrix9> eigen_solver;
+            int local_shared = 0;
+
+            for (int i = range.start; i < range.end; ++i) {
+                cv::Point2f mv = mesh_vertices[i];
+                grid.Query(mv, radius, nearby);
+                if (nearby.empty()) {
+                    local_homographies[i] = H_gamma;
+                    ++local_shared;
+                    continue;
+                }
+
+                g = g_gamma;
+                for (int k : nearby) {
+                    double dx = mv.x - src_pts_cv[k].x;
+                    double dy = mv.y - src_pts_cv[k].y;
+                    double w = std::max(Constants::GAMMA, std::exp(-(dx * dx + dy * dy) * inv_sigma_sq));
+                    g.noalias() += (Scalar)(w * w - gamma_sq) * P.row(k);
+                }
+                local_homographies[i] = RestoreHomography(SolveGram<Scalar>(g, M, eigen_solver), T_left, T_right);
+            }
+            shared_cells += local_shared;
+        }, cv::getNumThreads());
+
+        LOGD("APAP::LocalHomography - %d / %d 个网格远离所有匹配点, 共用 GAMMA 单应性",
+             shared_cells.load(), total_meshes);
+        return;
+    }
+
+    const int num_batches = (total_meshes + kCellBatch - 1) / kCellBatch;
+
+    cv::parallel_for_(cv::Range(0, num_batches), [&](const cv::Range& range) {
+        // 线程私有工作区
+        MatrixRX W2(kCellBatch, num_points);
+        MatrixRX G(kCellBatch, kGramSize);
+        Matrix9 M;
+        Eigen::SelfAdjointEigenSolver<Matrix9> eigen_solver;
+
+        for (int b = range.start; b < range.end; ++b) {
+            int first = b * kCellBatch;
+            int count = std::min(kCellBatch, total_meshes - first);
+
+            for (int c = 0; c < count; ++c) {
+                cv::Point2f mv = mesh_vertices[first + c];
+                for (int k = 0; k < num_points; ++k) {
+                    double dx = mv.x - src_pts_cv[k].x;
+                    double dy = mv.y - src_pts_cv[k].y;
+                    double w = std::max(Constants::GAMMA, std::exp(-(dx * dx + dy * dy) * inv_sigma_sq));
+                    W2(c, k) = (Scalar)(w * w);
+                }
+            }
+
+            G.topRows(count).noalias() = W2.topRows(count) * P;
+
+            for (int c = 0; c < count; ++c) {
+                GramRow g = G.row(c);
+                local_homographies[first + c] = RestoreHomography(SolveGram<Scalar>(g, M, eigen_solver), T_left, T_right);
+            }
+        }
+    }, cv::getNumThreads());
+}
+
 std::vector<Eigen::Matrix3d> APAP::LocalHomography(
         const std::vector<cv::Point2f>& src_pts_cv,
         const std::vector<cv::Point2f>& dst_pts_cv,
         const std::vector<cv::Point2f>& mesh_vertices,
-        int mesh_cols, int mesh_rows)
+        int mesh_cols, int mesh_rows,
+        SolverMode solver,
+        bool sparse)
 {
     // 1. Hartley Normalization
     std::vector<cv::Point2f> norm_pts1_cv, norm_pts2_cv;
@@ -114,61 +302,305 @@ std::vector<Eigen::Matrix3d> APAP::LocalHomography(
     std::vector<Eigen::Matrix3d> local_homographies;
     local_homographies.resize(mesh_rows * mesh_cols);
 
+    if (solver == SOLVER_NORMAL_EQ_DOUBLE) {
+        SolveNormalEquations<double>(src_pts_cv, A, mesh_vertices, T_left, T_right, sparse, local_homographies);
+        return local_homographies;
+    }
+    if (solver == SOLVER_NORMAL_EQ_FLOAT) {
+        SolveNormalEquations<float>(src_pts_cv, A, mesh_vertices, T_left, T_right, sparse, local_homographies);
+        return local_homographies;
+    }
+
     double inv_sigma_sq = 1.0 / (Constants::SIGMA * Constants::SIGMA);
     int total_meshes = mesh_rows * mesh_cols;
 
-    // =========================================================
-    // [修改] 添加 OpenMP 并行指令
-    // schedule(dynamic) 通常比 static 更好，因为 SVD 收敛时间可能不同
-    // =========================================================
-#pragma omp parallel for schedule(dynamic)
-    for (int i = 0; i < total_meshes; ++i) {
-        // [注意] 以下所有变量都在循环内部声明，因此是线程私有的（Thread-local）
-        // 这对于 OpenMP 至关重要，否则数据会混乱
+    // 稀疏模式: 远离所有匹配点的网格权重全为 GAMMA, 对应的单应性只需计算一次
+    // (权重整体缩放不改变最小奇异向量, 因此直接对 A 做 SVD)
+    const auto radius = (float)WeightCutoffRadius();
+    std::unique_ptr<PointGrid> grid;
+    Eigen::Matrix3d H_gamma;
+    if (sparse) {
+        grid = std::make_unique<PointGrid>(src_pts_cv, radius);
+        Eigen::JacobiSVD<Eigen::MatrixXd> svd(A, Eigen::ComputeThinV);
+        H_gamma = RestoreHomography(svd.matrixV().col(8), T_left, T_right);
+    }
 
-        cv::Point2f mv = mesh_vertices[i];
+    // 原始 SVD 路径 (保留用于 A/B 对比)
+    // 注意: 工程未开启 -fopenmp, 因此这里与 LocalWarp 一样使用 cv::parallel_for_ 并行,
+    // 保证两种求解方式在相同的并行条件下对比
+    cv::parallel_for_(cv::Range(0, total_meshes), [&](const cv::Range& range) {
+        std::vector<int> nearby;
+        for (int i = range.start; i < range.end; ++i) {
+            // [注意] 以下所有变量都在循环内部声明，因此是线程私有的（Thread-local）
+
+            cv::Point2f mv = mesh_vertices[i];
+
+            if (grid) {
+                grid->Query(mv, radius, nearby);
+                if (nearby.empty()) {
+                    local_homographies[i] = H_gamma;
+                    continue;
+                }
+            }
 
-        // 计算权重
-        Eigen::VectorXd weights(num_points);
-        for (int k = 0; k < num_points; ++k) {
-            double dx = mv.x - src_pts_cv[k].x;
-            double dy = mv.y - src_pts_cv[k].y;
-            double dist_sq = dx * dx + dy * dy;
-            double w = std::exp(-dist_sq * inv_sigma_sq);
-            weights(k) = std::max(Constants::GAMMA, w);
-        }
+            // 计算权重
+            Eigen::VectorXd weights(num_points);
+            for (int k = 0; k < num_points; ++k) {
+                double dx = mv.x - src_pts_cv[k].x;
+                double dy = mv.y - src_pts_cv[k].y;
+                double dist_sq = dx * dx + dy * dy;
+                double w = std::exp(-dist_sq * inv_sigma_sq);
+                weights(k) = std::max(Constants::GAMMA, w);
+            }
 
-        // 构建加权矩阵 WA
-        Eigen::MatrixXd WA(2 * num_points, 9);
-        for (int k = 0; k < num_points; ++k) {
-            WA.row(2 * k) = A.row(2 * k) * weights(k);
-            WA.row(2 * k + 1) = A.row(2 * k + 1) * weights(k);
-        }
+            // 构建加权矩阵 WA
+            Eigen::MatrixXd WA(2 * num_points, 9);
+            for (int k = 0; k < num_points; ++k) {
+                WA.row(2 * k) = A.row(2 * k) * weights(k);
+                WA.row(2 * k + 1) = A.row(2 * k + 1) * weights(k);
+            }
 
-        // SVD 分解
-        // 每个线程拥有自己独立的 svd 对象
-        Eigen::JacobiSVD<Eigen::MatrixXd> svd(WA, Eigen::ComputeThinV);
-        Eigen::VectorXd h_vec = svd.matrixV().col(8);
+            // SVD 分解
+            // 每个线程拥有自己独立的 svd 对象
+            Eigen::JacobiSVD<Eigen::MatrixXd> svd(WA, Eigen::ComputeThinV);
+            Eigen::Matrix<double, 9, 1> h_vec = svd.matrixV().col(8);
 
-        Eigen::Matrix3d H_cond;
-        H_cond << h_vec(0), h_vec(1), h_vec(2),
-                h_vec(3), h_vec(4), h_vec(5),
-                h_vec(6), h_vec(7), h_vec(8);
+            // 写入结果 (无竞争，因为每个线程写不同的 i)
+            local_homographies[i] = RestoreHomography(h_vec, T_left, T_right);
+        }
+    });
 
-        // 还原 H
-        // T_left, T_right 是只读的，可以共享
-        Eigen::Matrix3d H = T_left * H_cond * T_right;
+    return local_homographies;
+}
 
-        // 归一化
-        if (std::abs(H(2, 2)) > 1e-8) {
-            H /= H(2, 2);
+APAP::AdaptiveMesh APAP::BuildAdaptiveMesh(
+        const std::vector<cv::Point2f>& src_pts,
+        const std::vector<cv::Point2f>& dst_pts,
+        cv::Size canvas_size,
+        cv::Point2f offset,
+        int max_cells,
+        SolverMode solver,
+        bool sparse,
+        const Eigen::Matrix3d& frame)
+{
+    const int depth = Constants::ADAPTIVE_MESH_DEPTH;
+    const bool identity_frame = frame.isIdentity();
+
+    // 1. 初始网格: 长边 ADAPTIVE_MESH_BASE 格, 短边按长宽比取整, 使网格接近正方形
+    double base_size = (double)std::max(canvas_size.width, canvas_size.height) / Constants::ADAPTIVE_MESH_BASE;
+    int base_cols = std::max(1, (int)std::ceil(canvas_size.width / base_size));
+    int base_rows = std::max(1, (int)std::ceil(canvas_size.height / base_size));
+
+    AdaptiveMesh mesh;
+    mesh.cols = base_cols << depth;
+    mesh.rows = base_rows << depth;
+    const double step_x = (double)canvas_size.width / mesh.cols;
+    const double step_y = (double)canvas_size.height / mesh.rows;
+
+    // 叶子在其所在层网格中的位置, 第 level 层网格边长为 (1 << (depth - level)) 个最细格
+    struct Leaf {
+        int level, ix, iy;
+    };
+    auto leaf_center = [&](int level, int ix, int iy) {
+        double span = (double)(1 << (depth - level));
+        double cx = (ix + 0.5) * span * step_x - offset.x;
+        double cy = (iy + 0.5) * span * step_y - offset.y;
+        if (identity_frame) return cv::Point2f((float)cx, (float)cy);
+        Eigen::Vector3d q = frame * Eigen::Vector3d(cx, cy, 1.0);
+        return cv::Point2f((float)(q.x() / q.z()), (float)(q.y() / q.z()));
+    };
+    auto project = [](const Eigen::Matrix3d& H, const cv::Point2f& p) {
+        Eigen::Vector3d q = H * Eigen::Vector3d(p.x, p.y, 1.0);
+        return Eigen::Vector2d(q.x() / q.z(), q.y() / q.z());
+    };
+
+    std::vector<Leaf> leaves;
+    for (int iy = 0; iy < base_rows; ++iy) {
+        for (int ix = 0; ix < base_cols; ++ix) {
+            leaves.push_back({0, ix, iy});
+            mesh.centers.push_back(leaf_center(0, ix, iy));
+        }
+    }
+    mesh.homographies = LocalHomography(src_pts, dst_pts, mesh.centers, (int)mesh.centers.size(), 1, solver, sparse);
+
+    // 2. 逐层细分
+    const float cutoff = (float)WeightCutoffRadius();
+    PointGrid grid(src_pts, cutoff);
+    std::vector<int> nearby;
+
+    for (int level = 0; level < depth && (int)leaves.size() + 3 <= max_cells; ++level) {
+        double span = (double)(1 << (depth - level));
+        auto half_diag = (float)(0.5 * span * std::sqrt(step_x * step_x + step_y * step_y));
+
+        // 只探测附近有匹配点的叶子: 其余叶子内所有点的权重都是 GAMMA, 单应性处处相同
+        std::vector<int> candidates;
+        for (int i = 0; i < (int)leaves.size(); ++i) {
+            if (leaves[i].level != level) continue;
+            grid.Query(mesh.centers[i], cutoff + half_diag, nearby);
+            if (!nearby.empty()) candidates.push_back(i);
         }
+        if (candidates.empty()) break;
+
+        // 一次性求解所有候选叶子的 4 个子网格
+        std::vector<cv::Point2f> child_centers;
+        child_centers.reserve(candidates.size() * 4);
+        for (int i : candidates) {
+            const Leaf& leaf = leaves[i];
+            for (int k = 0; k < 4; ++k) {
+                child_centers.push_back(leaf_center(level + 1, leaf.ix * 2 + (k & 1), leaf.iy * 2 + (k >> 1)));
+            }
+        }
+        std::vector<Eigen::Matrix3d> child_Hs = LocalHomography(
+                src_pts, dst_pts, child_centers, (int)child_centers.size(), 1, solver, sparse);
+
+        // 偏差: 子网格中心分别用父/子单应性投影后的距离
+        std::vector<std::pair<double, int>> deviations;
+        deviations.reserve(candidates.size());
+        for (int c = 0; c < (int)candidates.size(); ++c) {
+            const Eigen::Matrix3d& H_parent = mesh.homographies[candidates[c]];
+            double dev = 0.0;
+            for (int k = 0; k < 4; ++k) {
+                const cv::Point2f& p = child_centers[c * 4 + k];
+                dev = std::max(dev, (project(H_parent, p) - project(child_Hs[c * 4 + k], p)).norm());
+            }
+            if (dev > Constants::ADAPTIVE_MESH_TOLERANCE) deviations.emplace_back(dev, c);
+        }
+        if (deviations.empty()) break;
+
+        // 偏差大的优先细分, 直到达到叶子数量上限
+        std::sort(deviations.begin(), deviations.end(), std::greater<>());
+        for (const auto& item : deviations) {
+            if ((int)leaves.size() + 3 > max_cells) break;
+            int c = item.second;
+            int i = candidates[c];
+            Leaf parent = leaves[i];
+            for (int k = 0; k < 4; ++k) {
+                Leaf child = {level + 1, parent.ix * 2 + (k & 1), parent.iy * 2 + (k >> 1)};
+                if (k == 0) {
+                    // 第一个子网格原地替换父网格
+                    leaves[i] = child;
+                    mesh.centers[i] = child_centers[c * 4];
+                    mesh.homographies[i] = child_Hs[c * 4];
+                } else {
+                    leaves.push_back(child);
+                    mesh.centers.push_back(child_centers[c * 4 + k]);
+                    mesh.homographies.push_back(child_Hs[c * 4 + k]);
+                }
+            }
+        }
+    }
 
-        // 写入结果 (无竞争，因为每个线程写不同的 i)
-        local_homographies[i] = H;
+    // 3. 构建最细层查找表
+    mesh.cell_lookup.assign(mesh.cols * mesh.rows, 0);
+    for (int i = 0; i < (int)leaves.size(); ++i) {
+        int span = 1 << (depth - leaves[i].level);
+        int x0 = leaves[i].ix * span;
+        int y0 = leaves[i].iy * span;
+        for (int y = y0; y < y0 + span; ++y) {
+            std::fill_n(mesh.cell_lookup.begin() + y * mesh.cols + x0, span, i);
+        }
     }
 
-    return local_homographies;
+    LOGI("APAP::BuildAdaptiveMesh - 初始网格 %d x %d, 叶子数量 %zu", base_cols, base_rows, leaves.size());
+    return mesh;
+}
+
+// 定点映射表坐标的截断范围, 保证 (坐标 * INTER_TAB_SIZE) 不溢出 int、整数部分不溢出 short
+static constexpr float kFixedPointLimit = 30000.0f;
+
+/**
+ * 画布第 y 行的 [x_begin, x_end) 按网格列切分为若干段, 每段内所有像素使用同一个单应性
+ * 网格下标的取整方式与逐像素计算 (int)(x / step_x) 完全一致
+ */
+template <typename SpanFn>
+static void ForEachCellSpan(int y, int x_begin, int x_end,
+                            double step_x, double step_y,
+                            int mesh_cols, int mesh_rows,
+                            const std::vector<int>& cell_lookup,
+                            SpanFn&& fn) {
+    int idx_y = std::min(std::max((int)(y / step_y), 0), mesh_rows - 1);
+    int x = x_begin;
+    while (x < x_end) {
+        int idx_x = std::min(std::max((int)(x / step_x), 0), mesh_cols - 1);
+        int span_end = x_end;
+        if (idx_x < mesh_cols - 1) {
+            // 下一列网格的第一个像素
+            int next = (int)std::ceil((idx_x + 1) * step_x);
+            while (next > x + 1 && (int)((next - 1) / step_x) > idx_x) --next;
+            while ((int)(next / step_x) <= idx_x) ++next;
+            span_end = std::min(span_end, next);
+        }
+        int h_idx = idx_y * mesh_cols + idx_x;
+        if (!cell_lookup.empty()) h_idx = cell_lookup[h_idx];
+        fn(x, span_end, h_idx);
+        x = span_end;
+    }
+}
+
+// 与 cv::convertMaps(CV_32FC1 -> CV_16SC2) 相同的编码: 整数坐标 + INTER_BITS 位小数组成的插值表下标
+static inline void StoreFixedPoint(float u, float v, short* xy, ushort* frac) {
+    // 取反比较同时处理 NaN
+    if (!(u > -kFixedPointLimit)) u = -kFixedPointLimit;
+    if (!(u < kFixedPointLimit)) u = kFixedPointLimit;
+    if (!(v > -kFixedPointLimit)) v = -kFixedPointLimit;
+    if (!(v < kFixedPointLimit)) v = kFixedPointLimit;
+
+    int ix = cvRound(u * cv::INTER_TAB_SIZE);
+    int iy = cvRound(v * cv::INTER_TAB_SIZE);
+    xy[0] = (short)(ix >> cv::INTER_BITS);
+    xy[1] = (short)(iy >> cv::INTER_BITS);
+    *frac = (ushort)((iy & (cv::INTER_TAB_SIZE - 1)) * cv::INTER_TAB_SIZE + (ix & (cv::INTER_TAB_SIZE - 1)));
+}
+
+/**
+ * 快速映射表: 按网格段遍历, 段内分子/分母对 x 是线性的, 用 float 前向差分递推,
+ * 每个像素只需一次倒数; 直接输出定点映射表 (CV_16SC2 + CV_16UC1 插值表),
+ * 每像素 6 字节, 为两张 float 映射表 (8 字节) 的 3/4, 且 remap 无需再做内部转换
+ */
+static void BuildFixedPointMaps(const std::vector<Eigen::Matrix3d>& local_homographies,
+                                int mesh_cols, int mesh_rows,
+                                cv::Size canvas_size,
+                                cv::Point2f offset,
+                                const std::vector<int>& cell_lookup,
+                                const cv::Rect& roi,
+                                cv::Mat& map_xy, cv::Mat& map_frac) {
+    map_xy.create(roi.size(), CV_16SC2);
+    map_frac.create(roi.size(), CV_16UC1);
+
+    double step_x = (double)canvas_size.width / mesh_cols;
+    double step_y = (double)canvas_size.height / mesh_rows;
+
+    cv::parallel_for_(cv::Range(0, roi.height), [&](const cv::Range& range) {
+        for (int r = range.start; r < range.end; ++r) {
+            int y = roi.y + r;
+            auto ptr_xy = map_xy.ptr<short>(r);
+            auto ptr_frac = map_frac.ptr<ushort>(r);
+            double oy = float(y) - offset.y;
+
+            ForEachCellSpan(y, roi.x, roi.x + roi.width, step_x, step_y, mesh_cols, mesh_rows, cell_lookup,
+                            [&](int x_begin, int x_end, int h_idx) {
+                const Eigen::Matrix3d& H = local_homographies[h_idx];
+                double ox = float(x_begin) - offset.x;
+
+                // 段首像素用 double 求初值, 之后 float 递推
+                auto nu = (float)(H(0, 0) * ox + H(0, 1) * oy + H(0, 2));
+                auto nv = (float)(H(1, 0) * ox + H(1, 1) * oy + H(1, 2));
+                auto nw = (float)(H(2, 0) * ox + H(2, 1) * oy + H(2, 2));
+                const auto du = (float)H(0, 0);
+                const auto dv = (float)H(1, 0);
+                const auto dw = (float)H(2, 0);
+
+                for (int x = x_begin; x < x_end; ++x) {
+                    float w_inv = (nw != 0) ? 1.0f / nw : 0.0f;
+                    int c = x - roi.x;
+                    StoreFixedPoint(nu * w_inv, nv * w_inv, ptr_xy + 2 * c, ptr_frac + c);
+                    nu += du;
+                    nv += dv;
+                    nw += dw;
+                }
+            });
+        }
+    });
 }
 
 cv::Mat APAP::LocalWarp(
@@ -176,24 +608,40 @@ cv::Mat APAP::LocalWarp(
         const std::vector<Eigen::Matrix3d>& local_homographies,
         int mesh_cols, int mesh_rows,
         cv::Size canvas_size,
-        cv::Point2f offset)
+        cv::Point2f offset,
+        const std::vector<int>& cell_lookup,
+        cv::Rect roi,
+        bool fast_maps)
 {
-    cv::Mat map_x(canvas_size, CV_32FC1);
-    cv::Mat map_y(canvas_size, CV_32FC1);
+    if (roi.empty()) roi = cv::Rect(0, 0, canvas_size.width, canvas_size.height);
+
+    cv::Mat warped;
+    if (fast_maps) {
+        cv::Mat map_xy, map_frac;
+        BuildFixedPointMaps(local_homographies, mesh_cols, mesh_rows, canvas_size, offset, cell_lookup, roi,
+                            map_xy, map_frac);
+        cv::remap(image, warped, map_xy, map_frac, cv::INTER_LINEAR, cv::BORDER_CONSTANT, cv::Scalar(0, 0, 0));
+        return warped;
+    }
+
+    // 原始实现: 逐像素 double 计算 float 映射表 (保留用于 A/B 对比)
+    cv::Mat map_x(roi.size(), CV_32FC1);
+    cv::Mat map_y(roi.size(), CV_32FC1);
 
     // 计算网格步长 (Mesh Step)
     double step_x = (double)canvas_size.width / mesh_cols;
     double step_y = (double)canvas_size.height / mesh_rows;
 
     // 并行计算映射表
-    cv::parallel_for_(cv::Range(0, canvas_size.height), [&](const cv::Range& range) {
-        for (int y = range.start; y < range.end; ++y) {
-
-            // --- 下面是你原来的代码，完全不用动 ---
-            auto ptr_x = map_x.ptr<float>(y);
-            auto ptr_y = map_y.ptr<float>(y);
-
-            for (int x = 0; x < canvas_size.width; ++x) {
+    cv::parallel_for_(cv::Range(0, roi.height), [&](const cv::Range& range) {
+        for (int r = range.start; r < range.end; ++r) {
+            // (x, y) 为画布坐标, 映射表只覆盖 roi
+            int y = roi.y + r;
+            auto ptr_x = map_x.ptr<float>(r);
+            auto ptr_y = map_y.ptr<float>(r);
+
+            for (int c = 0; c < roi.width; ++c) {
+                int x = roi.x + c;
                 // ... 计算 idx_x, idx_y ...
                 int idx_x = (int)(x / step_x);
                 int idx_y = (int)(y / step_y);
@@ -205,6 +653,7 @@ cv::Mat APAP::LocalWarp(
                 if (idx_y < 0) idx_y = 0;
 
                 int h_idx = idx_y * mesh_cols + idx_x;
+                if (!cell_lookup.empty()) h_idx = cell_lookup[h_idx];
                 const Eigen::Matrix3d& H = local_homographies[h_idx];
 
                 double ox = float(x) - offset.x;
@@ -217,19 +666,891 @@ cv::Mat APAP::LocalWarp(
                 double u = (H(0, 0) * ox + H(0, 1) * oy + H(0, 2)) * w_inv;
                 double v = (H(1, 0) * ox + H(1, 1) * oy + H(1, 2)) * w_inv;
 
-                ptr_x[x] = (float)u;
-                ptr_y[x] = (float)v;
+                ptr_x[c] = (float)u;
+                ptr_y[c] = (float)v;
             }
         }
     });
 
-    cv::Mat warped;
     // 使用线性插值进行重映射，边界填充黑色
     cv::remap(image, warped, map_x, map_y, cv::INTER_LINEAR, cv::BORDER_CONSTANT, cv::Scalar(0, 0, 0));
 
     return warped;
 }
 
+/**
+ * 顶点插值映射表: 每段像素同时对四个角点单应性做前向差分,
+ * 投影坐标按像素在网格内的相对位置 (fx, fy) 双线性混合
+ */
+static void BuildInterpolatedMaps(const std::vector<Eigen::Matrix3d>& vertex_homographies,
+                                  int mesh_cols, int mesh_rows,
+                                  cv::Size canvas_size,
+                                  cv::Point2f offset,
+                                  const cv::Rect& roi,
+                                  cv::Mat& map_xy, cv::Mat& map_frac) {
+    map_xy.create(roi.size(), CV_16SC2);
+    map_frac.create(roi.size(), CV_16UC1);
+
+    double step_x = (double)canvas_size.width / mesh_cols;
+    double step_y = (double)canvas_size.height / mesh_rows;
+    const int vertex_cols = mesh_cols + 1;
+    const std::vector<int> no_lookup;
+
+    cv::parallel_for_(cv::Range(0, roi.height), [&](const cv::Range& range) {
+        for (int r = range.start; r < range.end; ++r) {
+            int y = roi.y + r;
+            auto ptr_xy = map_xy.ptr<short>(r);
+            auto ptr_frac = map_frac.ptr<ushort>(r);
+            double oy = float(y) - offset.y;
+
+            int idx_y = std::min(std::max((int)(y / step_y), 0), mesh_rows - 1);
+            auto fy = (float)std::min(std::max((y - idx_y * step_y) / step_y, 0.0), 1.0);
+
+            ForEachCellSpan(y, roi.x, roi.x + roi.width, step_x, step_y, mesh_cols, mesh_rows, no_lookup,
+                            [&](int x_begin, int x_end, int h_idx) {
+                int idx_x = h_idx % mesh_cols;
+                const int v00 = idx_y * vertex_cols + idx_x;
+                const Eigen::Matrix3d* Hs[4] = {
+                        &vertex_homographies[v00], &vertex_homographies[v00 + 1],
+                        &vertex_homographies[v00 + vertex_cols], &vertex_homographies[v00 + vertex_cols + 1]};
+
+                double ox = float(x_begin) - offset.x;
+                float nu[4], nv[4], nw[4], du[4], dv[4], dw[4];
+                for (int k = 0; k < 4; ++k) {
+                    const Eigen::Matrix3d& H = *Hs[k];
+                    nu[k] = (float)(H(0, 0) * ox + H(0, 1) * oy + H(0, 2));
+                    nv[k] = (float)(H(1, 0) * ox + H(1, 1) * oy + H(1, 2));
+                    nw[k] = (float)(H(2, 0) * ox + H(2, 1) * oy + H(2, 2));
+                    du[k] = (float)H(0, 0);
+                    dv[k] = (float)H(1, 0);
+                    dw[k] = (float)H(2, 0);
+                }
+
+                auto fx = (float)((x_begin - idx_x * step_x) / step_x);
+                const auto dfx = (float)(1.0 / step_x);
+
+                for (int x = x_begin; x < x_end; ++x) {
+                    float u[4], v[4];
+                    for (int k = 0; k < 4; ++k) {
+                        float w_inv = (nw[k] != 0) ? 1.0f / nw[k] : 0.0f;
+                        u[k] = nu[k] * w_inv;
+                        v[k] = nv[k] * w_inv;
+                        nu[k] += du[k];
+                        nv[k] += dv[k];
+                        nw[k] += dw[k];
+                    }
+
+                    float ax = std::min(std::max(fx, 0.0f), 1.0f);
+                    float top_u = u[0] + (u[1] - u[0]) * ax;
+                    float top_v = v[0] + (v[1] - v[0]) * ax;
+                    float bottom_u = u[2] + (u[3] - u[2]) * ax;
+                    float bottom_v = v[2] + (v[3] - v[2]) * ax;
+
+                    int c = x - roi.x;
+                    StoreFixedPoint(top_u + (bottom_u - top_u) * fy, top_v + (bottom_v - top_v) * fy,
+                                    ptr_xy + 2 * c, ptr_frac + c);
+                    fx += dfx;
+                }
+            });
+        }
+    });
+}
+
+cv::Mat APAP::LocalWarpInterpolated(
+        const cv::Mat& image,
+        const std::vector<Eigen::Matrix3d>& vertex_homographies,
+        int mesh_cols, int mesh_rows,
+        cv::Size canvas_size,
+        cv::Point2f offset,
+        cv::Rect roi)
+{
+    if (roi.empty()) roi = cv::Rect(0, 0, canvas_size.width, canvas_size.height);
+
+    cv::Mat map_xy, map_frac;
+    BuildInterpolatedMaps(vertex_homographies, mesh_cols, mesh_rows, canvas_size, offset, roi, map_xy, map_frac);
+
+    cv::Mat warped;
+    cv::remap(image, warped, map_xy, map_frac, cv::INTER_LINEAR, cv::BORDER_CONSTANT, cv::Scalar(0, 0, 0));
+    return warped;
+}
+
+// 与 LocalWarp 相同的取整方式, 求画布矩形 rect 覆盖到的网格下标 (行优先)
+static std::vector<int> CellsInRect(const cv::Rect& rect, cv::Size canvas_size, int mesh_cols, int mesh_rows) {
+    double step_x = (double)canvas_size.width / mesh_cols;
+    double step_y = (double)canvas_size.height / mesh_rows;
+    int cx0 = std::max(0, (int)(rect.x / step_x));
+    int cy0 = std::max(0, (int)(rect.y / step_y));
+    int cx1 = std::min(mesh_cols - 1, (int)((rect.x + rect.width - 1) / step_x));
+    int cy1 = std::min(mesh_rows - 1, (int)((rect.y + rect.height - 1) / step_y));
+
+    std::vector<int> cells;
+    cells.reserve((cx1 - cx0 + 1) * (cy1 - cy0 + 1));
+    for (int cy = cy0; cy <= cy1; ++cy) {
+        for (int cx = cx0; cx <= cx1; ++cx) {
+            cells.push_back(cy * mesh_cols + cx);
+        }
+    }
+    return cells;
+}
+
+static Eigen::Matrix3d ToEigen(const cv::Mat& H) {
+    Eigen::Matrix3d M;
+    for (int r = 0; r < 3; ++r) {
+        for (int c = 0; c < 3; ++c) M(r, c) = H.at<double>(r, c);
+    }
+    return M;
+}
+
+static cv::Mat ToCv(const Eigen::Matrix3d& M) {
+    cv::Mat H(3, 3, CV_64F);
+    for (int r = 0; r < 3; ++r) {
+        for (int c = 0; c < 3; ++c) H.at<double>(r, c) = M(r, c);
+    }
+    return H;
+}
+
+APAP::MeshWarp APAP::SolveWarp(const std::vector<cv::Point2f>& pts1,
+                               const std::vector<cv::Point2f>& pts2,
+                               cv::Size canvas_size,
+                               cv::Point2f offset,
+                               const cv::Rect& footprint,
+                               const Eigen::Matrix3d& frame) const {
+    MeshWarp warp;
+    warp.mode = options.mesh_mode;
+
+    // 网格点变换到 pts1 坐标系求解, 结果再右乘 frame 得到画布 -> 新图片的单应性
+    const bool identity_frame = frame.isIdentity();
+    auto to_frame = [&](std::vector<cv::Point2f>& points) {
+        if (identity_frame) return;
+        for (auto& p : points) {
+            Eigen::Vector3d q = frame * Eigen::Vector3d(p.x, p.y, 1.0);
+            p = cv::Point2f((float)(q.x() / q.z()), (float)(q.y() / q.z()));
+        }
+    };
+    auto from_frame = [&](std::vector<Eigen::Matrix3d>& Hs) {
+        if (identity_frame) return;
+        for (auto& H : Hs) H = H * frame;
+    };
+
+    if (options.mesh_mode == MESH_ADAPTIVE) {
+        // 自适应网格只在匹配点附近细分, 初始网格数量很少, 因此整体求解
+        AdaptiveMesh mesh = BuildAdaptiveMesh(
+                pts1, pts2,
+                canvas_size, offset,
+                options.adaptive_max_cells,
+                options.solver,
+                options.sparse_weighting,
+                frame);
+        from_frame(mesh.homographies);
+        warp.cols = mesh.cols;
+        warp.rows = mesh.rows;
+        warp.cell_lookup = std::move(mesh.cell_lookup);
+        warp.homographies = std::move(mesh.homographies);
+        return warp;
+    }
+
+    // 覆盖范围外扩 2 像素再确定需要求解的网格, 使换算到其他分辨率后的取整误差不会落入未求解的网格
+    cv::Rect solve_rect = cv::Rect(footprint.x - 2, footprint.y - 2, footprint.width + 4, footprint.height + 4) &
+                          cv::Rect(0, 0, canvas_size.width, canvas_size.height);
+
+    if (options.mesh_mode == MESH_VERTEX) {
+        int mesh_cols = options.vertex_mesh_size;
+        int mesh_rows = options.vertex_mesh_size;
+        std::vector<cv::Point2f> corners = Utils::GetMeshCorners(
+                canvas_size.width, canvas_size.height, mesh_cols, mesh_rows, offset.x, offset.y);
+
+        // 只求解覆盖范围内网格的角点
+        std::vector<uchar> needed(corners.size(), 0);
+        for (int cell : CellsInRect(solve_rect, canvas_size, mesh_cols, mesh_rows)) {
+            int v00 = (cell / mesh_cols) * (mesh_cols + 1) + cell % mesh_cols;
+            needed[v00] = needed[v00 + 1] = 1;
+            needed[v00 + mesh_cols + 1] = needed[v00 + mesh_cols + 2] = 1;
+        }
+        std::vector<int> active;
+        std::vector<cv::Point2f> active_corners;
+        for (int v = 0; v < (int)corners.size(); ++v) {
+            if (!needed[v]) continue;
+            active.push_back(v);
+            active_corners.push_back(corners[v]);
+        }
+        to_frame(active_corners);
+
+        std::vector<Eigen::Matrix3d> active_Hs = LocalHomography(
+                pts1, pts2, active_corners, (int)active_corners.size(), 1,
+                options.solver, options.sparse_weighting);
+        from_frame(active_Hs);
+
+        warp.cols = mesh_cols;
+        warp.rows = mesh_rows;
+        warp.homographies.assign(corners.size(), Eigen::Matrix3d::Identity());
+        for (size_t k = 0; k < active.size(); ++k) warp.homographies[active[k]] = active_Hs[k];
+        return warp;
+    }
+
+    // 生成覆盖整个新画布的网格
+    int mesh_cols = Constants::MESH_SIZE;
+    int mesh_rows = Constants::MESH_SIZE;
+    std::vector<cv::Point2f> mesh_vertices = Utils::GetMeshVertices(
+            canvas_size.width, canvas_size.height, mesh_cols, mesh_rows, offset.x, offset.y);
+
+    // 只求解与覆盖范围相交的网格, 其余网格不会被 LocalWarp 访问
+    std::vector<int> active = CellsInRect(solve_rect, canvas_size, mesh_cols, mesh_rows);
+    std::vector<cv::Point2f> active_vertices;
+    active_vertices.reserve(active.size());
+    for (int idx : active) active_vertices.push_back(mesh_vertices[idx]);
+    to_frame(active_vertices);
+
+    std::vector<Eigen::Matrix3d> active_Hs = LocalHomography(
+            pts1, pts2,
+            active_vertices,
+            (int)active_vertices.size(), 1,
+            options.solver,
+            options.sparse_weighting);
+    from_frame(active_Hs);
+
+    warp.cols = mesh_cols;
+    warp.rows = mesh_rows;
+    warp.homographies.assign(mesh_cols * mesh_rows, Eigen::Matrix3d::Identity());
+    for (size_t k = 0; k < active.size(); ++k) warp.homographies[active[k]] = active_Hs[k];
+    return warp;
+}
+
+APAP::MeshWarp APAP::Rescale(const MeshWarp& warp, double canvas_scale, double image_scale) {
+    MeshWarp scaled = warp;
+    Eigen::Matrix3d S_canvas = Eigen::Vector3d(canvas_scale, canvas_scale, 1.0).asDiagonal();
+    Eigen::Matrix3d S_image_inv = Eigen::Vector3d(1.0 / image_scale, 1.0 / image_scale, 1.0).asDiagonal();
+    for (auto& H : scaled.homographies) {
+        H = S_image_inv * H * S_canvas;
+    }
+    return scaled;
+}
+
+cv::Mat APAP::RenderWarp(const cv::Mat& image,
+                         const MeshWarp& warp,
+                         cv::Size canvas_size,
+                         cv::Point2f offset,
+                         cv::Rect roi,
+                         bool fast_maps) {
+    if (roi.empty()) roi = cv::Rect(0, 0, canvas_size.width, canvas_size.height);
+
+    if (warp.global) {
+        // roi 像素 -> 画布 img1 坐标系 -> 新图片
+        const Eigen::Matrix3d& H = warp.homographies[0];
+        Eigen::Matrix3d T = Eigen::Matrix3d::Identity();
+        T(0, 2) = roi.x - offset.x;
+        T(1, 2) = roi.y - offset.y;
+        Eigen::Matrix3d M = H * T;
+
+        cv::Mat warped;
+        cv::warpPerspective(image, warped, ToCv(M), roi.size(), cv::INTER_LINEAR | cv::WARP_INVERSE_MAP,
+                            cv::BORDER_CONSTANT, cv::Scalar(0, 0, 0));
+        return warped;
+    }
+
+    if (warp.mode == MESH_VERTEX) {
+        return LocalWarpInterpolated(image, warp.homographies, warp.cols, warp.rows, canvas_size, offset, roi);
+    }
+    return LocalWarp(image, warp.homographies, warp.cols, warp.rows, canvas_size, offset,
+                     warp.cell_lookup, roi, fast_maps);
+}
+
+// 全局单应性 (新图片 -> 画布) 转为 MeshWarp (画布 -> 新图片)
+static APAP::MeshWarp GlobalWarp(const cv::Mat& H_global) {
+    APAP::MeshWarp warp;
+    warp.global = true;
+    warp.homographies.push_back(ToEigen(H_global.inv()));
+    return warp;
+}
+
+// 分块合成中复用的缓冲区, 块大小不变时不会重新分配
+struct TileBuffers {
+    cv::Mat map_xy, map_frac;
+    cv::Mat patch, padded;
+    cv::Mat gray, mask1, mask2;
+    cv::Mat dist1, dist2;
+};
+
+static void RenderTile(const cv::Mat& image, const APAP::MeshWarp& warp,
+                       cv::Size canvas_size, cv::Point2f offset,
+                       const cv::Rect& roi, bool fast_maps, TileBuffers& buf) {
+    if (warp.global || !fast_maps) {
+        buf.patch = APAP::RenderWarp(image, warp, canvas_size, offset, roi, fast_maps);
+        return;
+    }
+    if (warp.mode == APAP::MESH_VERTEX) {
+        BuildInterpolatedMaps(warp.homographies, warp.cols, warp.rows, canvas_size, offset, roi,
+                              buf.map_xy, buf.map_frac);
+    } else {
+        BuildFixedPointMaps(warp.homographies, warp.cols, warp.rows, canvas_size, offset, warp.cell_lookup, roi,
+                            buf.map_xy, buf.map_frac);
+    }
+    cv::remap(image, buf.patch, buf.map_xy, buf.map_frac, cv::INTER_LINEAR, cv::BORDER_CONSTANT, cv::Scalar(0, 0, 0));
+}
+
+// 非黑像素掩码
+static void CoverageMask(const cv::Mat& img, cv::Mat& gray, cv::Mat& mask) {
+    cv::cvtColor(img, gray, cv::COLOR_BGR2GRAY);
+    cv::threshold(gray, mask, 0, 255, cv::THRESH_BINARY);
+}
+
+// distanceTransform (DIST_L2, 3×3 掩码) 的水平/竖直步长为 0.955, 距离最多比欧氏距离小约 5%;
+// 分块融合的外扩量按此放大, 保证窗口外的未覆盖像素不会落入截断半径
+static int FeatherApron(float feather) {
+    return (int)std::ceil(feather / 0.955f) + 1;
+}
+
+/**
+ * 按 buf.dist1 / buf.dist2 (以 window 为坐标系) 的距离权重将 buf.patch 线性融合到画布的 tile 区域
+ * 距离截断到 feather (不截断时传 FLT_MAX)
+ */
+static void BlendWeighted(cv::Mat& canvas, const cv::Rect& tile, const cv::Rect& window,
+                          float feather, TileBuffers& buf) {
+    const int dx = tile.x - window.x;
+    const int dy = tile.y - window.y;
+    cv::parallel_for_(cv::Range(0, tile.height), [&](const cv::Range& range) {
+        for (int r = range.start; r < range.end; ++r) {
+            auto dst = canvas.ptr<cv::Vec3b>(tile.y + r) + tile.x;
+            const auto p2 = buf.patch.ptr<cv::Vec3b>(dy + r) + dx;
+            const float* w1 = buf.dist1.ptr<float>(dy + r) + dx;
+            const float* w2 = buf.dist2.ptr<float>(dy + r) + dx;
+
+            for (int x = 0; x < tile.width; ++x) {
+                float val1 = std::min(w1[x], feather);
+                float val2 = std::min(w2[x], feather);
+                float sum = val1 + val2;
+
+                if (sum > 1e-5) { // 避免除以零
+                    float alpha = val1 / sum;
+                    float beta = val2 / sum;
+                    dst[x][0] = (uchar)(float(dst[x][0]) * alpha + float(p2[x][0]) * beta);
+                    dst[x][1] = (uchar)(float(dst[x][1]) * alpha + float(p2[x][1]) * beta);
+                    dst[x][2] = (uchar)(float(dst[x][2]) * alpha + float(p2[x][2]) * beta);
+                } else {
+                    dst[x] = cv::Vec3b(0, 0, 0);
+                }
+            }
+        }
+    });
+}
+
+/**
+ * 线性融合一块: 权重为到各自覆盖区域边缘的距离, 截断到 feather.
+ * 截断后的距离只依赖 feather 范围内的像素, 因此 window 比 tile 外扩 FeatherApron (裁剪到画布) 即可得到与整块计算相同的权重
+ */
+static void BlendTile(cv::Mat& canvas, const cv::Rect& tile, const cv::Rect& window,
+                      float feather, TileBuffers& buf) {
+    cv::distanceTransform(buf.mask1, buf.dist1, cv::DIST_L2, 3);
+    cv::distanceTransform(buf.mask2, buf.dist2, cv::DIST_L2, 3);
+    BlendWeighted(canvas, tile, window, feather, buf);
+}
+
+/**
+ * 合成: 创建 canvas_size 大小的画布, 将 base 放在 base_pos, 再在 footprint 区域内与扭曲后的 image 融合
+ * tile_size > 0 时映射表、重映射与融合按块进行, 除输出画布外的工作内存只与块大小有关, 距离权重截断到 feather;
+ * 整块处理时不截断 (feather 不起作用)
+ * 线性融合的权重与在整张画布上计算的距离一致: 旧画布的距离总在足以包含最近未覆盖像素的窗口上计算,
+ * 覆盖范围只限制新图片的渲染
+ */
+static cv::Mat Composite(const cv::Mat& base, cv::Point base_pos,
+                         const cv::Mat& image, const APAP::MeshWarp& warp,
+                         cv::Size canvas_size, cv::Point2f offset, const cv::Rect& footprint,
+                         bool enable_linear_blending, int tile_size, float feather, bool fast_maps) {
+    // 创建最终的大画布
+    cv::Mat final_canvas = cv::Mat::zeros(canvas_size, CV_8UC3);
+    const cv::Rect canvas_rect(0, 0, canvas_size.width, canvas_size.height);
+
+    // 将 base_canvas 拷贝到 final_canvas 的对应位置 (应用 offset)
+    // 两级分辨率下渲染画布按比例取整, base 可能超出画布 1 像素, 超出部分裁掉
+    cv::Rect base_rect = cv::Rect(base_pos.x, base_pos.y, base.cols, base.rows) & canvas_rect;
+    base(base_rect - base_pos).copyTo(final_canvas(base_rect));
+
+    if (tile_size <= 0) {
+        // 整块处理: 将新图片变形到覆盖范围, 再融合
+        TileBuffers buf;
+        RenderTile(image, warp, canvas_size, offset, footprint, fast_maps, buf);
+        if (!enable_linear_blending) {
+            // 简单的最大值融合
+            // 实际项目中应使用 Multi-band Blending 或 Seam Carving
+            cv::Mat canvas_patch = final_canvas(footprint);
+            cv::max(canvas_patch, buf.patch, canvas_patch);
+            return final_canvas;
+        }
+
+        // 新图片的距离: 覆盖范围外扩了 FOOTPRINT_MARGIN, 四周是未覆盖像素, 在覆盖范围内计算即与整张画布一致
+        CoverageMask(buf.patch, buf.gray, buf.mask2);
+        cv::distanceTransform(buf.mask2, buf.dist2, cv::DIST_L2, 3);
+
+        // 旧画布的距离: 最近的未覆盖像素可能在覆盖范围之外, 在旧画布外扩 1 像素 (base 之外均未覆盖) 的窗口上计算
+        cv::Rect base_window = cv::Rect(base_rect.x - 1, base_rect.y - 1, base_rect.width + 2, base_rect.height + 2) &
+                               canvas_rect;
+        cv::Mat base_mask = cv::Mat::zeros(base_window.size(), CV_8UC1);
+        cv::Mat base_covered = base_mask(base_rect - base_window.tl());
+        CoverageMask(base(base_rect - base_pos), buf.gray, base_covered);
+        cv::Mat base_dist;
+        cv::distanceTransform(base_mask, base_dist, cv::DIST_L2, 3);
+        base_mask.release();
+
+        buf.dist1 = cv::Mat::zeros(footprint.size(), CV_32FC1);
+        cv::Rect shared = footprint & base_window;
+        if (!shared.empty()) base_dist(shared - base_window.tl()).copyTo(buf.dist1(shared - footprint.tl()));
+        base_dist.release();
+
+        BlendWeighted(final_canvas, footprint, footprint, std::numeric_limits<float>::max(), buf);
+        return final_canvas;
+    }
+
+    // 融合时每块需要外扩 feather 像素计算距离权重; 外扩部分不裁剪到覆盖范围, 旧画布在覆盖范围外的边缘同样影响权重
+    int apron = enable_linear_blending ? FeatherApron(feather) : 0;
+    TileBuffers buf;
+    for (int ty = footprint.y; ty < footprint.y + footprint.height; ty += tile_size) {
+        for (int tx = footprint.x; tx < footprint.x + footprint.width; tx += tile_size) {
+            cv::Rect tile = cv::Rect(tx, ty, tile_size, tile_size) & footprint;
+            cv::Rect window = cv::Rect(tile.x - apron, tile.y - apron,
+                                       tile.width + 2 * apron, tile.height + 2 * apron) & canvas_rect;
+
+            // 覆盖范围之外新图片必然为黑色 (且不保证求解了单应性), 只渲染覆盖范围内的部分, 其余补零
+            cv::Rect rendered = window & footprint;
+            RenderTile(image, warp, canvas_size, offset, rendered, fast_maps, buf);
+            if (rendered != window) {
+                buf.padded.create(window.size(), CV_8UC3);
+                buf.padded.setTo(cv::Scalar(0, 0, 0));
+                buf.patch.copyTo(buf.padded(rendered - window.tl()));
+                std::swap(buf.patch, buf.padded);
+            }
+
+            if (!enable_linear_blending) {
+                cv::Mat canvas_tile = final_canvas(tile);
+                cv::max(canvas_tile, buf.patch, canvas_tile);
+                continue;
+            }
+
+            // 旧画布的覆盖掩码取自 base (final_canvas 中先处理的块已被改写)
+            buf.mask1.create(window.size(), CV_8UC1);
+            buf.mask1.setTo(cv::Scalar(0));
+            cv::Rect base_part = window & base_rect;
+            if (!base_part.empty()) {
+                cv::Mat base_mask = buf.mask1(base_part - window.tl());
+                CoverageMask(base(base_part - base_pos), buf.gray, base_mask);
+            }
+            CoverageMask(buf.patch, buf.gray, buf.mask2);
+
+            BlendTile(final_canvas, tile, window, feather, buf);
+        }
+    }
+    return final_canvas;
+}
+
+/**
+ * 单次合成: 画布按块并行处理, 每块内渲染与该块相交的所有图片,
+ * 线性融合时以距离为权重加权平均 (分块时截断到 feather, 整块处理时不截断), 否则取最大值
+ */
+static cv::Mat CompositeSinglePass(const std::vector<cv::Mat>& sources,
+                                   const std::vector<APAP::MeshWarp>& warps,
+                                   const std::vector<cv::Rect>& footprints,
+                                   cv::Size canvas_size, cv::Point2f offset,
+                                   bool enable_linear_blending, int tile_size, float feather, bool fast_maps) {
+    cv::Mat canvas = cv::Mat::zeros(canvas_size, CV_8UC3);
+    const cv::Rect canvas_rect(0, 0, canvas_size.width, canvas_size.height);
+    // 整块处理: 窗口即整张画布, 距离不必截断
+    const bool tiled = tile_size > 0;
+    if (!tiled) {
+        tile_size = std::max(canvas_size.width, canvas_size.height);
+        feather = std::numeric_limits<float>::max();
+    }
+
+    const int tiles_x = (canvas_size.width + tile_size - 1) / tile_size;
+    const int tiles_y = (canvas_size.height + tile_size - 1) / tile_size;
+    const int apron = enable_linear_blending && tiled ? FeatherApron(feather) : 0;
+
+    cv::parallel_for_(cv::Range(0, tiles_x * tiles_y), [&](const cv::Range& range) {
+        TileBuffers buf;
+        cv::Mat accum, weight_sum;
+        for (int t = range.start; t < range.end; ++t) {
+            cv::Rect tile = cv::Rect((t % tiles_x) * tile_size, (t / tiles_x) * tile_size, tile_size, tile_size) &
+                            canvas_rect;
+            cv::Rect window = cv::Rect(tile.x - apron, tile.y - apron,
+                                       tile.width + 2 * apron, tile.height + 2 * apron) & canvas_rect;
+            if (enable_linear_blending) {
+                accum.create(tile.size(), CV_32FC3);
+                accum.setTo(cv::Scalar(0, 0, 0));
+                weight_sum.create(tile.size(), CV_32FC1);
+                weight_sum.setTo(cv::Scalar(0));
+            }
+
+            for (size_t j = 0; j < sources.size(); ++j) {
+                if ((footprints[j] & tile).empty()) continue;
+                // 覆盖范围之外该图片必然为黑色
+                cv::Rect win = window & footprints[j];
+                RenderTile(sources[j], warps[j], canvas_size, offset, win, fast_maps, buf);
+
+                cv::Rect inner = tile & win;
+                if (!enable_linear_blending) {
+                    cv::Mat canvas_part = canvas(inner);
+                    cv::max(canvas_part, buf.patch(inner - win.tl()), canvas_part);
+                    continue;
+                }
+
+                CoverageMask(buf.patch, buf.gray, buf.mask2);
+                cv::distanceTransform(buf.mask2, buf.dist2, cv::DIST_L2, 3);
+                for (int y = inner.y; y < inner.y + inner.height; ++y) {
+                    const auto src = buf.patch.ptr<cv::Vec3b>(y - win.y) + (inner.x - win.x);
+                    const float* dist = buf.dist2.ptr<float>(y - win.y) + (inner.x - win.x);
+                    auto acc = accum.ptr<cv::Vec3f>(y - tile.y) + (inner.x - tile.x);
+                    auto wsum = weight_sum.ptr<float>(y - tile.y) + (inner.x - tile.x);
+                    for (int x = 0; x < inner.width; ++x) {
+                        float w = std::min(dist[x], feather);
+                        if (w <= 0) continue;
+                        acc[x][0] += w * src[x][0];
+                        acc[x][1] += w * src[x][1];
+                        acc[x][2] += w * src[x][2];
+                        wsum[x] += w;
+                    }
+                }
+            }
+
+            if (!enable_linear_blending) continue;
+            for (int r = 0; r < tile.height; ++r) {
+                const auto acc = accum.ptr<cv::Vec3f>(r);
+                const float* wsum = weight_sum.ptr<float>(r);
+                auto dst = canvas.ptr<cv::Vec3b>(tile.y + r) + tile.x;
+                for (int x = 0; x < tile.width; ++x) {
+                    if (wsum[x] > 1e-5f) {
+                        float inv = 1.0f / wsum[x];
+                        dst[x] = cv::Vec3b((uchar)(acc[x][0] * inv), (uchar)(acc[x][1] * inv), (uchar)(acc[x][2] * inv));
+                    }
+                }
+            }
+        }
+    });
+    return canvas;
+}
+
+// 内点在全局单应性下的 RMS 重投影误差 (src -> dst)
+static double ReprojectionRMS(const cv::Mat& H,
+                              const std::vector<cv::Point2f>& src,
+                              const std::vector<cv::Point2f>& dst) {
+    if (H.empty() || src.empty()) return std::numeric_limits<double>::infinity();
+
+    std::vector<cv::Point2f> projected;
+    cv::perspectiveTransform(src, projected, H);
+
+    double sum = 0.0;
+    for (size_t k = 0; k < src.size(); ++k) {
+        cv::Point2f d = projected[k] - dst[k];
+        sum += (double)d.x * d.x + (double)d.y * d.y;
+    }
+    return std::sqrt(sum / (double)src.size());
+}
+
+cv::Mat APAP::EstimateHomography(const std::vector<cv::Point2f>& src,
+                                const std::vector<cv::Point2f>& dst,
+                                EstimatorMode mode,
+                                std::vector<uchar>& status,
+                                double threshold) {
+    if (mode == ESTIMATOR_RANSAC) {
+        return cv::findHomography(src, dst, cv::RANSAC, threshold, status);
+    }
+
+    cv::UsacParams params;
+    params.confidence = Constants::RANSAC_CONFIDENCE;
+    params.maxIterations = Constants::MAX_ITERATION;
+    params.threshold = threshold;
+    params.sampler = cv::SAMPLING_PROSAC;
+    params.neighborsSearch = cv::NEIGH_GRID;
+    params.isParallel = false; // 相邻对已在外层并行估计
+    params.loIterations = Constants::USAC_LO_ITERATIONS;
+    params.loSampleSize = Constants::USAC_LO_SAMPLE_SIZE;
+    if (mode == ESTIMATOR_MAGSAC) {
+        params.score = cv::SCORE_METHOD_MAGSAC;
+        params.loMethod = cv::LOCAL_OPTIM_SIGMA;
+    } else {
+        params.score = cv::SCORE_METHOD_MSAC;
+        params.loMethod = cv::LOCAL_OPTIM_INNER_AND_ITER_LO;
+    }
+
+    cv::Mat mask;
+    cv::Mat H = cv::findHomography(src, dst, mask, params);
+    status.assign(src.size(), 0);
+    if (!H.empty() && mask.total() == src.size()) {
+        for (size_t i = 0; i < src.size(); ++i) status[i] = mask.ptr<uchar>()[i];
+    }
+    return H;
+}
+
+bool APAP::VerifyGuided(const std::vector<cv::Point2f>& pts1,
+                        const std::vector<cv::Point2f>& pts2,
+                        cv::Mat& H,
+                        std::vector<uchar>& status) {
+    // 引导匹配的候选已被先验位置约束, 误匹配很少: 对全部匹配做最小二乘拟合, 再检验与之一致的比例
+    cv::Mat H_fit = cv::findHomography(pts2, pts1, 0);
+    if (H_fit.empty()) return false;
+
+    std::vector<cv::Point2f> projected;
+    cv::perspectiveTransform(pts2, projected, H_fit);
+    status.assign(pts2.size(), 0);
+    std::vector<cv::Point2f> in1, in2;
+    for (size_t i = 0; i < pts2.size(); ++i) {
+        const cv::Point2f d = projected[i] - pts1[i];
+        if (d.x * d.x + d.y * d.y < Constants::PRIOR_VERIFY_THRESHOLD * Constants::PRIOR_VERIFY_THRESHOLD) {
+            status[i] = 1;
+            in1.push_back(pts1[i]);
+            in2.push_back(pts2[i]);
+        }
+    }
+    if ((double)in1.size() < Constants::PRIOR_VERIFY_INLIER_RATIO * (double)pts1.size() || in1.size() < 8) {
+        LOGI("先验模型验证失败 (一致 %zu / %zu), 执行完整的鲁棒估计", in1.size(), pts1.size());
+        return false;
+    }
+
+    // 在一致的匹配上重新拟合
+    H = cv::findHomography(in2, in1, 0);
+    if (H.empty()) return false;
+    LOGI("先验模型验证通过 (一致 %zu / %zu), 跳过鲁棒估计", in1.size(), pts1.size());
+    return true;
+}
+
+bool APAP::EstimatePair(const std::vector<cv::Point2f>& pts1,
+                        const std::vector<cv::Point2f>& pts2,
+                        PairEstimate& pair,
+                        bool guided) const {
+    if (pts1.size() < 8 || pts2.size() < 8) {
+        LOGE("APAP::Stitching - 匹配点数量不足，无法进行拼接");
+        return false;
+    }
+
+    std::vector<uchar> status;
+    if (!guided || !VerifyGuided(pts1, pts2, pair.H, status)) {
+        pair.H = EstimateHomography(pts2, pts1, options.estimator, status);
+    }
+    if (pair.H.empty()) {
+        LOGE("APAP::Stitching - 全局单应性估计失败");
+        return false;
+    }
+
+    // 筛选内点用于 APAP
+    pair.pts1.clear();
+    pair.pts2.clear();
+    for (size_t j = 0; j < status.size(); j++) {
+        if (status[j]) {
+            pair.pts1.push_back(pts1[j]);
+            pair.pts2.push_back(pts2[j]);
+        }
+    }
+
+    pair.inliers = (int)pair.pts1.size();
+
+    // 全局单应性已经足够解释内点 (远景 / 纯旋转) 时无需局部细化
+    double residual = ReprojectionRMS(pair.H, pair.pts2, pair.pts1);
+    pair.use_global = options.global_residual_threshold > 0 && residual < options.global_residual_threshold;
+    LOGI("全局单应性内点 RMS 误差 %.3f px, 使用%s", residual, pair.use_global ? "全局 warpPerspective" : "APAP 局部单应性");
+
+    // 内点过多时做空间均衡采样, 控制局部单应性的计算量
+    if (options.max_inliers > 0 && (int)pair.pts1.size() > options.max_inliers) {
+        std::vector<int> kept = PointGrid::BalancedSubsample(pair.pts1, options.max_inliers);
+        std::vector<cv::Point2f> sub_pts1, sub_pts2;
+        sub_pts1.reserve(kept.size());
+        sub_pts2.reserve(kept.size());
+        for (int idx : kept) {
+            sub_pts1.push_back(pair.pts1[idx]);
+            sub_pts2.push_back(pair.pts2[idx]);
+        }
+        LOGI("内点数量 %zu 超过上限, 空间均衡采样至 %zu", pair.pts1.size(), sub_pts1.size());
+        pair.pts1.swap(sub_pts1);
+        pair.pts2.swap(sub_pts2);
+    }
+    return true;
+}
+
+std::vector<cv::Mat> APAP::EstimateCoarsePriors() const {
+    const double scale = Constants::PYRAMID_COARSE_SCALE;
+    std::vector<cv::Mat> small(images.size()), masks;
+    for (size_t i = 0; i < images.size(); ++i) {
+        cv::resize(images[i], small[i], cv::Size(), scale, scale, cv::INTER_AREA);
+        if (options.projection != Projection::PLANAR) masks.push_back(Projection::ValidMask(small[i]));
+    }
+    FeatureTable features = MakeExtractor().Extract(small, masks);
+    FeatureMatcher matcher = MakeMatcher();
+
+    std::vector<cv::Mat> priors(images.size() - 1);
+    cv::parallel_for_(cv::Range(1, (int)images.size()), [&](const cv::Range& range) {
+        for (int i = range.start; i < range.end; ++i) {
+            // 与工作分辨率的全局单应性使用同一种鲁棒估计方式
+            std::vector<cv::Point2f> pts1, pts2;
+            std::vector<uchar> status;
+            if (matcher.CoarseMatches(features[i - 1], features[i], scale, pts1, pts2)) {
+                priors[i - 1] = EstimateHomography(pts1, pts2, options.estimator, status,
+                                                   Constants::PYRAMID_RANSAC_THRESHOLD);
+            }
+            if (priors[i - 1].empty()) LOGI("图像 %d - %d 粗略层匹配失败", i - 1, i);
+        }
+    });
+    return priors;
+}
+
+std::vector<APAP::PairEstimate> APAP::EstimateChainedPairs(const FeatureTable& features,
+                                                           const std::vector<cv::Mat>& priors,
+                                                           const std::vector<int>& margins) const {
+    FeatureMatcher matcher = MakeMatcher();
+
+    // 各相邻对互不依赖, 并行匹配与估计
+    std::vector<PairEstimate> pairs(images.size() - 1);
+    std::atomic<bool> failed(false);
+    cv::parallel_for_(cv::Range(1, (int)images.size()), [&](const cv::Range& range) {
+        for (int i = range.start; i < range.end; ++i) {
+            std::vector<cv::Point2f> pts1, pts2;
+            const bool guided = !priors.empty() && !priors[i - 1].empty();
+            if (guided) {
+                matcher.MatchGuided(features[i - 1], features[i], priors[i - 1], (float)margins[i - 1], pts1, pts2);
+            } else {
+                matcher.MatchFeatures(features[i - 1], features[i], pts1, pts2);
+            }
+            LOGI("图像 %d - %d 匹配点数量: %zu", i - 1, i, pts1.size());
+            if (!EstimatePair(pts1, pts2, pairs[i - 1], guided)) failed = true;
+        }
+    });
+
+    if (failed) return {};
+    return pairs;
+}
+
+cv::Mat APAP::StitchSinglePass(const std::vector<int>& order,
+                               const std::vector<int>& anchors,
+                               std::vector<PairEstimate>& pairs,
+                               const std::vector<cv::Mat>& render_images,
+                               const std::vector<double>& render_scales,
+                               bool two_resolution,
+                               bool enable_linear_blending) const {
+    const int n = (int)images.size();
+    const int ref = order[0];
+
+    // 1. 串联相邻对, 得到每张图片 -> 参考坐标系的全局单应性
+    std::vector<Eigen::Matrix3d> to_reference(n, Eigen::Matrix3d::Identity());
+    std::vector<PairEstimate> oriented(n); // oriented[i]: images[i] -> images[anchor]
+    for (int k = 1; k < n; ++k) {
+        const int i = order[k];
+        const int anchor = anchors[k];
+        if (anchor < i) {
+            oriented[i] = std::move(pairs[anchor]);
+        } else {
+            // 参考图片左侧: 相邻对 (i, anchor) 反向使用
+            oriented[i] = std::move(pairs[i]);
+            oriented[i].H = oriented[i].H.inv();
+            std::swap(oriented[i].pts1, oriented[i].pts2);
+        }
+        to_reference[i] = to_reference[anchor] * ToEigen(oriented[i].H);
+    }
+
+    // 2. 一次性计算最终画布边界
+    std::vector<std::vector<cv::Point2f>> projected(n);
+    double min_x = 0, min_y = 0;
+    double max_x = images[ref].cols, max_y = images[ref].rows;
+    for (int i = 0; i < n; ++i) {
+        std::vector<cv::Point2f> corners = {
+                cv::Point2f(0, 0), cv::Point2f((float)images[i].cols, 0),
+                cv::Point2f((float)images[i].cols, (float)images[i].rows), cv::Point2f(0, (float)images[i].rows)};
+        cv::perspectiveTransform(corners, projected[i], ToCv(to_reference[i]));
+        for (const auto& p : projected[i]) {
+            min_x = std::min(min_x, (double)p.x);
+            min_y = std::min(min_y, (double)p.y);
+            max_x = std::max(max_x, (double)p.x);
+            max_y = std::max(max_y, (double)p.y);
+        }
+    }
+    cv::Point2f offset((float)-min_x, (float)-min_y);
+    cv::Size canvas_size(cvRound(max_x - min_x), cvRound(max_y - min_y));
+    const cv::Rect canvas_rect(0, 0, canvas_size.width, canvas_size.height);
+    LOGI("单次合成: %d 张图片, 画布 %d x %d", n, canvas_size.width, canvas_size.height);
+
+    // 3. 各图片的覆盖范围与局部单应性
+    std::vector<cv::Rect> footprints(n);
+    std::vector<MeshWarp> warps(n);
+    for (int k = 0; k < n; ++k) {
+        const int i = order[k];
+        cv::Rect2f quad_box = cv::boundingRect(projected[i]);
+        cv::Rect expanded((int)std::floor(quad_box.x + offset.x) - Constants::FOOTPRINT_MARGIN,
+                          (int)std::floor(quad_box.y + offset.y) - Constants::FOOTPRINT_MARGIN,
+                          (int)std::ceil(quad_box.width) + 2 * Constants::FOOTPRINT_MARGIN,
+                          (int)std::ceil(quad_box.height) + 2 * Constants::FOOTPRINT_MARGIN);
+        footprints[i] = expanded & canvas_rect;
+
+        if (k == 0 || oriented[i].use_global) {
+            warps[i] = GlobalWarp(ToCv(to_reference[i]));
+        } else {
+            // 画布 img1 坐标系即参考坐标系, 局部单应性在相邻图片坐标系中求解
+            warps[i] = SolveWarp(oriented[i].pts1, oriented[i].pts2, canvas_size, offset, footprints[i],
+                                 to_reference[anchors[k]].inverse());
+        }
+    }
+
+    // 4. 两级分辨率: 直接在渲染分辨率下合成
+    const std::vector<cv::Mat>* sources = &images;
+    auto feather = (float)Constants::BLEND_FEATHER_RADIUS;
+    if (two_resolution) {
+        const double canvas_scale = render_scales[ref];
+        const double inv = 1.0 / canvas_scale;
+        canvas_size = cv::Size(cvRound(canvas_size.width * inv), cvRound(canvas_size.height * inv));
+        offset *= (float)inv;
+        for (int i = 0; i < n; ++i) {
+            int x0 = (int)std::floor(footprints[i].x * inv);
+            int y0 = (int)std::floor(footprints[i].y * inv);
+            footprints[i] = cv::Rect(x0, y0,
+                                     (int)std::ceil((footprints[i].x + footprints[i].width) * inv) - x0,
+                                     (int)std::ceil((footprints[i].y + footprints[i].height) * inv) - y0) &
+                            cv::Rect(0, 0, canvas_size.width, canvas_size.height);
+            warps[i] = Rescale(warps[i], canvas_scale, render_scales[i]);
+        }
+        sources = &render_images;
+        feather = (float)(feather * inv);
+    }
+
+    // 合成前检查内存预算: 超出时先改为分块合成, 仍超出则抛出 MemoryBudget::Exceeded 由外层降级重试
+    int tile_size = options.tile_size;
+    if (tile_size <= 0 && !MemoryBudget::Fits(MemoryBudget::SinglePassBytes(canvas_size, tile_size, enable_linear_blending))) {
+        tile_size = Constants::COMPOSITE_TILE_SIZE;
+        LOGI("APAP::Stitching - 整块合成超出内存预算, 改为分块合成");
+    }
+    MemoryBudget::Require(MemoryBudget::SinglePassBytes(canvas_size, tile_size, enable_linear_blending), "APAP 单次合成");
+
+    // 5. 所有图片一次性渲染并融合到同一画布
+    return CompositeSinglePass(*sources, warps, footprints, canvas_size, offset,
+                               enable_linear_blending, tile_size, feather, options.fast_maps);
+}
+
+int APAP::SelectReference(const FeatureTable& features, const std::vector<PairEstimate>& pairs) const {
+    const int n = (int)images.size();
+    if (options.reference == REFERENCE_FIRST) return 0;
+
+    const int center = (n - 1) / 2;
+    if (options.reference == REFERENCE_CENTER) return center;
+
+    // 相邻对的重叠程度: 链式模式下为 RANSAC 内点数, 否则为比率测试后的匹配数
+    std::vector<int> overlap(n - 1, 0);
+    if (!pairs.empty()) {
+        for (int k = 0; k < n - 1; ++k) overlap[k] = pairs[k].inliers;
+    } else {
+        FeatureMatcher matcher = MakeMatcher();
+        cv::parallel_for_(cv::Range(0, n - 1), [&](const cv::Range& range) {
+            std::vector<cv::Point2f> pts1, pts2;
+            for (int k = range.start; k < range.end; ++k) {
+                matcher.MatchFeatures(features[k], features[k + 1], pts1, pts2);
+                overlap[k] = (int)pts1.size();
+            }
+        });
+    }
+
+    // 与两侧相邻图片的重叠之和最大者, 相同时取更靠近中间的
+    int best = center;
+    int best_score = -1;
+    for (int j = 0; j < n; ++j) {
+        int score = (j > 0 ? overlap[j - 1] : 0) + (j < n - 1 ? overlap[j] : 0);
+        if (score > best_score || (score == best_score && std::abs(j - center) < std::abs(best - center))) {
+            best = j;
+            best_score = score;
+        }
+    }
+    return best;
+}
+
 bool APAP::Load_image(std::vector<cv::Mat> &&_images) {
     if (_images.empty() || _images.size() < 2) {
         LOGE("APAP::load_image - 输入图像数量不足");
@@ -239,6 +1560,25 @@ bool APAP::Load_image(std::vector<cv::Mat> &&_images) {
     return true;
 }
 
+FeatureMatcher APAP::MakeMatcher() const {
+    return FeatureMatcher(options.features, options.matcher, options.flann_checks, options.keypoint_budget);
+}
+
+FeatureMatcher::DescriptorCompressor APAP::MakeCompressor() const {
+    if (options.descriptors == FeatureMatcher::DESCRIPTOR_UINT8 && options.matcher != FeatureMatcher::MATCHER_BRUTE_FORCE) {
+        // FLANN 只支持 float 描述子, 量化后每次搜索都要转换回 float, 只省内存不省时间
+        LOGI("uint8 描述子只用于暴力匹配, 当前匹配方式保持 float 描述子");
+        return FeatureMatcher::DescriptorCompressor(FeatureMatcher::DESCRIPTOR_FLOAT);
+    }
+    return FeatureMatcher::DescriptorCompressor(options.descriptors);
+}
+
+FeatureExtractor APAP::MakeExtractor() const {
+    const FeatureMatcher::FeatureBackend feature = options.features;
+    const int budget = options.keypoint_budget;
+    return FeatureExtractor([feature, budget]() { return FeatureMatcher::CreateDetector(feature, budget); });
+}
+
 cv::Mat APAP::Stitching(bool enable_linear_blending) {
     if (images.size() < 2) {
         LOGE("APAP::Stitching - 图像数量不足");
@@ -248,40 +1588,272 @@ cv::Mat APAP::Stitching(bool enable_linear_blending) {
     LOGI("APAP::Stitching - 开始拼接 %zu 张图像", images.size());
     LOGI("是否启用线性融合: %s", enable_linear_blending ? "是" : "否");
 
+    // 输入先缩小到所需的最大分辨率, 之后每次 (降级) 尝试都从这里重新缩放
+    int work_max_size = Constants::IMAGE_MAX_SIZE;
+    int render_max_size = options.render_max_size > work_max_size ? options.render_max_size : 0;
+    for (auto& img : images) {
+        Utils::ResizeImageIfTooLarge(img, std::max(work_max_size, render_max_size));
+    }
+
+    // 焦距估计成功后在降级重试之间复用; 平面模式下焦距只用于方向先验, 不值得为此额外匹配一遍
+    focal_ratio = options.focal_ratio;
+    if (options.projection == Projection::PLANAR && focal_ratio <= 0) {
+        focal_ratio = Constants::DEFAULT_FOCAL_RATIO;
+    }
+    const std::vector<cv::Mat> inputs = images;
+
+    for (int attempt = 0; attempt <= Constants::MEMORY_MAX_RETRIES; ++attempt) {
+        images = inputs;
+        try {
+            // 焦距估计与投影预变换同样可能内存不足, 放在重试范围内, 降级后按新的分辨率上限重做
+            for (auto& img : images) {
+                Utils::ResizeImageIfTooLarge(img, std::max(work_max_size, render_max_size));
+            }
+            ProjectInputs(work_max_size);
+            return StitchOnce(enable_linear_blending, work_max_size, render_max_size);
+        } catch (const std::bad_alloc& e) {
+            LOGE("APAP::Stitching - 内存不足 (%s), 工作分辨率 %d, 渲染分辨率 %d",
+                 e.what(), work_max_size, render_max_size);
+        } catch (const cv::Exception& e) {
+            // 其他 OpenCV 异常是真正的错误, 降低分辨率重试只会掩盖它
+            if (!MemoryBudget::IsOutOfMemory(e)) {
+                LOGE("APAP::Stitching - OpenCV 异常 (%s)", e.what());
+                images = inputs;
+                return {};
+            }
+            LOGE("APAP::Stitching - OpenCV 内存不足 (%s), 工作分辨率 %d, 渲染分辨率 %d",
+                 e.what(), work_max_size, render_max_size);
+        }
+
+        // 降级: 先降低渲染分辨率 (直至直接输出工作分辨率的结果), 再降低工作分辨率
+        if (render_max_size > 0) {
+            render_max_size /= 2;
+            if (render_max_size <= work_max_size) render_max_size = 0;
+        } else {
+            work_max_size /= 2;
+        }
+    }
+
+    LOGE("APAP::Stitching - 降级重试 %d 次后仍然失败", Constants::MEMORY_MAX_RETRIES);
+    images = inputs;
+    return {};
+}
+
+void APAP::ProjectInputs(int work_max_size) {
+    if (options.projection == Projection::PLANAR) return;
+    if (focal_ratio <= 0) {
+        // 未提供相机焦距: 在工作分辨率下匹配相邻图片, 由平面单应性估计
+        std::vector<cv::Mat> small = images;
+        for (auto& img : small) Utils::ResizeImageIfTooLarge(img, work_max_size);
+        focal_ratio = Projection::EstimateFocalRatio(small, MakeExtractor().Extract(small), MakeMatcher());
+    }
+    for (auto& img : images) {
+        img = Projection::Warp(img, focal_ratio * std::max(img.cols, img.rows), options.projection);
+    }
+    LOGI("投影预变换: %s, 焦距比 %.3f, 投影后尺寸 %d x %d",
+         options.projection == Projection::SPHERICAL ? "球面" : "圆柱面",
+         focal_ratio, images[0].cols, images[0].rows);
+}
+
+cv::Mat APAP::StitchOnce(bool enable_linear_blending, int work_max_size, int render_max_size) {
     // 1. 调整图片大小
+    // 匹配与局部单应性估计在较小的工作分辨率下进行; 开启两级分辨率时保留较大的渲染图用于最终合成
+    std::vector<cv::Mat> render_images;
+    std::vector<double> render_scales; // 工作分辨率 / 渲染分辨率
+    bool two_resolution = false;
     for (auto &img : images) {
-        Utils::ResizeImageIfTooLarge(img, Constants::IMAGE_MAX_SIZE);
+        if (render_max_size > 0) {
+            cv::Mat render = img;
+            Utils::ResizeImageIfTooLarge(render, render_max_size);
+            render_images.push_back(render);
+        }
+        Utils::ResizeImageIfTooLarge(img, work_max_size);
+        if (render_max_size > 0) {
+            render_scales.push_back((double)img.cols / render_images.back().cols);
+            if (render_images.back().cols != img.cols) two_resolution = true;
+        }
     }
 
-    cv::Mat canvas = images[0].clone();
-
-    for (size_t i = 1; i < images.size(); ++i) {
-        cv::Mat img1 = canvas;
-        cv::Mat img2 = images[i];
+    // 所有输入图片的特征只提取一次, 并行完成
+    // 投影后的图片只在有效区域内检测特征
+    std::vector<cv::Mat> valid_masks;
+    if (options.projection != Projection::PLANAR) {
+        for (const auto& img : images) valid_masks.push_back(Projection::ValidMask(img));
+    }
 
-        // 2. 特征匹配
-        std::vector<cv::Point2f> pts1, pts2;
-        FeatureMatcher matcher;
+    // 相邻对的先验单应性: 金字塔匹配的粗略单应性优先, 其次为拍摄时的设备方向
+    // 特征只在与相邻图片的预测重叠区域内检测, 并按预测位置引导匹配 (逐张模式中先验串联到当前画布);
+    // 任一相邻对无法预测时仍在整张图片上检测
+    std::vector<cv::Size> sizes;
+    for (const auto& img : images) sizes.push_back(img.size());
+    std::vector<cv::Mat> priors;
+    std::vector<int> margins;
+    std::vector<cv::Mat> overlaps;
+    if (options.pyramid_matching) {
+        priors = EstimateCoarsePriors();
+        margins.assign(priors.size(), Constants::PYRAMID_OVERLAP_MARGIN);
+        overlaps = FeatureMatcher::NeighbourOverlapMasks(sizes, priors, margins);
+        if (!overlaps.empty()) LOGI("金字塔匹配: 特征检测限制在预测的重叠区域内");
+    }
+    if (overlaps.empty() && !orientations.empty()) {
+        std::vector<int> pose_margins;
+        std::vector<cv::Mat> pose_priors = PosePrior::PredictNeighbours(sizes, orientations, focal_ratio,
+                                                                        options.projection, pose_margins);
+        if (!pose_priors.empty()) {
+            priors.swap(pose_priors);
+            margins.swap(pose_margins);
+            overlaps = FeatureMatcher::NeighbourOverlapMasks(sizes, priors, margins);
+            LOGI("方向先验: 特征检测限制在预测的重叠区域内");
+        }
+    }
+    // 预测有误 (传感器误差或粗略层误匹配超出外扩量) 时重叠区域内的特征不足, 配准失败后在整张图片上重新检测一次
+    const bool restricted = !overlaps.empty();
+    std::vector<cv::Mat> masks = valid_masks;
+    for (size_t i = 0; i < overlaps.size(); ++i) {
+        if (masks.size() > i) {
+            // 输出到新的矩阵: masks[i] 与 valid_masks[i] 共享数据, 原地按位与会改写重新检测使用的掩码
+            masks[i] = cv::Mat();
+            cv::bitwise_and(valid_masks[i], overlaps[i], masks[i]);
+        } else {
+            masks.push_back(overlaps[i]);
+        }
+    }
+    FeatureTable features = MakeExtractor().Extract(images, masks);
+    FeatureMatcher::DescriptorCompressor compressor = MakeCompressor();
+    compressor.Fit(features);
+
+    // 链式模式: 先并行估计所有相邻对
+    std::vector<PairEstimate> chained_pairs;
+    if (options.chained) {
+        chained_pairs = EstimateChainedPairs(features, priors, margins);
+        const bool weak = std::any_of(chained_pairs.begin(), chained_pairs.end(), [](const PairEstimate& pair) {
+            return pair.inliers < Constants::PRIOR_MIN_INLIERS;
+        });
+        if ((chained_pairs.empty() || weak) && restricted) {
+            // 先验本身不可信, 重新检测后也不再引导匹配
+            LOGI("预测重叠区域内配准失败, 在整张图片上重新检测特征");
+            features = MakeExtractor().Extract(images, valid_masks);
+            compressor = MakeCompressor();
+            compressor.Fit(features);
+            priors.clear();
+            margins.clear();
+            chained_pairs = EstimateChainedPairs(features, priors, margins);
+        }
+        if (chained_pairs.empty()) return {};
+    }
 
-        matcher.Run(img1, img2, pts1, pts2);
-        LOGI("匹配点数量: %zu", pts1.size());
-        if (pts1.size() < 8 || pts2.size() < 8) {
-            LOGE("APAP::Stitching - 匹配点数量不足，无法进行拼接");
-            return {};
+    // 选择参考图片, 从参考图片开始向右、向左交替拼接; anchors[k] 为 order[k] 在链式模式中的相邻图片
+    const int n = (int)images.size();
+    const int ref = SelectReference(features, chained_pairs);
+    std::vector<int> order = {ref};
+    std::vector<int> anchors = {ref};
+    for (int d = 1; (int)order.size() < n; ++d) {
+        if (ref + d < n) {
+            order.push_back(ref + d);
+            anchors.push_back(ref + d - 1);
+        }
+        if (ref - d >= 0) {
+            order.push_back(ref - d);
+            anchors.push_back(ref - d + 1);
         }
+    }
+    LOGI("参考图片: %d / %d", ref, n);
+
+    if (options.chained && options.single_pass) {
+        return StitchSinglePass(order, anchors, chained_pairs, render_images, render_scales,
+                                two_resolution, enable_linear_blending);
+    }
+
+    if (two_resolution) {
+        LOGI("两级分辨率: 工作分辨率 %d x %d, 渲染分辨率 %d x %d",
+             images[ref].cols, images[ref].rows, render_images[ref].cols, render_images[ref].rows);
+    }
 
-        // 3. 计算全局单应性 (RANSAC) 用于确定画布大小
-        std::vector<uchar> status;
-        cv::Mat H_global = cv::findHomography(pts2, pts1, cv::RANSAC, Constants::RANSAC_THRESHOLD, status);
+    cv::Mat canvas = images[ref].clone();
+    // 渲染画布与工作画布在同一坐标系下, 比例固定为参考图片的缩放比例
+    cv::Mat render_canvas;
+    double canvas_scale = 1.0;
+    if (two_resolution) {
+        render_canvas = render_images[ref].clone();
+        canvas_scale = render_scales[ref];
+    }
+
+    // 参考坐标系 (images[ref]) 在当前画布中的位置, 以及每张已放置图片 -> 参考坐标系的全局单应性
+    cv::Point2f origin(0.0f, 0.0f);
+    // 参考坐标系在渲染画布中的位置, 始终由累计的 origin 换算取整, 每步的取整误差不会累积
+    cv::Point render_origin(0, 0);
+    std::vector<Eigen::Matrix3d> to_reference(n, Eigen::Matrix3d::Identity());
+
+    for (int k = 1; k < n; ++k) {
+        const int i = order[k];
+        const int anchor = anchors[k];
+        cv::Mat img1 = canvas;
+        cv::Mat img2 = images[i];
 
-        // 筛选内点用于 APAP
-        std::vector<cv::Point2f> final_pts1, final_pts2;
-        for (size_t j = 0; j < status.size(); j++) {
-            if (status[j]) {
-                final_pts1.push_back(pts1[j]);
-                final_pts2.push_back(pts2[j]);
+        // 2. 特征匹配, 3. 计算全局单应性 (RANSAC) 用于确定画布大小
+        PairEstimate pair;
+        // 当前画布 (img1 坐标系) -> final_pts1 坐标系
+        Eigen::Matrix3d frame = Eigen::Matrix3d::Identity();
+        cv::Mat H_global; // img2 -> 当前画布
+        if (options.chained) {
+            // 链式模式: 与相邻图片的配准结果串联到参考坐标系, 再平移到当前画布
+            if (anchor < i) {
+                pair = std::move(chained_pairs[anchor]);
+            } else {
+                // 参考图片左侧: 相邻对 (i, anchor) 反向使用
+                pair = std::move(chained_pairs[i]);
+                pair.H = pair.H.inv();
+                std::swap(pair.pts1, pair.pts2);
+            }
+            Eigen::Matrix3d T_origin = Eigen::Matrix3d::Identity();
+            T_origin(0, 2) = origin.x;
+            T_origin(1, 2) = origin.y;
+            frame = (T_origin * to_reference[anchor]).inverse();
+            to_reference[i] = to_reference[anchor] * ToEigen(pair.H);
+            H_global = ToCv(T_origin * to_reference[i]);
+        } else {
+            // 新图片的特征取自特征表, 只需在当前画布上检测
+            std::vector<cv::Point2f> pts1, pts2;
+            FeatureMatcher matcher = MakeMatcher();
+
+            FeatureMatcher::Features canvas_features = matcher.Detect(img1);
+            compressor.Apply(canvas_features);
+
+            // 相邻对的先验 (anchor -> 新图片) 与当前画布 -> anchor 串联, 按预测位置引导匹配
+            // priors[p] 为 images[p] -> images[p + 1], 参考图片左侧的相邻对反向使用
+            Eigen::Matrix3d T_origin = Eigen::Matrix3d::Identity();
+            T_origin(0, 2) = origin.x;
+            T_origin(1, 2) = origin.y;
+            const int p = std::min(i, anchor);
+            const bool guided = !priors.empty() && !priors[p].empty();
+            if (guided) {
+                Eigen::Matrix3d anchor_to_new = ToEigen(priors[p]);
+                if (anchor > i) anchor_to_new = anchor_to_new.inverse();
+                cv::Mat prior = ToCv(anchor_to_new * (T_origin * to_reference[anchor]).inverse());
+                matcher.MatchGuided(canvas_features, features[i], prior, (float)margins[p], pts1, pts2);
+            } else {
+                matcher.MatchFeatures(canvas_features, features[i], pts1, pts2);
+            }
+            LOGI("匹配点数量: %zu", pts1.size());
+            bool estimated = EstimatePair(pts1, pts2, pair, guided);
+            if ((!estimated || pair.inliers < Constants::PRIOR_MIN_INLIERS) && (restricted || guided)) {
+                // 先验有误: 画布总是整张检测, 只需在整张新图片上重新检测, 并改为完整匹配
+                LOGI("图像 %d 按先验配准失败, 在整张图片上重新检测并完整匹配", i);
+                if (restricted) {
+                    features[i] = matcher.Detect(img2, valid_masks.empty() ? cv::Mat() : valid_masks[i]);
+                    compressor.Apply(features[i]);
+                }
+                matcher.MatchFeatures(canvas_features, features[i], pts1, pts2);
+                LOGI("匹配点数量: %zu", pts1.size());
+                estimated = EstimatePair(pts1, pts2, pair);
             }
+            if (!estimated) return {};
+            H_global = pair.H;
+            to_reference[i] = T_origin.inverse() * ToEigen(pair.H);
         }
+        const std::vector<cv::Point2f>& final_pts1 = pair.pts1;
+        const std::vector<cv::Point2f>& final_pts2 = pair.pts2;
+        bool use_global = pair.use_global;
 
         // 4. 计算新画布的边界 (Bounding Box)
         // new_img 的四个角变换到 canvas 坐标系
@@ -314,52 +1886,92 @@ cv::Mat APAP::Stitching(bool enable_linear_blending) {
         int new_w = cvRound(max_x - min_x);
         int new_h = cvRound(max_y - min_y);
 
-        // 限制一下最大尺寸，防止内存爆炸
-//        if (new_w * new_h > 5000 * 5000) {
-//            LOGE("APAP::Stitching - 计算出的画布尺寸过大");
-//            return {};
-//        }
+        cv::Size canvas_size(new_w, new_h);
+
+        // 新图片在画布上的覆盖范围: 全局单应性投影四边形的包围盒 (外扩余量以容纳局部形变)
+        // 覆盖范围之外 warp 结果必然为黑色, 无需求解单应性和重映射
+        cv::Rect footprint(0, 0, new_w, new_h);
+        if (options.footprint_only) {
+            cv::Rect2f quad_box = cv::boundingRect(proj_corners);
+            cv::Rect expanded((int)std::floor(quad_box.x + offset.x) - Constants::FOOTPRINT_MARGIN,
+                              (int)std::floor(quad_box.y + offset.y) - Constants::FOOTPRINT_MARGIN,
+                              (int)std::ceil(quad_box.width) + 2 * Constants::FOOTPRINT_MARGIN,
+                              (int)std::ceil(quad_box.height) + 2 * Constants::FOOTPRINT_MARGIN);
+            footprint &= expanded;
+            if (footprint.empty()) footprint = cv::Rect(0, 0, new_w, new_h);
+            LOGD("新图片覆盖范围: (%d, %d) %d x %d, 画布 %d x %d",
+                 footprint.x, footprint.y, footprint.width, footprint.height, new_w, new_h);
+        }
 
         // 5. APAP 计算
-        // 生成覆盖整个新画布的网格
-        int mesh_cols = Constants::MESH_SIZE;
-        int mesh_rows = Constants::MESH_SIZE;
-        std::vector<cv::Point2f> mesh_vertices = Utils::GetMeshVertices(new_w, new_h, mesh_cols, mesh_rows, offset.x, offset.y);
-
-        std::vector<Eigen::Matrix3d> local_Hs = LocalHomography(
-                final_pts1, final_pts2,
-                mesh_vertices,
-                mesh_cols, mesh_rows);
-
-        // 6. APAP Warp (新图片)
-        // 将 new_img 变形并放置到新画布大小中 (考虑 offset)
-        cv::Mat warped_new = LocalWarp(img2, local_Hs, mesh_cols, mesh_rows, cv::Size(new_w, new_h), offset);
-
-        // 7. 放置旧 Canvas
-        // 创建最终的大画布
-        cv::Mat final_canvas = cv::Mat::zeros(new_h, new_w, CV_8UC3);
-
-        // 将 base_canvas 拷贝到 final_canvas 的对应位置 (应用 offset)
-        cv::Mat roi = final_canvas(cv::Rect(cvRound(offset.x), cvRound(offset.y), img1.cols, img1.rows));
-        img1.copyTo(roi);
-
-        // 8. 融合 (Blending)
-        if (enable_linear_blending) {
-            // 线性加权融合
-            canvas = Utils::BlendImages(final_canvas, warped_new);
-            continue;
-        }
-        // 简单的最大值融合
-        // 实际项目中应使用 Multi-band Blending 或 Seam Carving
-        cv::Mat mask_new;
-        // 生成 warped_new 的掩码 (非黑区域)
-        cv::cvtColor(warped_new, mask_new, cv::COLOR_BGR2GRAY);
-        cv::threshold(mask_new, mask_new, 1, 255, cv::THRESH_BINARY);
-
-        // 将 warped_new 拷贝到 final_canvas (覆盖模式，或加权模式)
-        // 这里使用简单的加权：重叠区域取平均，非重叠区域直接拷贝
-        cv::max(final_canvas, warped_new, canvas);
+        MeshWarp warp = use_global ? GlobalWarp(H_global)
+                                   : SolveWarp(final_pts1, final_pts2, canvas_size, offset, footprint, frame);
+
+        // 旧画布按取整后的 offset 放置
+        cv::Point base_pos(cvRound(offset.x), cvRound(offset.y));
+
+        // 两级分辨率: 渲染画布上对应的位置、尺寸与覆盖范围
+        // 渲染画布坐标 = 工作画布坐标 * inv + residual, residual 为参考坐标系位置取整的残差 (不超过 0.5 像素)
+        cv::Point render_pos;
+        cv::Size render_size;
+        cv::Rect render_footprint;
+        cv::Point2f render_offset;
+        cv::Point next_render_origin;
+        double inv = 1.0 / canvas_scale;
+        if (two_resolution) {
+            cv::Point2f next_origin = origin + cv::Point2f((float)base_pos.x, (float)base_pos.y);
+            next_render_origin = cv::Point(cvRound(next_origin.x * inv), cvRound(next_origin.y * inv));
+            cv::Point2f residual((float)(next_render_origin.x - next_origin.x * inv),
+                                 (float)(next_render_origin.y - next_origin.y * inv));
+            render_pos = next_render_origin - render_origin;
+            render_offset = offset * (float)inv + residual;
+            render_size = cv::Size(cvRound(new_w * inv), cvRound(new_h * inv));
+            int x0 = (int)std::floor(footprint.x * inv + residual.x);
+            int y0 = (int)std::floor(footprint.y * inv + residual.y);
+            render_footprint = cv::Rect(x0, y0,
+                                        (int)std::ceil((footprint.x + footprint.width) * inv + residual.x) - x0,
+                                        (int)std::ceil((footprint.y + footprint.height) * inv + residual.y) - y0) &
+                               cv::Rect(0, 0, render_size.width, render_size.height);
+        }
+
+        // 合成前检查内存预算: 超出时先改为分块合成, 仍超出则抛出 MemoryBudget::Exceeded 由外层降级重试
+        int tile_size = options.tile_size;
+        auto composite_bytes = [&](int tile) {
+            size_t work = MemoryBudget::CompositeBytes(canvas_size, img1.size(), footprint.size(),
+                                                       tile, enable_linear_blending);
+            if (!two_resolution) return work;
+            size_t render = MemoryBudget::CompositeBytes(render_size, render_canvas.size(), render_footprint.size(),
+                                                         tile, enable_linear_blending);
+            return std::max(work + MemoryBudget::ImageBytes(render_canvas.size()),
+                            render + MemoryBudget::ImageBytes(canvas_size) + MemoryBudget::ImageBytes(img1.size()));
+        };
+        if (tile_size <= 0 && !MemoryBudget::Fits(composite_bytes(tile_size))) {
+            tile_size = Constants::COMPOSITE_TILE_SIZE;
+            LOGI("APAP::Stitching - 整块合成超出内存预算, 改为分块合成");
+        }
+        MemoryBudget::Require(composite_bytes(tile_size), "APAP 合成");
+
+        // 6. APAP Warp (新图片), 7. 放置旧 Canvas, 8. 融合
+        // 将 new_img 变形到覆盖范围对应的画布区域 (考虑 offset), 按块与旧画布融合
+        cv::Mat final_canvas = Composite(img1, base_pos, img2, warp, canvas_size, offset, footprint,
+                                         enable_linear_blending, tile_size,
+                                         (float)Constants::BLEND_FEATHER_RADIUS, options.fast_maps);
+
+        // 两级分辨率: 将单应性换算到渲染分辨率, 用较大的原图重复 warp 与合成
+        if (two_resolution) {
+            MeshWarp render_warp = Rescale(warp, canvas_scale, render_scales[i]);
+            render_canvas = Composite(render_canvas, render_pos, render_images[i], render_warp,
+                                      render_size, render_offset, render_footprint,
+                                      enable_linear_blending, tile_size,
+                                      (float)(Constants::BLEND_FEATHER_RADIUS * inv), options.fast_maps);
+        }
+
+        canvas = final_canvas;
+        // 旧画布按取整后的 offset 放置, 参考坐标系随之平移
+        origin += cv::Point2f((float)base_pos.x, (float)base_pos.y);
+        render_origin = next_render_origin;
     }
 
+    if (two_resolution) return render_canvas;
     return canvas;
 }
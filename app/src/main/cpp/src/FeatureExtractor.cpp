@@ -0,0 +1,110 @@
+//
+// Created by 31830 on 2026/10/17.
+//
+
+#include "FeatureExtractor.h"
+#include "Logger.h"
+#include <algorithm>
+#include <atomic>
+#include <thread>
+
+FeatureExtractor::FeatureExtractor(DetectorFactory factory, int max_workers)
+        : factory(std::move(factory)), max_workers(std::max(1, max_workers)) {}
+
+FeatureTable FeatureExtractor::Extract(const std::vector<cv::Mat>& images,
+                                       const std::vector<cv::Mat>& masks) const {
+    FeatureTable table(images.size());
+    if (images.empty()) return table;
+
+    int hardware = (int)std::max(1u, std::thread::hardware_concurrency());
+    int workers = std::min({max_workers, hardware, (int)images.size()});
+
+    // 工作线程按序领取图片, 每个线程使用独立的检测器
+    std::atomic<int> next(0);
+    auto work = [&]() {
+        cv::Ptr<cv::Feature2D> detector = factory();
+        cv::Mat gray;
+        for (int i = next++; i < (int)images.size(); i = next++) {
+            const cv::Mat& image = images[i];
+            if (image.channels() == 3) cv::cvtColor(image, gray, cv::COLOR_BGR2GRAY);
+            else gray = image;
+
+            cv::Mat mask = i < (int)masks.size() ? masks[i] : cv::Mat();
+            detector->detectAndCompute(gray, mask, table[i].keypoints, table[i].descriptors);
+        }
+    };
+
+    std::vector<std::thread> pool;
+    pool.reserve(workers - 1);
+    for (int w = 1; w < workers; ++w) pool.emplace_back(work);
+    work(); // 调用线程同样参与提取
+    for (auto& t : pool) t.join();
+
+    LOGD("FeatureExtractor::Extract - %zu 张图片, %d 个工作线程", images.size(), workers);
+    return table;
+}
+
+ParallelFeaturesFinder::ParallelFeaturesFinder(const FeatureExtractor::DetectorFactory& factory, int max_workers)
+        : extractor(factory, max_workers), detector(factory()) {}
+
+void ParallelFeaturesFinder::detect(cv::InputArrayOfArrays images,
+                                    std::vector<std::vector<cv::KeyPoint>>& keypoints,
+                                    cv::InputArrayOfArrays masks) {
+    int n = (int)images.total();
+    std::vector<cv::Mat> image_list(n), mask_list;
+    for (int i = 0; i < n; ++i) image_list[i] = images.getMat(i);
+    if (!masks.empty()) {
+        mask_list.resize(n);
+        for (int i = 0; i < n; ++i) mask_list[i] = masks.getMat(i);
+    }
+
+    table = extractor.Extract(image_list, mask_list);
+
+    keypoints.resize(n);
+    for (int i = 0; i < n; ++i) keypoints[i] = table[i].keypoints;
+}
+
+void ParallelFeaturesFinder::compute(cv::InputArrayOfArrays images,
+                                     std::vector<std::vector<cv::KeyPoint>>& keypoints,
+                                     cv::OutputArrayOfArrays descriptors) {
+    if (!descriptors.needed()) return;
+
+    int n = (int)images.total();
+    bool cached = (int)table.size() == n && (int)keypoints.size() == n;
+    for (int i = 0; cached && i < n; ++i) {
+        cached = keypoints[i].size() == table[i].keypoints.size();
+    }
+    if (!cached) {
+        // 关键点不是由批量 detect 得到的, 逐张计算
+        cv::Feature2D::compute(images, keypoints, descriptors);
+        return;
+    }
+
+    // 与 cv::Feature2D::compute 相同的输出约定
+    if (descriptors.kind() == cv::_InputArray::STD_VECTOR_UMAT) {
+        auto& out = *(std::vector<cv::UMat>*)descriptors.getObj();
+        out.resize(n);
+        for (int i = 0; i < n; ++i) table[i].descriptors.copyTo(out[i]);
+    } else if (descriptors.kind() == cv::_InputArray::STD_VECTOR_MAT) {
+        auto& out = *(std::vector<cv::Mat>*)descriptors.getObj();
+        out.resize(n);
+        for (int i = 0; i < n; ++i) out[i] = table[i].descriptors;
+    } else {
+        cv::Feature2D::compute(images, keypoints, descriptors);
+    }
+}
+
+void ParallelFeaturesFinder::detectAndCompute(cv::InputArray image, cv::InputArray mask,
+                                              std::vector<cv::KeyPoint>& keypoints,
+                                              cv::OutputArray descriptors,
+                                              bool useProvidedKeypoints) {
+    detector->detectAndCompute(image, mask, keypoints, descriptors, useProvidedKeypoints);
+}
+
+int ParallelFeaturesFinder::descriptorSize() const { return detector->descriptorSize(); }
+
+int ParallelFeaturesFinder::descriptorType() const { return detector->descriptorType(); }
+
+int ParallelFeaturesFinder::defaultNorm() const { return detector->defaultNorm(); }
+
+bool ParallelFeaturesFinder::empty() const { return !detector || detector->empty(); }
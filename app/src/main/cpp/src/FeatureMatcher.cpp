@@ -3,10 +3,38 @@
 //
 
 #include "FeatureMatcher.h"
+#include "KeypointBudget.h"
+#include "PointGrid.h"
+#include <opencv2/core/hal/hal.hpp>
+#include <algorithm>
+#include <cfloat>
+#include <cmath>
 #include <iostream>
 
-FeatureMatcher::FeatureMatcher() {
-    detector = cv::SIFT::create();
+FeatureMatcher::FeatureMatcher(FeatureBackend feature, MatcherBackend backend, int checks, int keypoint_budget)
+        : backend(backend), checks(checks) {
+    detector = CreateDetector(feature, keypoint_budget);
+}
+
+cv::Ptr<cv::Feature2D> FeatureMatcher::CreateDetector(FeatureBackend feature, int keypoint_budget) {
+    cv::Ptr<cv::Feature2D> detector;
+    switch (feature) {
+        case FEATURE_ORB:
+            // ORB 默认只保留 500 个特征, 对全景拼接的重叠区域太少
+            detector = cv::ORB::create(Constants::ORB_MAX_FEATURES);
+            break;
+        case FEATURE_AKAZE: {
+            cv::Ptr<cv::AKAZE> akaze = cv::AKAZE::create();
+            akaze->setThreshold(Constants::AKAZE_THRESHOLD);
+            detector = akaze;
+            break;
+        }
+        default:
+            detector = cv::SIFT::create();
+            break;
+    }
+    if (keypoint_budget <= 0) return detector;
+    return cv::makePtr<KeypointBudget>(detector, keypoint_budget);
 }
 
 void FeatureMatcher::FeatureDetect(const cv::Mat& image1, const cv::Mat& image2) {
@@ -23,26 +51,275 @@ void FeatureMatcher::FeatureDetect(const cv::Mat& image1, const cv::Mat& image2)
     detector->detectAndCompute(gray2, cv::noArray(), kpt2, des2);
 }
 
-void FeatureMatcher::Match() {
-    if (des1.empty() || des2.empty()) return;
+std::vector<cv::DMatch> FeatureMatcher::RatioTestMatches(const cv::Mat& descriptors1,
+                                                         const cv::Mat& descriptors2,
+                                                         bool quantized) const {
+    std::vector<cv::DMatch> matches;
+    if (descriptors1.empty() || descriptors2.empty()) return matches;
 
-    cv::BFMatcher matcher(cv::NORM_L2); // SIFT 使用 L2 范数
+    cv::Ptr<cv::DescriptorMatcher> matcher = CreateMatcher(descriptors1.type(), quantized);
     std::vector<std::vector<cv::DMatch>> knn_matches;
 
-    // k=2 近邻匹配
-    matcher.knnMatch(des1, des2, knn_matches, 2);
+    // k=2 近邻匹配 (索引建立在 descriptors2 上)
+    matcher->knnMatch(descriptors1, descriptors2, knn_matches, 2);
 
     // Lowe's Ratio Test
-    good_matches.clear();
+    const bool binary = DescriptorNorm(descriptors1.type(), quantized) == cv::NORM_HAMMING;
+    const float ratio = binary ? binary_good_ratio : good_ratio;
+    std::vector<float> ratios;
     for (const auto& m_n : knn_matches) {
         if (m_n.size() < 2) continue;
         const auto& m = m_n[0];
         const auto& n = m_n[1];
 
-        if (m.distance < n.distance * good_ratio) {
-            good_matches.push_back(m);
+        if (m.distance < n.distance * ratio) {
+            matches.push_back(m);
+            ratios.push_back(m.distance / n.distance);
+        }
+    }
+
+    // 按距离比从小到大排列 (越靠前越可靠), PROSAC 按此顺序优先采样
+    std::vector<int> order(matches.size());
+    for (size_t i = 0; i < order.size(); ++i) order[i] = (int)i;
+    std::stable_sort(order.begin(), order.end(), [&](int a, int b) { return ratios[a] < ratios[b]; });
+    std::vector<cv::DMatch> sorted;
+    sorted.reserve(matches.size());
+    for (int i : order) sorted.push_back(matches[i]);
+    return sorted;
+}
+
+int FeatureMatcher::DescriptorNorm(int descriptor_type, bool quantized) {
+    return descriptor_type == CV_8U && !quantized ? cv::NORM_HAMMING : cv::NORM_L2;
+}
+
+cv::Ptr<cv::DescriptorMatcher> FeatureMatcher::CreateMatcher(int descriptor_type, bool quantized) const {
+    // ORB / AKAZE 的二进制描述子: 汉明距离 (按字节异或后 popcount, OpenCV 内部使用 NEON/SSE 指令)
+    // 量化后的 SIFT 描述子: FLANN 只支持浮点描述子, 总是暴力匹配, 按整数累加平方差 (不转换回 float)
+    if (descriptor_type == CV_8U) {
+        return cv::makePtr<cv::BFMatcher>(DescriptorNorm(descriptor_type, quantized));
+    }
+    // FLANN 的 k-d 树与 k-means 树只支持浮点描述子
+    if (descriptor_type == CV_32F) {
+        if (backend == MATCHER_FLANN_KDTREE) {
+            return cv::makePtr<cv::FlannBasedMatcher>(
+                    cv::makePtr<cv::flann::KDTreeIndexParams>(Constants::FLANN_KDTREE_TREES),
+                    cv::makePtr<cv::flann::SearchParams>(checks));
+        }
+        if (backend == MATCHER_FLANN_KMEANS) {
+            return cv::makePtr<cv::FlannBasedMatcher>(
+                    cv::makePtr<cv::flann::KMeansIndexParams>(Constants::FLANN_KMEANS_BRANCHING),
+                    cv::makePtr<cv::flann::SearchParams>(checks));
+        }
+    }
+    return cv::makePtr<cv::BFMatcher>(cv::NORM_L2); // SIFT 使用 L2 范数
+}
+
+void FeatureMatcher::Match() {
+    good_matches = RatioTestMatches(des1, des2);
+}
+
+FeatureMatcher::Features FeatureMatcher::Detect(const cv::Mat& image, const cv::Mat& mask) const {
+    cv::Mat gray;
+    // 转灰度
+    if (image.channels() == 3) cv::cvtColor(image, gray, cv::COLOR_BGR2GRAY);
+    else gray = image;
+
+    Features features;
+    detector->detectAndCompute(gray, mask, features.keypoints, features.descriptors);
+    return features;
+}
+
+void FeatureMatcher::MatchFeatures(const Features& features1, const Features& features2,
+                                   std::vector<cv::Point2f>& pts1,
+                                   std::vector<cv::Point2f>& pts2) const {
+    pts1.clear();
+    pts2.clear();
+    for (const auto& match : RatioTestMatches(features1.descriptors, features2.descriptors, features1.quantized)) {
+        pts1.push_back(features1.keypoints[match.queryIdx].pt);
+        pts2.push_back(features2.keypoints[match.trainIdx].pt);
+    }
+}
+
+void FeatureMatcher::MatchGuided(const Features& features1, const Features& features2,
+                                 const cv::Mat& prior, float radius,
+                                 std::vector<cv::Point2f>& pts1,
+                                 std::vector<cv::Point2f>& pts2) const {
+    pts1.clear();
+    pts2.clear();
+    if (features1.keypoints.empty() || features2.keypoints.empty()) return;
+
+    std::vector<cv::Point2f> kp1, kp2, predicted;
+    cv::KeyPoint::convert(features1.keypoints, kp1);
+    cv::KeyPoint::convert(features2.keypoints, kp2);
+    cv::perspectiveTransform(kp1, predicted, prior);
+    PointGrid grid(kp2, radius);
+
+    const cv::Mat& descriptors1 = features1.descriptors;
+    const cv::Mat& descriptors2 = features2.descriptors;
+    const bool quantized = features1.quantized;
+    const bool binary = DescriptorNorm(descriptors1.type(), quantized) == cv::NORM_HAMMING;
+    const float ratio = binary ? binary_good_ratio : good_ratio;
+    // 每个关键点有数十个候选, 直接按行指针计算距离, 避免 cv::norm 每次调用的参数分派开销
+    // L2 比较平方距离, 比率测试的阈值随之平方; 量化的描述子直接按整数累加平方差
+    const int dims = descriptors1.cols;
+    auto distance = [&](int i, int j) -> double {
+        if (binary) return cv::hal::normHamming(descriptors1.ptr<uchar>(i), descriptors2.ptr<uchar>(j), dims);
+        if (quantized) return cv::normL2Sqr<uchar, int>(descriptors1.ptr<uchar>(i), descriptors2.ptr<uchar>(j), dims);
+        return cv::normL2Sqr_(descriptors1.ptr<float>(i), descriptors2.ptr<float>(j), dims);
+    };
+    const double threshold = binary ? ratio : (double)ratio * ratio;
+
+    std::vector<int> candidates;
+    std::vector<std::pair<double, std::pair<int, int>>> matches; // (距离比, (features1 下标, features2 下标))
+    for (size_t i = 0; i < kp1.size(); ++i) {
+        grid.Query(predicted[i], radius, candidates);
+        if (candidates.size() < 2) continue;
+
+        // 候选中的最近邻与次近邻
+        double best = DBL_MAX, second = DBL_MAX;
+        int best_idx = -1;
+        for (int j : candidates) {
+            double d = distance((int)i, j);
+            if (d < best) {
+                second = best;
+                best = d;
+                best_idx = j;
+            } else if (d < second) {
+                second = d;
+            }
+        }
+        if (best < second * threshold) {
+            const double score = binary ? best / second : std::sqrt(best / second);
+            matches.push_back({score, {(int)i, best_idx}});
+        }
+    }
+
+    // 与 MatchFeatures 一致, 按距离比从小到大输出
+    std::stable_sort(matches.begin(), matches.end(),
+                     [](const auto& a, const auto& b) { return a.first < b.first; });
+    for (const auto& m : matches) {
+        pts1.push_back(kp1[m.second.first]);
+        pts2.push_back(kp2[m.second.second]);
+    }
+}
+
+bool FeatureMatcher::CoarseMatches(const Features& coarse1, const Features& coarse2, double scale,
+                                   std::vector<cv::Point2f>& pts1,
+                                   std::vector<cv::Point2f>& pts2) const {
+    MatchFeatures(coarse1, coarse2, pts1, pts2);
+    if ((int)pts1.size() < Constants::PYRAMID_MIN_MATCHES) return false;
+
+    // 换算到原分辨率坐标
+    for (auto& p : pts1) p *= (float)(1.0 / scale);
+    for (auto& p : pts2) p *= (float)(1.0 / scale);
+    return true;
+}
+
+cv::Mat FeatureMatcher::CoarseHomography(const Features& coarse1, const Features& coarse2, double scale) const {
+    std::vector<cv::Point2f> pts1, pts2;
+    if (!CoarseMatches(coarse1, coarse2, scale, pts1, pts2)) return {};
+    return cv::findHomography(pts1, pts2, cv::RANSAC, Constants::PYRAMID_RANSAC_THRESHOLD);
+}
+
+cv::Mat FeatureMatcher::OverlapMask(cv::Size size, cv::Size other_size, const cv::Mat& H, int margin) {
+    std::vector<cv::Point2f> corners = {
+            {0, 0}, {(float)other_size.width, 0},
+            {(float)other_size.width, (float)other_size.height}, {0, (float)other_size.height}};
+    std::vector<cv::Point2f> projected;
+    cv::perspectiveTransform(corners, projected, H);
+
+    std::vector<cv::Point> polygon;
+    for (const auto& p : projected) polygon.emplace_back(cvRound(p.x), cvRound(p.y));
+    cv::Mat mask = cv::Mat::zeros(size, CV_8UC1);
+    cv::fillConvexPoly(mask, polygon, cv::Scalar(255));
+    if (margin > 0) {
+        cv::dilate(mask, mask, cv::getStructuringElement(cv::MORPH_RECT, cv::Size(2 * margin + 1, 2 * margin + 1)));
+    }
+    return mask;
+}
+
+std::vector<cv::Mat> FeatureMatcher::NeighbourOverlapMasks(const std::vector<cv::Size>& sizes,
+                                                           const std::vector<cv::Mat>& H,
+                                                           const std::vector<int>& margins) {
+    for (const auto& h : H) {
+        if (h.empty()) return {};
+    }
+
+    std::vector<cv::Mat> masks(sizes.size());
+    for (size_t i = 0; i < sizes.size(); ++i) {
+        masks[i] = cv::Mat::zeros(sizes[i], CV_8UC1);
+        if (i > 0) {
+            cv::bitwise_or(masks[i], OverlapMask(sizes[i], sizes[i - 1], H[i - 1], margins[i - 1]), masks[i]);
+        }
+        if (i + 1 < sizes.size()) {
+            cv::bitwise_or(masks[i], OverlapMask(sizes[i], sizes[i + 1], H[i].inv(), margins[i]), masks[i]);
+        }
+    }
+    return masks;
+}
+
+void FeatureMatcher::DescriptorCompressor::Fit(std::vector<Features>& table) {
+    if (mode == DESCRIPTOR_PCA) {
+        int total = 0, dims = 0;
+        for (const auto& f : table) {
+            if (f.descriptors.type() != CV_32F) continue;
+            total += f.descriptors.rows;
+            dims = f.descriptors.cols;
+        }
+        if (total > 0 && pca_dims < dims) {
+            // 在所有图片的描述子中等间隔采样, 拟合共用的 PCA 基
+            const int step = std::max(1, total / Constants::DESCRIPTOR_PCA_SAMPLES);
+            cv::Mat samples;
+            int k = 0;
+            for (const auto& f : table) {
+                if (f.descriptors.type() != CV_32F) continue;
+                for (int r = 0; r < f.descriptors.rows; ++r, ++k) {
+                    if (k % step == 0) samples.push_back(f.descriptors.row(r));
+                }
+            }
+            if (samples.rows > pca_dims) {
+                pca = cv::PCA(samples, cv::noArray(), cv::PCA::DATA_AS_ROW, pca_dims);
+                fitted = true;
+            }
         }
     }
+    for (auto& f : table) Apply(f);
+}
+
+void FeatureMatcher::DescriptorCompressor::Apply(Features& features) const {
+    // 二进制描述子与已压缩的描述子保持原样
+    if (features.descriptors.type() != CV_32F || features.descriptors.empty()) return;
+    if (mode == DESCRIPTOR_UINT8) {
+        // OpenCV 的 SIFT 描述子在归一化后已截断到 [0, 255] 的整数, 转为 uint8 不损失信息
+        cv::Mat quantized;
+        features.descriptors.convertTo(quantized, CV_8U);
+        features.descriptors = quantized;
+        features.quantized = true;
+    } else if (mode == DESCRIPTOR_PCA && fitted && features.descriptors.cols == pca.mean.cols) {
+        features.descriptors = pca.project(features.descriptors);
+    }
+}
+
+void FeatureMatcher::RunPyramid(const cv::Mat& image1, const cv::Mat& image2,
+                                std::vector<cv::Point2f>& pts1,
+                                std::vector<cv::Point2f>& pts2) {
+    const double scale = Constants::PYRAMID_COARSE_SCALE;
+    cv::Mat small1, small2;
+    cv::resize(image1, small1, cv::Size(), scale, scale, cv::INTER_AREA);
+    cv::resize(image2, small2, cv::Size(), scale, scale, cv::INTER_AREA);
+
+    cv::Mat H = CoarseHomography(Detect(small1), Detect(small2), scale);
+    if (H.empty()) {
+        Run(image1, image2, pts1, pts2);
+        return;
+    }
+
+    // 只在预测的重叠区域内检测, 按预测位置引导匹配
+    cv::Mat mask1 = OverlapMask(image1.size(), image2.size(), H.inv(), Constants::PYRAMID_OVERLAP_MARGIN);
+    cv::Mat mask2 = OverlapMask(image2.size(), image1.size(), H, Constants::PYRAMID_OVERLAP_MARGIN);
+    Features features1 = Detect(image1, mask1);
+    Features features2 = Detect(image2, mask2);
+    MatchGuided(features1, features2, H, Constants::PYRAMID_GUIDE_RADIUS, pts1, pts2);
 }
 
 void FeatureMatcher::SelectGoodMatches(std::vector<cv::Point2f>& pts1, std::vector<cv::Point2f>& pts2) {
@@ -0,0 +1,109 @@
+//
+// Created by 31830 on 2026/10/17.
+//
+
+#include "KeypointBudget.h"
+#include <algorithm>
+#include <cmath>
+
+KeypointBudget::KeypointBudget(cv::Ptr<cv::Feature2D> detector, int budget, int grid_size)
+        : detector(std::move(detector)), budget(budget), grid_size(grid_size) {}
+
+std::vector<int> KeypointBudget::Select(const std::vector<cv::KeyPoint>& keypoints, cv::Size image_size,
+                                        int budget, int grid_size) {
+    if (budget <= 0 || (int)keypoints.size() <= budget || image_size.area() == 0) {
+        std::vector<int> all(keypoints.size());
+        for (int i = 0; i < (int)all.size(); ++i) all[i] = i;
+        return all;
+    }
+
+    // 按长宽比划分近似正方形的网格
+    const int long_side = std::max(image_size.width, image_size.height);
+    const double cell = (double)long_side / std::max(1, grid_size);
+    const int cols = std::max(1, (int)std::ceil(image_size.width / cell));
+    const int rows = std::max(1, (int)std::ceil(image_size.height / cell));
+
+    // 每个网格内按响应从强到弱排序
+    std::vector<std::vector<int>> buckets(cols * rows);
+    for (int i = 0; i < (int)keypoints.size(); ++i) {
+        const cv::Point2f& pt = keypoints[i].pt;
+        int cx = std::min(cols - 1, std::max(0, (int)(pt.x / cell)));
+        int cy = std::min(rows - 1, std::max(0, (int)(pt.y / cell)));
+        buckets[cy * cols + cx].push_back(i);
+    }
+    auto stronger = [&](int a, int b) { return keypoints[a].response > keypoints[b].response; };
+    for (auto& bucket : buckets) std::sort(bucket.begin(), bucket.end(), stronger);
+
+    // 逐轮取出每个网格中第 rank 强的关键点; 最后一轮放不下时保留其中最强的
+    std::vector<int> selected;
+    selected.reserve(budget);
+    std::vector<int> round;
+    for (int rank = 0; (int)selected.size() < budget; ++rank) {
+        round.clear();
+        for (const auto& bucket : buckets) {
+            if (rank < (int)bucket.size()) round.push_back(bucket[rank]);
+        }
+        if (round.empty()) break;
+
+        const int remaining = budget - (int)selected.size();
+        if ((int)round.size() > remaining) {
+            std::nth_element(round.begin(), round.begin() + remaining, round.end(), stronger);
+            round.resize(remaining);
+        }
+        selected.insert(selected.end(), round.begin(), round.end());
+    }
+    return selected;
+}
+
+void KeypointBudget::detect(cv::InputArray image, std::vector<cv::KeyPoint>& keypoints,
+                            cv::InputArray mask) {
+    detector->detect(image, keypoints, mask);
+    std::vector<int> kept = Select(keypoints, image.size(), budget, grid_size);
+    if (kept.size() == keypoints.size()) return;
+
+    std::vector<cv::KeyPoint> selected;
+    selected.reserve(kept.size());
+    for (int idx : kept) selected.push_back(keypoints[idx]);
+    keypoints.swap(selected);
+}
+
+void KeypointBudget::detectAndCompute(cv::InputArray image, cv::InputArray mask,
+                                      std::vector<cv::KeyPoint>& keypoints,
+                                      cv::OutputArray descriptors,
+                                      bool useProvidedKeypoints) {
+    if (useProvidedKeypoints) {
+        detector->compute(image, keypoints, descriptors);
+        return;
+    }
+    if (!descriptors.needed()) {
+        detect(image, keypoints, mask);
+        return;
+    }
+
+    // 检测与描述一起完成 (分开调用 detect + compute 会把尺度空间构建两次), 再只保留被选中的描述子行
+    cv::Mat all_descriptors;
+    detector->detectAndCompute(image, mask, keypoints, all_descriptors);
+    std::vector<int> kept = Select(keypoints, image.size(), budget, grid_size);
+    if (kept.size() == keypoints.size()) {
+        all_descriptors.copyTo(descriptors);
+        return;
+    }
+
+    std::vector<cv::KeyPoint> selected;
+    selected.reserve(kept.size());
+    descriptors.create((int)kept.size(), all_descriptors.cols, all_descriptors.type());
+    cv::Mat kept_descriptors = descriptors.getMat();
+    for (int j = 0; j < (int)kept.size(); ++j) {
+        selected.push_back(keypoints[kept[j]]);
+        all_descriptors.row(kept[j]).copyTo(kept_descriptors.row(j));
+    }
+    keypoints.swap(selected);
+}
+
+int KeypointBudget::descriptorSize() const { return detector->descriptorSize(); }
+
+int KeypointBudget::descriptorType() const { return detector->descriptorType(); }
+
+int KeypointBudget::defaultNorm() const { return detector->defaultNorm(); }
+
+bool KeypointBudget::empty() const { return !detector || detector->empty(); }
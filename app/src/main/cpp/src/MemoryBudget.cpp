@@ -0,0 +1,103 @@
+//
+// Created by 31830 on 2026/10/17.
+//
+
+#include "MemoryBudget.h"
+#include "Constants.h"
+#include "Logger.h"
+#include <algorithm>
+#include <atomic>
+
+static std::atomic<size_t> g_budget(0);
+// onTrimMemory 收紧后的比例 (百分比)
+static std::atomic<int> g_trim_percent(100);
+
+// 每个工作像素的字节数: 定点映射表 (4 + 2) + 扭曲结果 3, 线性融合另加灰度/两个掩码 3 + 两个距离图 8
+static constexpr size_t kMaxWorkBytes = 9;
+static constexpr size_t kLinearWorkBytes = 20;
+// 整块线性融合时旧画布的距离在整个旧画布上计算: 灰度 1 + 掩码 1 + 距离图 4
+static constexpr size_t kBaseDistanceBytes = 6;
+// 单次合成的加权累加缓冲区 (3 通道 float + 权重和)
+static constexpr size_t kAccumBytes = 16;
+
+void MemoryBudget::SetBudget(size_t bytes) {
+    g_budget = bytes;
+    g_trim_percent = 100;
+    LOGI("MemoryBudget - 预算 %zu MB", bytes >> 20);
+}
+
+void MemoryBudget::OnTrimMemory(int level) {
+    // ComponentCallbacks2: RUNNING_MODERATE = 5, RUNNING_LOW = 10, RUNNING_CRITICAL = 15
+    // 只有 RUNNING_* 表示前台运行时系统内存紧张; UI_HIDDEN (20) 与后台级别 (40/60/80) 只说明应用退到了后台,
+    // 不应让仍在执行的拼接降级
+    int percent = 100;
+    if (level == 15) percent = 25;
+    else if (level == 10) percent = 50;
+    else if (level == 5) percent = 75;
+    else return;
+    g_trim_percent = std::min(g_trim_percent.load(), percent);
+    LOGI("MemoryBudget - onTrimMemory(%d), 预算收紧至 %d%%", level, g_trim_percent.load());
+}
+
+size_t MemoryBudget::Available() {
+    size_t budget = g_budget;
+    if (budget == 0) return 0;
+    return budget / 100 * (size_t)g_trim_percent;
+}
+
+bool MemoryBudget::Fits(size_t bytes) {
+    size_t available = Available();
+    return available == 0 || bytes <= available;
+}
+
+void MemoryBudget::Require(size_t bytes, const char* stage) {
+    if (Fits(bytes)) return;
+    LOGE("MemoryBudget - %s 预计需要 %zu MB, 超出预算 %zu MB", stage, bytes >> 20, Available() >> 20);
+    throw Exceeded();
+}
+
+size_t MemoryBudget::ImageBytes(cv::Size size, int channels) {
+    return (size_t)size.width * size.height * channels;
+}
+
+size_t MemoryBudget::CompositeBytes(cv::Size canvas, cv::Size base, cv::Size footprint,
+                                    int tile_size, bool linear) {
+    size_t work_pixels = (size_t)footprint.width * footprint.height;
+    size_t base_work = 0;
+    if (tile_size > 0) {
+        size_t apron = linear ? Constants::BLEND_FEATHER_RADIUS : 0;
+        size_t tile = tile_size + 2 * apron;
+        work_pixels = std::min(work_pixels, tile * tile);
+    } else if (linear) {
+        base_work = ImageBytes(base, kBaseDistanceBytes);
+    }
+    return ImageBytes(canvas) + ImageBytes(base) + base_work + work_pixels * (linear ? kLinearWorkBytes : kMaxWorkBytes);
+}
+
+size_t MemoryBudget::SinglePassBytes(cv::Size canvas, int tile_size, bool linear) {
+    size_t per_pixel = linear ? kLinearWorkBytes + kAccumBytes : kMaxWorkBytes;
+    if (tile_size <= 0) {
+        // 整块处理: 只有一块, 一套与画布同样大小的缓冲区
+        return ImageBytes(canvas) + (size_t)canvas.width * canvas.height * per_pixel;
+    }
+    size_t apron = linear ? Constants::BLEND_FEATHER_RADIUS : 0;
+    size_t tile = tile_size + 2 * apron;
+    size_t tiles = (size_t)((canvas.width + tile_size - 1) / tile_size) * ((canvas.height + tile_size - 1) / tile_size);
+    size_t threads = std::min(tiles, (size_t)std::max(1, cv::getNumThreads()));
+    return ImageBytes(canvas) + tile * tile * per_pixel * threads;
+}
+
+size_t MemoryBudget::StitcherBytes(const std::vector<cv::Mat>& images, double compose_scale, bool multi_band) {
+    size_t pixels = 0;
+    for (const auto& img : images) pixels += (size_t)img.total();
+    pixels = (size_t)((double)pixels * compose_scale * compose_scale);
+    // 扭曲后的图片与掩码 (3 + 1), 输出全景图 3; 多频段融合的 16 位拉普拉斯金字塔约 (6 + 2) * 4 / 3
+    size_t per_pixel = 7 + (multi_band ? 11 : 4);
+    return pixels * per_pixel;
+}
+
+size_t MemoryBudget::InpaintBytes(cv::Size size) {
+    // 输入 3 + 掩码/灰度 2 + 上采样的 float 结果 12 + 输出 3
+    size_t tensor_bytes = (size_t)Constants::MODEL_INPUT_SIZE * Constants::MODEL_INPUT_SIZE * (3 + 1 + 3) * sizeof(float);
+    return (size_t)size.width * size.height * 20 + 2 * tensor_bytes;
+}
@@ -0,0 +1,107 @@
+//
+// Created by 31830 on 2026/10/17.
+//
+
+#include "PointGrid.h"
+#include <algorithm>
+#include <cmath>
+
+PointGrid::PointGrid(const std::vector<cv::Point2f>& pts, float _cell_size)
+        : points(pts), cell_size(_cell_size) {
+    if (points.empty() || cell_size <= 0) return;
+
+    // 1. 计算包围盒
+    float min_x = points[0].x, min_y = points[0].y;
+    float max_x = min_x, max_y = min_y;
+    for (const auto& p : points) {
+        min_x = std::min(min_x, p.x);
+        min_y = std::min(min_y, p.y);
+        max_x = std::max(max_x, p.x);
+        max_y = std::max(max_y, p.y);
+    }
+    origin_x = min_x;
+    origin_y = min_y;
+    grid_cols = (int)((max_x - min_x) / cell_size) + 1;
+    grid_rows = (int)((max_y - min_y) / cell_size) + 1;
+
+    // 2. 计数排序: 先统计每个桶的点数, 再按前缀和写入
+    int num_cells = grid_cols * grid_rows;
+    std::vector<int> cell_of(points.size());
+    cell_start.assign(num_cells + 1, 0);
+    for (size_t i = 0; i < points.size(); ++i) {
+        int cx = std::min((int)((points[i].x - origin_x) / cell_size), grid_cols - 1);
+        int cy = std::min((int)((points[i].y - origin_y) / cell_size), grid_rows - 1);
+        cell_of[i] = cy * grid_cols + cx;
+        cell_start[cell_of[i] + 1]++;
+    }
+    for (int c = 0; c < num_cells; ++c) {
+        cell_start[c + 1] += cell_start[c];
+    }
+
+    indices.resize(points.size());
+    std::vector<int> fill(cell_start.begin(), cell_start.end() - 1);
+    for (size_t i = 0; i < points.size(); ++i) {
+        indices[fill[cell_of[i]]++] = (int)i;
+    }
+}
+
+void PointGrid::Query(const cv::Point2f& center, float radius, std::vector<int>& out) const {
+    out.clear();
+    if (indices.empty()) return;
+
+    // 查询范围对应的桶 (超出包围盒的部分直接裁掉)
+    int x0 = (int)std::floor((center.x - radius - origin_x) / cell_size);
+    int x1 = (int)std::floor((center.x + radius - origin_x) / cell_size);
+    int y0 = (int)std::floor((center.y - radius - origin_y) / cell_size);
+    int y1 = (int)std::floor((center.y + radius - origin_y) / cell_size);
+    x0 = std::max(x0, 0);
+    y0 = std::max(y0, 0);
+    x1 = std::min(x1, grid_cols - 1);
+    y1 = std::min(y1, grid_rows - 1);
+
+    float radius_sq = radius * radius;
+    for (int cy = y0; cy <= y1; ++cy) {
+        for (int cx = x0; cx <= x1; ++cx) {
+            int c = cy * grid_cols + cx;
+            for (int k = cell_start[c]; k < cell_start[c + 1]; ++k) {
+                int idx = indices[k];
+                float dx = points[idx].x - center.x;
+                float dy = points[idx].y - center.y;
+                if (dx * dx + dy * dy < radius_sq) {
+                    out.push_back(idx);
+                }
+            }
+        }
+    }
+}
+
+std::vector<int> PointGrid::BalancedSubsample(const std::vector<cv::Point2f>& pts, int max_count) {
+    std::vector<int> kept;
+    if ((int)pts.size() <= max_count || max_count <= 0) {
+        kept.resize(pts.size());
+        for (size_t i = 0; i < pts.size(); ++i) kept[i] = (int)i;
+        return kept;
+    }
+
+    // 桶的边长取 sqrt(包围盒面积 / max_count), 使桶数量与采样目标同一量级
+    cv::Rect2f box = cv::boundingRect(pts);
+    float cell = std::sqrt(std::max(box.width * box.height, 1.0f) / (float)max_count);
+    PointGrid grid(pts, std::max(cell, 1.0f));
+
+    // 轮询: 第 r 轮从每个非空桶中取第 r 个点
+    int num_cells = grid.grid_cols * grid.grid_rows;
+    kept.reserve(max_count);
+    for (int round = 0; (int)kept.size() < max_count; ++round) {
+        bool any = false;
+        for (int c = 0; c < num_cells && (int)kept.size() < max_count; ++c) {
+            int k = grid.cell_start[c] + round;
+            if (k < grid.cell_start[c + 1]) {
+                kept.push_back(grid.indices[k]);
+                any = true;
+            }
+        }
+        if (!any) break;
+    }
+    std::sort(kept.begin(), kept.end());
+    return kept;
+}
@@ -0,0 +1,104 @@
+//
+// Created by 31830 on 2026/10/17.
+//
+
+#include "PosePrior.h"
+#include "FeatureMatcher.h"
+#include "Constants.h"
+#include "Logger.h"
+#include <cmath>
+
+// 方位角之差 (度), 归一化到 [-180, 180)
+static double AzimuthDelta(const PosePrior::Orientation& o1, const PosePrior::Orientation& o2) {
+    return std::fmod((double)o2.azimuth - o1.azimuth + 540.0, 360.0) - 180.0;
+}
+
+cv::Mat PosePrior::PredictHomography(cv::Size size1, cv::Size size2,
+                                     const Orientation& o1, const Orientation& o2,
+                                     double focal, Projection::Mode mode) {
+    const double yaw = AzimuthDelta(o1, o2) * CV_PI / 180.0;
+    // 两张图片的水平视场之和的一半超过方位角之差时才有重叠
+    const double fov1 = std::atan(size1.width * 0.5 / focal);
+    const double fov2 = std::atan(size2.width * 0.5 / focal);
+    if (focal <= 0 || std::abs(yaw) >= fov1 + fov2) return {};
+
+    const double cx1 = size1.width * 0.5, cy1 = size1.height * 0.5;
+    const double cx2 = size2.width * 0.5, cy2 = size2.height * 0.5;
+    if (mode != Projection::PLANAR) {
+        // 圆柱面 / 球面上绕竖直轴旋转为水平平移: 向右转动时景物向左移动
+        return (cv::Mat_<double>(3, 3) << 1, 0, cx2 - cx1 - focal * yaw,
+                                          0, 1, cy2 - cy1,
+                                          0, 0, 1);
+    }
+
+    // 平面: H = K2 * R * K1^-1, R 为绕竖直轴旋转 -yaw
+    cv::Mat K1 = (cv::Mat_<double>(3, 3) << focal, 0, cx1, 0, focal, cy1, 0, 0, 1);
+    cv::Mat K2 = (cv::Mat_<double>(3, 3) << focal, 0, cx2, 0, focal, cy2, 0, 0, 1);
+    const double c = std::cos(-yaw), s = std::sin(-yaw);
+    cv::Mat R = (cv::Mat_<double>(3, 3) << c, 0, s,
+                                           0, 1, 0,
+                                           -s, 0, c);
+    return K2 * R * K1.inv();
+}
+
+int PosePrior::Margin(cv::Size size, const Orientation& o1, const Orientation& o2, double focal) {
+    const double angle = (Constants::POSE_ANGLE_TOLERANCE + std::abs(o2.pitch - o1.pitch)) * CV_PI / 180.0;
+    const double roll = std::abs(o2.roll - o1.roll) * CV_PI / 180.0;
+    const double half_diagonal = 0.5 * std::sqrt((double)size.width * size.width + (double)size.height * size.height);
+    return (int)std::ceil(focal * std::tan(angle) + half_diagonal * std::sin(roll));
+}
+
+std::vector<cv::Mat> PosePrior::PredictNeighbours(const std::vector<cv::Size>& sizes,
+                                                  const std::vector<Orientation>& orientations,
+                                                  double focal_ratio, Projection::Mode mode,
+                                                  std::vector<int>& margins) {
+    margins.clear();
+    if (sizes.size() < 2 || orientations.size() != sizes.size()) return {};
+
+    std::vector<cv::Mat> priors(sizes.size() - 1);
+    margins.resize(sizes.size() - 1);
+    for (size_t i = 1; i < sizes.size(); ++i) {
+        const double focal = focal_ratio * std::max(sizes[i].width, sizes[i].height);
+        priors[i - 1] = PredictHomography(sizes[i - 1], sizes[i], orientations[i - 1], orientations[i], focal, mode);
+        margins[i - 1] = Margin(sizes[i], orientations[i - 1], orientations[i], focal);
+        if (priors[i - 1].empty()) {
+            LOGI("PosePrior - 图像 %zu - %zu 的方位角相差 %.1f°, 视场不相交, 不使用方向先验",
+                 i - 1, i, AzimuthDelta(orientations[i - 1], orientations[i]));
+            margins.clear();
+            return {};
+        }
+    }
+    return priors;
+}
+
+cv::Mat PosePrior::MatchingMask(const std::vector<cv::Size>& sizes,
+                                const std::vector<Orientation>& orientations,
+                                double focal_ratio) {
+    const int n = (int)sizes.size();
+    if (n < 2 || (int)orientations.size() != n) return {};
+
+    cv::Mat mask = cv::Mat::zeros(n, n, CV_8U);
+    for (int i = 0; i < n; ++i) {
+        for (int j = i + 1; j < n; ++j) {
+            const double focal = focal_ratio * std::max(sizes[j].width, sizes[j].height);
+            const bool overlap = j == i + 1 || !PredictHomography(sizes[i], sizes[j], orientations[i], orientations[j],
+                                                                  focal, Projection::PLANAR).empty();
+            if (overlap) {
+                mask.at<uchar>(i, j) = 1;
+                mask.at<uchar>(j, i) = 1;
+            }
+        }
+    }
+    return mask;
+}
+
+std::vector<cv::Mat> PosePrior::OverlapMasks(const std::vector<cv::Mat>& images,
+                                             const std::vector<Orientation>& orientations,
+                                             double focal_ratio, Projection::Mode mode) {
+    std::vector<cv::Size> sizes;
+    for (const auto& img : images) sizes.push_back(img.size());
+    std::vector<int> margins;
+    std::vector<cv::Mat> priors = PredictNeighbours(sizes, orientations, focal_ratio, mode, margins);
+    if (priors.empty()) return {};
+    return FeatureMatcher::NeighbourOverlapMasks(sizes, priors, margins);
+}
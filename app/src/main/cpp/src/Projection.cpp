@@ -0,0 +1,101 @@
+//
+// Created by 31830 on 2026/10/17.
+//
+
+#include "Projection.h"
+#include "Constants.h"
+#include "Logger.h"
+#include <opencv2/stitching/detail/autocalib.hpp>
+#include <algorithm>
+#include <cmath>
+
+double Projection::EstimateFocalRatio(const std::vector<cv::Mat>& images, const FeatureTable& features,
+                                      const FeatureMatcher& matcher) {
+    // 各相邻对互不依赖, 并行估计; 无法估计的相邻对记为 0
+    std::vector<double> ratios(images.size() - 1, 0.0);
+    cv::parallel_for_(cv::Range(1, (int)images.size()), [&](const cv::Range& range) {
+        for (int i = range.start; i < range.end; ++i) {
+            std::vector<cv::Point2f> pts1, pts2;
+            matcher.MatchFeatures(features[i - 1], features[i], pts1, pts2);
+            if ((int)pts1.size() < Constants::FOCAL_MIN_MATCHES) continue;
+
+            // focalsFromHomography 假设坐标原点在图片中心 (主点)
+            const cv::Point2f c1(images[i - 1].cols * 0.5f, images[i - 1].rows * 0.5f);
+            const cv::Point2f c2(images[i].cols * 0.5f, images[i].rows * 0.5f);
+            for (auto& p : pts1) p -= c1;
+            for (auto& p : pts2) p -= c2;
+
+            cv::Mat H = cv::findHomography(pts1, pts2, cv::RANSAC, Constants::FOCAL_RANSAC_THRESHOLD);
+            if (H.empty()) continue;
+
+            double f0 = 0, f1 = 0;
+            bool ok0 = false, ok1 = false;
+            cv::detail::focalsFromHomography(H, f0, f1, ok0, ok1);
+            if (!ok0 || !ok1) continue;
+            ratios[i - 1] = std::sqrt(f0 * f1) / std::max(images[i].cols, images[i].rows);
+        }
+    });
+
+    ratios.erase(std::remove(ratios.begin(), ratios.end(), 0.0), ratios.end());
+    if (ratios.empty()) {
+        LOGI("Projection - 无法由单应性估计焦距, 使用默认焦距比 %.2f", Constants::DEFAULT_FOCAL_RATIO);
+        return Constants::DEFAULT_FOCAL_RATIO;
+    }
+    std::nth_element(ratios.begin(), ratios.begin() + ratios.size() / 2, ratios.end());
+    const double ratio = ratios[ratios.size() / 2];
+    LOGI("Projection - 由 %zu 个相邻对估计焦距比: %.3f", ratios.size(), ratio);
+    return ratio;
+}
+
+cv::Mat Projection::Warp(const cv::Mat& image, double focal, Mode mode) {
+    if (mode == PLANAR || focal <= 0) return image;
+
+    const double cx = (image.cols - 1) * 0.5;
+    const double cy = (image.rows - 1) * 0.5;
+    // 输出尺寸: 水平方向为图片张角对应的弧长; 圆柱面竖直方向不变, 球面竖直方向同样按张角展开
+    const int out_w = (int)std::ceil(2.0 * focal * std::atan(image.cols * 0.5 / focal));
+    const int out_h = mode == SPHERICAL
+                      ? (int)std::ceil(2.0 * focal * std::atan(image.rows * 0.5 / focal))
+                      : image.rows;
+    const double out_cx = (out_w - 1) * 0.5;
+    const double out_cy = (out_h - 1) * 0.5;
+
+    // 反向映射: 投影面上的 (theta, h) 或 (theta, phi) -> 原图平面
+    cv::Mat map_x(out_h, out_w, CV_32FC1), map_y(out_h, out_w, CV_32FC1);
+    cv::parallel_for_(cv::Range(0, out_h), [&](const cv::Range& range) {
+        std::vector<double> tan_theta(out_w), inv_cos_theta(out_w);
+        for (int u = 0; u < out_w; ++u) {
+            const double theta = (u - out_cx) / focal;
+            tan_theta[u] = std::tan(theta);
+            inv_cos_theta[u] = 1.0 / std::cos(theta);
+        }
+        for (int v = range.start; v < range.end; ++v) {
+            const double h = mode == SPHERICAL ? std::tan((v - out_cy) / focal) : (v - out_cy) / focal;
+            float* mx = map_x.ptr<float>(v);
+            float* my = map_y.ptr<float>(v);
+            for (int u = 0; u < out_w; ++u) {
+                mx[u] = (float)(focal * tan_theta[u] + cx);
+                my[u] = (float)(focal * h * inv_cos_theta[u] + cy);
+            }
+        }
+    });
+
+    cv::Mat projected;
+    cv::remap(image, projected, map_x, map_y, cv::INTER_LINEAR, cv::BORDER_CONSTANT, cv::Scalar::all(0));
+    return projected;
+}
+
+cv::Mat Projection::ValidMask(const cv::Mat& projected) {
+    cv::Mat gray;
+    if (projected.channels() == 3) {
+        cv::cvtColor(projected, gray, cv::COLOR_BGR2GRAY);
+    } else {
+        gray = projected;
+    }
+    cv::Mat mask;
+    cv::threshold(gray, mask, Constants::BLACK_THRESHOLD, 255, cv::THRESH_BINARY);
+    // SIFT 的描述子窗口较大, 收缩掩码使边界附近的特征不受黑色区域影响
+    const int margin = Constants::PROJECTION_MASK_MARGIN;
+    cv::erode(mask, mask, cv::getStructuringElement(cv::MORPH_RECT, cv::Size(2 * margin + 1, 2 * margin + 1)));
+    return mask;
+}
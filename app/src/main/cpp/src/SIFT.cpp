@@ -5,9 +5,13 @@
 #include "SIFT.h"
 #include "Utils.h"
 #include "Logger.h"
+#include "FeatureExtractor.h"
+#include "MemoryBudget.h"
+#include "Constants.h"
 
 bool SIFT::Load_image(std::vector<cv::Mat>&& _images) {
     images = std::move(_images);
+    stitcher.reset(); // 图片更换后旧的配准结果失效
     if (images.empty()) {
         std::cerr << "[SIFTStitcher] No images loaded." << std::endl;
         return false;
@@ -15,43 +19,165 @@ bool SIFT::Load_image(std::vector<cv::Mat>&& _images) {
     return true;
 }
 
+SIFT::Options SIFT::Preset(Quality quality, double compositing_resol) {
+    Options preset;
+    switch (quality) {
+        case QUALITY_FAST:
+            preset.registration_resol = Constants::SIFT_FAST_REGISTRATION_RESOL;
+            preset.seam_resol = Constants::SIFT_FAST_SEAM_RESOL;
+            break;
+        case QUALITY_FULL:
+            preset.registration_resol = Options::ORIGINAL_RESOL;
+            preset.seam_resol = Constants::SIFT_FULL_SEAM_RESOL;
+            break;
+        default:
+            break;
+    }
+    preset.compositing_resol = compositing_resol > 0 ? compositing_resol : Options::ORIGINAL_RESOL;
+    return preset;
+}
+
 cv::Mat SIFT::Stitching(bool enable_linear_blending) {
     if (images.size() < 2) {
         LOGE("[SIFT拼接] 至少需要两张图像才能进行拼接");
         return images.empty() ? cv::Mat() : images[0];
     }
+    if (!EstimateTransform()) return {};
+    return Compose(enable_linear_blending, options.compositing_resol);
+}
+
+// 打印 cv::Stitcher 的错误码
+static void LogStitcherStatus(cv::Stitcher::Status status) {
+    LOGE("[SIFT拼接] 拼接失败，错误码：%d", static_cast<int>(status));
+
+    switch (status) {
+        case cv::Stitcher::ERR_NEED_MORE_IMGS:
+            LOGE("[SIFT拼接] 特征点不足，无法完成图像匹配");
+            break;
+
+        case cv::Stitcher::ERR_HOMOGRAPHY_EST_FAIL:
+            LOGE("[SIFT拼接] 单应性矩阵估计失败，可能是视角变化过大或匹配错误");
+            break;
+
+        case cv::Stitcher::ERR_CAMERA_PARAMS_ADJUST_FAIL:
+            LOGE("[SIFT拼接] 相机参数优化失败（光束法平差未收敛）");
+            break;
+
+        default:
+            LOGE("[SIFT拼接] 未知错误");
+            break;
+    }
+}
+
+bool SIFT::EstimateTransform() {
+    stitcher.reset();
+    if (images.size() < 2) {
+        LOGE("[SIFT拼接] 至少需要两张图像才能进行拼接");
+        return false;
+    }
 
     LOGI("[SIFT拼接] 开始进行基于光束法平差的全景拼接，图像数量：%zu",
          images.size());
 
     // 1. 创建 Stitcher（全景模式，适合旋转拍摄）
-    cv::Ptr<cv::Stitcher> stitcher =
+    cv::Ptr<cv::Stitcher> session =
             cv::Stitcher::create(cv::Stitcher::PANORAMA);
 
     // =========================================================
-    // 使用 SIFT 作为特征提取器（新版 OpenCV 写法）
+    // 配置特征提取器 (默认 SIFT, 可选 ORB / AKAZE), 每张图片最多保留 keypoint_budget 个网格均衡的关键点
+    // 所有图片在工作线程池中并行提取, 每个线程持有独立的检测器实例
     // =========================================================
-    cv::Ptr<cv::SIFT> sift = cv::SIFT::create(
-            0,     // 不限制特征点数量
-            3,     // 每个 octave 的层数
-            0.04,  // 对比度阈值
-            10,    // 边缘阈值
-            1.6    // 高斯模糊 sigma
-    );
-    stitcher->setFeaturesFinder(sift);
+    const FeatureMatcher::FeatureBackend backend = feature_backend;
+    const int budget = keypoint_budget;
+    auto create_detector = [backend, budget]() -> cv::Ptr<cv::Feature2D> {
+        return FeatureMatcher::CreateDetector(backend, budget);
+    };
+    finder = cv::makePtr<ParallelFeaturesFinder>(create_detector);
+    session->setFeaturesFinder(finder);
 
-    LOGD("[SIFT拼接] 已配置 SIFT 特征提取器");
+    LOGD("[SIFT拼接] 已配置并行特征提取器，特征类型：%d", static_cast<int>(backend));
+
+    // =========================================================
+    // 各阶段分辨率: 配准与接缝在缩小的图上进行, 合成分辨率在 Compose 中设置
+    // =========================================================
+    session->setRegistrationResol(options.registration_resol);
+    session->setSeamEstimationResol(options.seam_resol);
+    LOGD("[SIFT拼接] 配准分辨率 %.2f MP，接缝分辨率 %.2f MP (<0 为原图)",
+         options.registration_resol, options.seam_resol);
 
     // =========================================================
     // 配置 Bundle Adjustment（光束法平差，Ray 模型）
     // =========================================================
-    stitcher->setBundleAdjuster(
+    session->setBundleAdjuster(
             cv::makePtr<cv::detail::BundleAdjusterRay>());
 
-    stitcher->setWaveCorrection(true);
+    session->setWaveCorrection(true);
 
     LOGD("[SIFT拼接] 已启用 Bundle Adjustment（Ray）与波形校正");
 
+    // =========================================================
+    // 方向先验: cv::Stitcher 只在掩码内检测特征, 按相机焦距比 (未知时为默认焦距比) 预测重叠区域
+    // =========================================================
+    std::vector<cv::Mat> masks = PosePrior::OverlapMasks(images, orientations, focal_ratio,
+                                                         Projection::PLANAR);
+    if (!masks.empty()) LOGD("[SIFT拼接] 特征检测限制在方向先验预测的重叠区域内");
+
+    // 默认对所有图片对两两匹配 (O(n²) 对), 方向先验下只匹配预测视场相交的图片对
+    std::vector<cv::Size> sizes;
+    for (const auto& img : images) sizes.push_back(img.size());
+    cv::Mat matching_mask = PosePrior::MatchingMask(sizes, orientations, focal_ratio);
+    if (!matching_mask.empty()) {
+        // 拷贝为独立的 UMat: stitcher 持有该掩码, 不能引用局部 Mat 的数据
+        cv::UMat umask;
+        matching_mask.copyTo(umask);
+        session->setMatchingMask(umask);
+        LOGD("[SIFT拼接] 方向先验: 匹配 %d / %zu 个图片对", cv::countNonZero(matching_mask) / 2,
+             images.size() * (images.size() - 1) / 2);
+    }
+
+    // 2. 配准 (特征提取、匹配、相机参数估计与光束法平差)
+    cv::Stitcher::Status status;
+    try {
+        status = masks.empty() ? session->estimateTransform(images)
+                               : session->estimateTransform(images, masks);
+        // 方向先验有误 (传感器误差超出外扩量) 时掩码内的特征或允许匹配的图片对不足,
+        // 去掉检测掩码与图片对限制重新配准一次
+        const bool prior_used = !masks.empty() || !matching_mask.empty();
+        if (prior_used && (status == cv::Stitcher::ERR_NEED_MORE_IMGS ||
+                           status == cv::Stitcher::ERR_HOMOGRAPHY_EST_FAIL)) {
+            LOGI("[SIFT拼接] 方向先验下配准失败（错误码：%d），在整张图片上重新检测并匹配所有图片对",
+                 static_cast<int>(status));
+            session->setMatchingMask(cv::UMat());
+            status = session->estimateTransform(images);
+        }
+    } catch (const std::bad_alloc& e) {
+        LOGE("[SIFT拼接] 配准阶段内存不足（%s）", e.what());
+        return false;
+    } catch (const cv::Exception& e) {
+        LOGE("[SIFT拼接] 配准阶段 OpenCV 异常（%s）", e.what());
+        return false;
+    }
+
+    if (status != cv::Stitcher::OK) {
+        LogStitcherStatus(status);
+        return false;
+    }
+
+    size_t total_keypoints = 0;
+    for (const auto& f : finder->Table()) total_keypoints += f.keypoints.size();
+    LOGI("[SIFT拼接] 配准完成，保留图像 %zu / %zu 张，特征点总数：%zu",
+         session->component().size(), images.size(), total_keypoints);
+
+    stitcher = session;
+    return true;
+}
+
+cv::Mat SIFT::Compose(bool enable_linear_blending, double compositing_resol) {
+    if (stitcher == nullptr) {
+        LOGE("[SIFT拼接] 尚未配准，无法合成");
+        return {};
+    }
+
     // =========================================================
     // 配置融合器（Blender）
     // =========================================================
@@ -65,36 +191,57 @@ cv::Mat SIFT::Stitching(bool enable_linear_blending) {
         LOGD("[SIFT拼接] 使用羽化融合（FeatherBlender）");
     }
 
-    // 2. 执行拼接
+    // =========================================================
+    // 内存预算: 合成阶段超出预算时在要求的合成分辨率基础上继续降低
+    // =========================================================
+    size_t max_area = 0;
+    for (const auto& img : images) max_area = std::max(max_area, (size_t)img.total());
+    double compose_scale = 1.0;
+    if (compositing_resol > 0) {
+        compose_scale = std::min(1.0, std::sqrt(compositing_resol * 1e6 / (double)max_area));
+    }
+    size_t compose_bytes = MemoryBudget::StitcherBytes(images, compose_scale, enable_linear_blending);
+    if (!MemoryBudget::Fits(compose_bytes)) {
+        compose_scale *= std::sqrt((double)MemoryBudget::Available() / (double)compose_bytes);
+        LOGI("[SIFT拼接] 合成阶段预计需要 %zu MB，超出预算，合成分辨率缩放至 %.2f",
+             compose_bytes >> 20, compose_scale);
+    }
+
+    // 3. 合成 (内存不足时降低合成分辨率重试, 配准结果不变)
     cv::Mat pano;
-    cv::Stitcher::Status status = stitcher->stitch(images, pano);
+    cv::Stitcher::Status status = cv::Stitcher::ERR_NEED_MORE_IMGS;
+    for (int attempt = 0; attempt <= Constants::MEMORY_MAX_RETRIES; ++attempt) {
+        // setCompositingResol 以百万像素为单位, 按最大的输入图片换算; 同一会话中每次合成都需要重新设置
+        stitcher->setCompositingResol(compose_scale < 1.0 ? compose_scale * compose_scale * (double)max_area / 1e6
+                                                          : (double)cv::Stitcher::ORIG_RESOL);
+        try {
+            status = stitcher->composePanorama(pano);
+            break;
+        } catch (const std::bad_alloc& e) {
+            LOGE("[SIFT拼接] 内存不足（%s），合成分辨率缩放 %.2f", e.what(), compose_scale);
+        } catch (const cv::Exception& e) {
+            // 只有内存分配失败才降低合成分辨率重试
+            if (!MemoryBudget::IsOutOfMemory(e)) {
+                LOGE("[SIFT拼接] OpenCV 异常（%s）", e.what());
+                return {};
+            }
+            LOGE("[SIFT拼接] OpenCV 内存不足（%s），合成分辨率缩放 %.2f", e.what(), compose_scale);
+        }
+        pano.release();
+        compose_scale *= 0.5;
+        if (attempt == Constants::MEMORY_MAX_RETRIES) {
+            LOGE("[SIFT拼接] 降级重试 %d 次后仍然失败", Constants::MEMORY_MAX_RETRIES);
+            return {};
+        }
+    }
 
-    // 3. 错误处理
+    // 4. 错误处理
     if (status != cv::Stitcher::OK) {
-        LOGE("[SIFT拼接] 拼接失败，错误码：%d", static_cast<int>(status));
-
-        switch (status) {
-            case cv::Stitcher::ERR_NEED_MORE_IMGS:
-                LOGE("[SIFT拼接] 特征点不足，无法完成图像匹配");
-                break;
-
-            case cv::Stitcher::ERR_HOMOGRAPHY_EST_FAIL:
-                LOGE("[SIFT拼接] 单应性矩阵估计失败，可能是视角变化过大或匹配错误");
-                break;
-
-            case cv::Stitcher::ERR_CAMERA_PARAMS_ADJUST_FAIL:
-                LOGE("[SIFT拼接] 相机参数优化失败（光束法平差未收敛）");
-                break;
-
-            default:
-                LOGE("[SIFT拼接] 未知错误");
-                break;
-        }
+        LogStitcherStatus(status);
         return {};
     }
 
-    LOGI("[SIFT拼接] 拼接成功，输出图像尺寸：%d x %d",
-         pano.cols, pano.rows);
+    LOGI("[SIFT拼接] 合成成功，输出图像尺寸：%d x %d", pano.cols, pano.rows);
 
     return pano;
 }
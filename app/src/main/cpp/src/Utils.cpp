@@ -91,6 +91,22 @@ std::vector<cv::Point2f> Utils::GetMeshVertices(int width, int height, int mesh_
     return vertices;
 }
 
+std::vector<cv::Point2f> Utils::GetMeshCorners(int width, int height, int mesh_cols, int mesh_rows, double offset_x, double offset_y) {
+    std::vector<cv::Point2f> corners;
+    corners.reserve((mesh_cols + 1) * (mesh_rows + 1));
+
+    double step_x = (double)width / mesh_cols;
+    double step_y = (double)height / mesh_rows;
+
+    for (int i = 0; i <= mesh_rows; ++i) {
+        for (int j = 0; j <= mesh_cols; ++j) {
+            // 减去 offset 以对齐到 Image 1 坐标系
+            corners.emplace_back((float)(j * step_x - offset_x), (float)(i * step_y - offset_y));
+        }
+    }
+    return corners;
+}
+
 cv::Mat Utils::bitmapToMat(JNIEnv *env, jobject bitmap) {
     // 1. 空指针检查
     if (bitmap == nullptr) {
@@ -5,6 +5,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.navigation.NavController;
 import androidx.navigation.fragment.NavHostFragment;
 import androidx.navigation.ui.NavigationUI;
+import com.example.panoramapro.core.NativeMemoryBudget;
 import com.example.panoramapro.databinding.ActivityMainBinding;
 
 import java.util.HashSet;
@@ -37,4 +38,17 @@ public class MainActivity extends AppCompatActivity {
             });
         }
     }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // 按当前可用内存设置 native 拼接与补全的内存预算, 回到前台时重新计算
+        NativeMemoryBudget.configure(this);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        NativeMemoryBudget.onTrimMemory(level);
+    }
 }
\ No newline at end of file
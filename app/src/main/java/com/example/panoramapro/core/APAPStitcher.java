@@ -4,15 +4,116 @@ import android.graphics.Bitmap;
 import java.util.List;
 
 public class APAPStitcher implements IStitcher {
+    // 投影预变换方式, 与 native 层 Projection::Mode 一致
+    public static final int PROJECTION_PLANAR = 0;
+    public static final int PROJECTION_CYLINDRICAL = 1;
+    public static final int PROJECTION_SPHERICAL = 2;
+
+    // 网格划分方式, 与 native 层 APAP::MeshMode 一致
+    public static final int MESH_UNIFORM = 0;
+    public static final int MESH_ADAPTIVE = 1;
+    public static final int MESH_VERTEX = 2;
+
+    // 参考图片的选择, 与 native 层 APAP::ReferenceMode 一致
+    public static final int REFERENCE_FIRST = 0;
+    public static final int REFERENCE_CENTER = 1;
+    public static final int REFERENCE_MOST_OVERLAP = 2;
+
+    // SIFT 描述子压缩方式, 与 native 层 FeatureMatcher::DescriptorMode 一致
+    public static final int DESCRIPTORS_FLOAT = 0;
+    public static final int DESCRIPTORS_UINT8 = 1;
+    public static final int DESCRIPTORS_PCA = 2;
+
+    // 特征匹配的最近邻搜索方式, 与 native 层 FeatureMatcher::MatcherBackend 一致
+    public static final int MATCHER_BRUTE_FORCE = 0;
+    public static final int MATCHER_FLANN_KDTREE = 1;
+    public static final int MATCHER_FLANN_KMEANS = 2;
+
+    /**
+     * 拼接参数, 字段与 native 层 APAP::Options 中的同名参数对应, 默认值与 native 层一致
+     * 未列出的参数使用 native 层的默认值
+     */
+    public static class Options {
+        // 特征类型 (IStitcher.FEATURES_*)
+        public int featureBackend = FEATURES_SIFT;
+        // 每张图片的关键点数量上限, <= 0 时不限制
+        public int keypointBudget = DEFAULT_KEYPOINT_BUDGET;
+        // 投影预变换方式 (PROJECTION_*)
+        public int projection = PROJECTION_PLANAR;
+        // 焦距与图片长边之比, 未知时为 0, 由 native 层根据相邻图片估计
+        public float focalRatio = 0f;
+        // 网格划分方式 (MESH_*): 自适应网格只在局部单应性变化处细分, 求解的单应性数量远少于固定网格
+        // 顶点插值模式 (MESH_VERTEX) 在较粗的网格顶点处求解单应性, 网格内双线性混合投影坐标, 投影在网格边界上连续
+        public int meshMode = MESH_UNIFORM;
+        // 顶点插值模式的网格大小 (每边网格数)
+        public int vertexMeshSize = 30;
+        // 最近邻搜索方式 (MATCHER_*): BRUTE_FORCE 的结果是确定的, 用于对比测试
+        public int matcher = MATCHER_FLANN_KDTREE;
+        // 全局单应性的 RMS 重投影误差低于该值时跳过局部单应性, <= 0 时总是执行 APAP
+        public double globalResidualThreshold = 1.0;
+        // 只在新图片的投影覆盖范围内求解单应性与重映射, 输出与在整张画布上计算一致
+        public boolean footprintOnly = true;
+        // 渲染分辨率上限 (像素数): 匹配与估计在工作分辨率下进行, 最终画布用不超过该尺寸的原图合成; 0 时直接输出工作分辨率的结果
+        public int renderMaxSize = 2000 * 1500;
+        // 分块合成的块大小, 工作内存与画布大小无关, 线性融合的距离权重截断到羽化半径;
+        // 0 表示整块处理, 超出 native 内存预算时自动分块
+        public int tileSize = 0;
+        // 邻接链式模式: 每张图片只提取一次特征、只与相邻图片匹配, 各相邻对并行估计后串联到参考坐标系
+        // (适合按顺序拍摄的多张图片)
+        public boolean chained = false;
+        // 参考图片 (REFERENCE_*): 以靠中间的图片为参考可减小画布包围盒与两端的透视拉伸
+        public int reference = REFERENCE_FIRST;
+        // 链式模式下先求出所有变换与最终画布, 再一次性合成所有图片; false 时逐张增量合成到扩展的画布
+        public boolean singlePass = true;
+        // 金字塔匹配: 先在缩小的图像上估计相邻图片的粗略单应性, 工作分辨率下只在预测的重叠区域内检测并引导匹配
+        public boolean pyramidMatching = false;
+        // SIFT 描述子压缩 (DESCRIPTORS_*): uint8 量化只在 MATCHER_BRUTE_FORCE 下生效, PCA 降维可与 FLANN 配合
+        public int descriptors = DESCRIPTORS_FLOAT;
+    }
+
     static {
         System.loadLibrary("panoramapro");
     }
 
+    private final Options options;
+
+    public APAPStitcher() {
+        this(new Options());
+    }
+
+    /**
+     * @param featureBackend 特征类型 (IStitcher.FEATURES_*)
+     * @param keypointBudget 每张图片的关键点数量上限, <= 0 时不限制
+     * @param projection 投影预变换方式
+     * @param focalRatio 焦距与图片长边之比, 未知时传 0 由 native 层根据相邻图片估计
+     */
+    public APAPStitcher(int featureBackend, int keypointBudget, int projection, float focalRatio) {
+        this(new Options());
+        options.featureBackend = featureBackend;
+        options.keypointBudget = keypointBudget;
+        options.projection = projection;
+        options.focalRatio = focalRatio;
+    }
+
+    /**
+     * @param options 拼接参数, 由本对象持有, 构造后不应再修改
+     */
+    public APAPStitcher(Options options) {
+        this.options = options;
+    }
+
     @Override
     public Bitmap stitch(List<Bitmap> inputImages, boolean enableLinearBlending) {
+        return stitch(inputImages, null, enableLinearBlending);
+    }
+
+    @Override
+    public Bitmap stitch(List<Bitmap> inputImages, List<float[]> orientations, boolean enableLinearBlending) {
         Bitmap[] bitmapArray = inputImages.toArray(new Bitmap[0]);
-        return nativeStitchImages(bitmapArray, enableLinearBlending);
+        return nativeStitchImages(bitmapArray, enableLinearBlending, options,
+                IStitcher.flattenOrientations(orientations, bitmapArray.length));
     }
 
-    private native Bitmap nativeStitchImages(Bitmap[] inputImages, boolean enableLinearBlending);
+    private native Bitmap nativeStitchImages(Bitmap[] inputImages, boolean enableLinearBlending,
+                                             Options options, float[] orientations);
 }
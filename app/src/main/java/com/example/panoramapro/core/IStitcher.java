@@ -4,10 +4,50 @@ import android.graphics.Bitmap;
 import java.util.List;
 
 public interface IStitcher {
+    // 特征类型, 与 native 层 FeatureMatcher::FeatureBackend 一致
+    // ORB / AKAZE 使用二进制描述子与汉明距离匹配, 比 SIFT 快得多, 适合快速预览与低端设备
+    int FEATURES_SIFT = 0;
+    int FEATURES_ORB = 1;
+    int FEATURES_AKAZE = 2;
+
+    // 每张图片的关键点数量上限, 与 native 层 Constants::KEYPOINT_BUDGET 一致
+    int DEFAULT_KEYPOINT_BUDGET = 4000;
+
     /**
      * @param inputImages 输入图片
      * @param enableLinearBlending 是否启用线性混合以减少接缝处的可见性
      * @return 拼接后的原始结果
      */
     Bitmap stitch(List<Bitmap> inputImages, boolean enableLinearBlending);
+
+    /**
+     * @param inputImages 输入图片
+     * @param orientations 每张图片拍摄时的设备方向 {方位角, 俯仰角, 横滚角} (度), 与 inputImages 一一对应;
+     *                     用于预测相邻图片的重叠区域, 只在其中检测特征. 为 null 或数量不符时忽略
+     * @param enableLinearBlending 是否启用线性混合以减少接缝处的可见性
+     * @return 拼接后的原始结果
+     */
+    default Bitmap stitch(List<Bitmap> inputImages, List<float[]> orientations, boolean enableLinearBlending) {
+        return stitch(inputImages, enableLinearBlending);
+    }
+
+    /**
+     * 释放拼接过程中保留的 native 资源 (例如可复用的配准结果)
+     */
+    default void release() {}
+
+    /**
+     * 将每张图片的设备方向展开为 native 层使用的连续数组 (每张 3 个 float)
+     * @return orientations 为 null、数量与图片不符或有缺失时返回 null
+     */
+    static float[] flattenOrientations(List<float[]> orientations, int imageCount) {
+        if (orientations == null || orientations.size() != imageCount) return null;
+        float[] values = new float[imageCount * 3];
+        for (int i = 0; i < imageCount; i++) {
+            float[] o = orientations.get(i);
+            if (o == null || o.length < 3) return null;
+            System.arraycopy(o, 0, values, i * 3, 3);
+        }
+        return values;
+    }
 }
\ No newline at end of file
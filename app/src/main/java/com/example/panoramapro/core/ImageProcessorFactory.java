@@ -1,5 +1,6 @@
 package com.example.panoramapro.core;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.content.SharedPreferences;
 
@@ -7,6 +8,12 @@ import com.example.panoramapro.ui.settings.SettingsFragment;
 import com.example.panoramapro.utils.FileUtils;
 
 public class ImageProcessorFactory {
+    // 按设备档次划分的关键点数量上限
+    private static final int KEYPOINT_BUDGET_LOW = 1500;
+    private static final int KEYPOINT_BUDGET_HIGH = 6000;
+    // 高端设备的物理内存下限: 标称 8 GB 的设备扣除内核保留后 totalMem 约为 7.3 ~ 7.7 GB
+    private static final long HIGH_TIER_TOTAL_MEM = 7L * 1024L * 1024L * 1024L;
+
     final SharedPreferences prefs;
     final Context appContext;
 
@@ -16,10 +23,82 @@ public class ImageProcessorFactory {
     }
 
     public IStitcher getStitcher() {
+        return getStitcher(0f);
+    }
+
+    /**
+     * @param focalRatio 拍摄时相机的焦距与图片长边之比, 未知时传 0
+     */
+    public IStitcher getStitcher(float focalRatio) {
         if (prefs.getString(SettingsFragment.KEY_STITCH_ALGO, "APAP").equals("APAP")) {
-            return new APAPStitcher();
+            APAPStitcher.Options options = new APAPStitcher.Options();
+            options.featureBackend = getFeatureBackend();
+            options.keypointBudget = getKeypointBudget();
+            options.projection = getProjection();
+            options.focalRatio = focalRatio;
+            // 界面按顺序拍摄 / 选择图片, 相邻图片重叠: 链式模式只匹配相邻对, 拼接张数增加时耗时线性增长
+            options.chained = true;
+            // 以中间的图片为参考, 两端图片的透视拉伸与画布大小都更小
+            options.reference = APAPStitcher.REFERENCE_CENTER;
+            return new APAPStitcher(options);
+        } else {
+            return new SIFTStitcher(getFeatureBackend(), getKeypointBudget(), getSiftQuality(),
+                    SIFTStitcher.OUTPUT_ORIGINAL, focalRatio);
+        }
+    }
+
+    private int getFeatureBackend() {
+        String features = prefs.getString(SettingsFragment.KEY_FEATURES, "SIFT");
+        if (features.equals("ORB")) {
+            return IStitcher.FEATURES_ORB;
+        } else if (features.equals("AKAZE")) {
+            return IStitcher.FEATURES_AKAZE;
+        } else {
+            return IStitcher.FEATURES_SIFT;
+        }
+    }
+
+    /**
+     * 按设备档次选择关键点数量上限: 低内存或核数较少的设备减少关键点以缩短拼接时间, 高端设备保留更多关键点
+     * (特征与描述子在 native 层分配, 按物理内存而不是 Java 堆上限 getMemoryClass 划分档次)
+     */
+    private int getKeypointBudget() {
+        ActivityManager am = (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+        int cores = Runtime.getRuntime().availableProcessors();
+        if (am == null) {
+            return IStitcher.DEFAULT_KEYPOINT_BUDGET;
+        }
+        if (am.isLowRamDevice() || cores <= 4) {
+            return KEYPOINT_BUDGET_LOW;
+        }
+        ActivityManager.MemoryInfo info = new ActivityManager.MemoryInfo();
+        am.getMemoryInfo(info);
+        if (info.totalMem >= HIGH_TIER_TOTAL_MEM && cores >= 8) {
+            return KEYPOINT_BUDGET_HIGH;
+        }
+        return IStitcher.DEFAULT_KEYPOINT_BUDGET;
+    }
+
+    /**
+     * 按设备档次选择 SIFT 拼接的配准 / 接缝分辨率: 低端设备使用 FAST 预设, 其余使用 cv::Stitcher 的默认分辨率
+     */
+    private int getSiftQuality() {
+        ActivityManager am = (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+        int cores = Runtime.getRuntime().availableProcessors();
+        if (am != null && (am.isLowRamDevice() || cores <= 4)) {
+            return SIFTStitcher.QUALITY_FAST;
+        }
+        return SIFTStitcher.QUALITY_BALANCED;
+    }
+
+    private int getProjection() {
+        String projection = prefs.getString(SettingsFragment.KEY_PROJECTION, "CYLINDRICAL");
+        if (projection.equals("SPHERICAL")) {
+            return APAPStitcher.PROJECTION_SPHERICAL;
+        } else if (projection.equals("PLANAR")) {
+            return APAPStitcher.PROJECTION_PLANAR;
         } else {
-            return new SIFTStitcher();
+            return APAPStitcher.PROJECTION_CYLINDRICAL;
         }
     }
 
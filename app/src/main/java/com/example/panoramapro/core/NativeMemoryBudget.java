@@ -0,0 +1,56 @@
+package com.example.panoramapro.core;
+
+import android.app.ActivityManager;
+import android.content.Context;
+
+/**
+ * Native 层内存预算
+ * 拼接与补全在运行前按预算估算峰值内存, 超出时自动改为分块合成或降低分辨率重试
+ */
+public final class NativeMemoryBudget {
+    private static final long MB = 1024L * 1024L;
+    // 预算下限, 可用内存读数偏低时仍保证能以最低分辨率完成
+    private static final long MIN_BUDGET = 64 * MB;
+    // 预算上限为物理内存的 1 / TOTAL_MEM_DIVISOR
+    private static final long TOTAL_MEM_DIVISOR = 4;
+
+    static {
+        System.loadLibrary("panoramapro");
+    }
+
+    private NativeMemoryBudget() {
+    }
+
+    /**
+     * 根据设备物理内存与当前可用内存设置预算, 取两者中较小者
+     * (getMemoryClass / getLargeMemoryClass 是 Java 堆的上限, 与 native 分配无关)
+     * @param context 任意 Context
+     */
+    public static void configure(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am == null) {
+            return;
+        }
+        ActivityManager.MemoryInfo info = new ActivityManager.MemoryInfo();
+        am.getMemoryInfo(info);
+
+        // 单个任务最多使用物理内存的 1/4
+        long deviceCap = info.totalMem / TOTAL_MEM_DIVISOR;
+        // 只使用低内存阈值以上余量的一半, 给 Java 堆与其他进程留出空间
+        long headroom = (info.availMem - info.threshold) / 2;
+        long budget = Math.max(MIN_BUDGET, Math.min(deviceCap, headroom));
+        nativeSetBudget(budget);
+    }
+
+    /**
+     * 转发 ComponentCallbacks2.onTrimMemory, 系统内存紧张时收紧预算
+     * @param level 系统回调给出的 trim level
+     */
+    public static void onTrimMemory(int level) {
+        nativeOnTrimMemory(level);
+    }
+
+    private static native void nativeSetBudget(long bytes);
+
+    private static native void nativeOnTrimMemory(int level);
+}
@@ -4,15 +4,117 @@ import android.graphics.Bitmap;
 import java.util.List;
 
 public class SIFTStitcher implements IStitcher{
+    // 配准 / 接缝估计的分辨率预设, 与 native 层 SIFT::Quality 一致
+    public static final int QUALITY_FAST = 0;
+    public static final int QUALITY_BALANCED = 1;
+    public static final int QUALITY_FULL = 2;
+
+    // 合成 (输出) 分辨率: 原图分辨率
+    public static final double OUTPUT_ORIGINAL = -1.0;
+
     static {
         System.loadLibrary("panoramapro");
     }
 
+    private final int featureBackend;
+    private final int keypointBudget;
+    private final int quality;
+    private final double outputMegapixels;
+    private final float focalRatio;
+
+    // 持有 native 层配准结果 (SIFT 对象) 的地址, 为 0 表示没有可复用的配准结果
+    private long sessionHandle = 0;
+
+    public SIFTStitcher() {
+        this(FEATURES_SIFT, DEFAULT_KEYPOINT_BUDGET);
+    }
+
+    /**
+     * @param featureBackend 特征类型 (IStitcher.FEATURES_*)
+     * @param keypointBudget 每张图片的关键点数量上限, <= 0 时不限制
+     */
+    public SIFTStitcher(int featureBackend, int keypointBudget) {
+        this(featureBackend, keypointBudget, QUALITY_BALANCED, OUTPUT_ORIGINAL);
+    }
+
+    /**
+     * @param featureBackend 特征类型 (IStitcher.FEATURES_*)
+     * @param keypointBudget 每张图片的关键点数量上限, <= 0 时不限制
+     * @param quality 配准与接缝估计的分辨率预设 (QUALITY_*)
+     * @param outputMegapixels 合成分辨率 (以单张输入图片计, 百万像素), <= 0 时使用原图分辨率
+     */
+    public SIFTStitcher(int featureBackend, int keypointBudget, int quality, double outputMegapixels) {
+        this(featureBackend, keypointBudget, quality, outputMegapixels, 0f);
+    }
+
+    /**
+     * @param featureBackend 特征类型 (IStitcher.FEATURES_*)
+     * @param keypointBudget 每张图片的关键点数量上限, <= 0 时不限制
+     * @param quality 配准与接缝估计的分辨率预设 (QUALITY_*)
+     * @param outputMegapixels 合成分辨率 (以单张输入图片计, 百万像素), <= 0 时使用原图分辨率
+     * @param focalRatio 相机焦距与图片长边之比, 用于由拍摄方向预测重叠区域; <= 0 时使用默认值
+     */
+    public SIFTStitcher(int featureBackend, int keypointBudget, int quality, double outputMegapixels,
+                        float focalRatio) {
+        this.featureBackend = featureBackend;
+        this.keypointBudget = keypointBudget;
+        this.quality = quality;
+        this.outputMegapixels = outputMegapixels;
+        this.focalRatio = focalRatio;
+    }
+
     @Override
     public Bitmap stitch(List<Bitmap> inputImages, boolean enableLinearBlending) {
+        return stitch(inputImages, null, enableLinearBlending);
+    }
+
+    @Override
+    public Bitmap stitch(List<Bitmap> inputImages, List<float[]> orientations, boolean enableLinearBlending) {
+        // 新的输入需要重新配准, 旧的配准结果作废
+        release();
         Bitmap[] bitmapArray = inputImages.toArray(new Bitmap[0]);
-        return nativeStitchImages(bitmapArray, enableLinearBlending);
+        sessionHandle = nativeCreateSession(bitmapArray, featureBackend, keypointBudget,
+                IStitcher.flattenOrientations(orientations, bitmapArray.length), quality, focalRatio);
+        if (sessionHandle == 0) {
+            return null;
+        }
+        return nativeCompose(sessionHandle, enableLinearBlending, outputMegapixels);
+    }
+
+    /**
+     * 复用上一次 stitch 的配准结果重新合成 (更换融合方式或输出分辨率)
+     * 跳过特征提取、匹配与光束法平差, 只执行接缝估计与融合
+     * 目前界面在拼接后立即 release, 尚未调用该接口 (供之后先预览、再按原图分辨率导出的流程使用)
+     * @param enableLinearBlending 是否启用线性混合
+     * @param outputMegapixels 合成分辨率 (以单张输入图片计, 百万像素), <= 0 时使用原图分辨率
+     * @return 没有可复用的配准结果 (未拼接、拼接失败或已释放) 时返回 null
+     */
+    public Bitmap recompose(boolean enableLinearBlending, double outputMegapixels) {
+        if (sessionHandle == 0) {
+            return null;
+        }
+        return nativeCompose(sessionHandle, enableLinearBlending, outputMegapixels);
+    }
+
+    public boolean hasSession() {
+        return sessionHandle != 0;
+    }
+
+    /**
+     * 配准结果持有全部输入图片, 不再重新合成时必须手动调用此方法释放 C++ 内存
+     */
+    @Override
+    public void release() {
+        if (sessionHandle != 0) {
+            nativeReleaseSession(sessionHandle);
+            sessionHandle = 0;
+        }
     }
 
-    private native Bitmap nativeStitchImages(Bitmap[] inputImages, boolean enableLinearBlending);
+    private native long nativeCreateSession(Bitmap[] inputImages, int featureBackend, int keypointBudget,
+                                            float[] orientations, int quality, float focalRatio);
+
+    private native Bitmap nativeCompose(long handle, boolean enableLinearBlending, double outputMegapixels);
+
+    private native void nativeReleaseSession(long handle);
 }
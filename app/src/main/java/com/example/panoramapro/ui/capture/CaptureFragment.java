@@ -6,6 +6,8 @@ import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Color;
+import android.graphics.Rect;
+import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
@@ -13,6 +15,8 @@ import android.hardware.SensorManager;
 import android.os.Bundle;
 import android.os.Environment;
 import android.util.Log;
+import android.util.Size;
+import android.util.SizeF;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -22,7 +26,11 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.OptIn;
 import androidx.appcompat.app.AlertDialog;
+import androidx.camera.camera2.interop.Camera2CameraInfo;
+import androidx.camera.camera2.interop.ExperimentalCamera2Interop;
+import androidx.camera.core.Camera;
 import androidx.camera.core.CameraSelector;
 import androidx.camera.core.ImageCapture;
 import androidx.camera.core.ImageCaptureException;
@@ -99,8 +107,10 @@ public class CaptureFragment extends Fragment implements SensorEventListener {
     private ExecutorService cameraExecutor; // 相机执行器（单线程）
     private ProcessCameraProvider cameraProvider; // 相机提供者
     private ArrayList<Bitmap> captures = new ArrayList<>(); // 捕获的图片列表
+    private ArrayList<float[]> captureOrientations = new ArrayList<>(); // 每张图片按下快门时的设备方向
     private StitchingViewModel viewModel; // 视图模型，用于数据共享
     private boolean cameraStarted = false; // 相机是否已启动
+    private float focalRatio = 0f; // 焦距与图片长边之比 (0 表示未知)
     private boolean permissionRequested = false; // 是否已请求过权限
     // UI组件
     private LevelOverlayView levelOverlayView;
@@ -598,6 +608,7 @@ public class CaptureFragment extends Fragment implements SensorEventListener {
             if (resetNeeded != null && resetNeeded) {
                 // 清空本地captures列表
                 captures.clear();
+                captureOrientations.clear();
                 // 清理临时文件
                 cleanupTempFiles();
                 // 重置基准方向
@@ -835,12 +846,13 @@ public class CaptureFragment extends Fragment implements SensorEventListener {
             }
 
             // 绑定到生命周期
-            cameraProvider.bindToLifecycle(
+            Camera camera = cameraProvider.bindToLifecycle(
                     getViewLifecycleOwner(),
                     cameraSelector,
                     preview,
                     imageCapture
             );
+            focalRatio = readFocalRatio(camera);
             Log.i(TAG, "相机用例绑定成功");
         } catch (Exception e) {
             Log.e(TAG, "用例绑定失败", e);
@@ -861,6 +873,37 @@ public class CaptureFragment extends Fragment implements SensorEventListener {
         }
     }
 
+    /**
+     * 读取相机焦距与图片长边之比, 供拼接时的圆柱面 / 球面投影使用
+     * 焦距 (mm) 除以传感器物理尺寸 (mm) 得到以像素阵列为单位的焦距, 再换算到有效像素区域 (拍摄图片覆盖的区域)
+     * @return 焦距比, 读取失败时返回 0 (由拼接算法根据图片估计)
+     */
+    @OptIn(markerClass = ExperimentalCamera2Interop.class)
+    private float readFocalRatio(Camera camera) {
+        try {
+            Camera2CameraInfo info = Camera2CameraInfo.from(camera.getCameraInfo());
+            float[] focalLengths = info.getCameraCharacteristic(CameraCharacteristics.LENS_INFO_AVAILABLE_FOCAL_LENGTHS);
+            SizeF physicalSize = info.getCameraCharacteristic(CameraCharacteristics.SENSOR_INFO_PHYSICAL_SIZE);
+            Size pixelArray = info.getCameraCharacteristic(CameraCharacteristics.SENSOR_INFO_PIXEL_ARRAY_SIZE);
+            Rect activeArray = info.getCameraCharacteristic(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+            if (focalLengths == null || focalLengths.length == 0 || physicalSize == null) {
+                Log.w(TAG, "无法读取相机焦距");
+                return 0f;
+            }
+
+            float ratio = focalLengths[0] / Math.max(physicalSize.getWidth(), physicalSize.getHeight());
+            if (pixelArray != null && activeArray != null) {
+                ratio *= (float) Math.max(pixelArray.getWidth(), pixelArray.getHeight())
+                        / Math.max(activeArray.width(), activeArray.height());
+            }
+            Log.i(TAG, String.format(Locale.getDefault(), "相机焦距: %.2fmm, 焦距比: %.3f", focalLengths[0], ratio));
+            return ratio;
+        } catch (Exception e) {
+            Log.w(TAG, "读取相机参数失败: " + e.getMessage());
+            return 0f;
+        }
+    }
+
     /**
      * 拍照操作
      * 检查相机状态和拍照条件，然后执行拍照
@@ -963,6 +1006,9 @@ public class CaptureFragment extends Fragment implements SensorEventListener {
             return;
         }
 
+        // 记录按下快门时的设备方向, 用于拼接时预测相邻图片的重叠区域
+        final float[] shotOrientation = currentOrientation.clone();
+
         // 配置输出文件选项
         ImageCapture.OutputFileOptions outputFileOptions =
                 new ImageCapture.OutputFileOptions.Builder(photoFile).build();
@@ -977,7 +1023,7 @@ public class CaptureFragment extends Fragment implements SensorEventListener {
                         Log.i(TAG, "照片保存成功到: " + photoFile.getAbsolutePath());
 
                         // 处理照片：旋转并调整方向
-                        processAndSavePhoto(photoFile);
+                        processAndSavePhoto(photoFile, shotOrientation);
                     }
 
                     @Override
@@ -1025,7 +1071,7 @@ public class CaptureFragment extends Fragment implements SensorEventListener {
      * 处理并保存照片
      * 在后台线程中处理照片：降采样、旋转、检查宽高比、保存处理后的版本
      */
-    private void processAndSavePhoto(File photoFile) {
+    private void processAndSavePhoto(File photoFile, float[] orientation) {
         // 在后台线程处理照片
         cameraExecutor.execute(() -> {
             try {
@@ -1075,6 +1121,7 @@ public class CaptureFragment extends Fragment implements SensorEventListener {
                         // 注意：虽然这里 add 了 bitmap，但建议按照之前的建议，ViewModel 只存路径
                         // 如果你还没改 ViewModel，这里暂时不动
                         captures.add(finalBitmap);
+                        captureOrientations.add(orientation);
                         Log.i(TAG, "照片已捕获并处理。总数: " + captures.size());
 
                         // 如果是第一张照片，记录基准方向
@@ -1369,6 +1416,7 @@ public class CaptureFragment extends Fragment implements SensorEventListener {
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
                         captures.clear();
+                        captureOrientations.clear();
                         // 清理临时文件
                         cleanupTempFiles();
                         baseOrientation = null;
@@ -1403,6 +1451,10 @@ public class CaptureFragment extends Fragment implements SensorEventListener {
         viewModel.setCaptures(new ArrayList<>(captures));
         // 传递临时文件路径给ViewModel，以便在拼接完成后清理
         viewModel.setTempImagePaths(new ArrayList<>(tempImagePaths));
+        // 传递相机焦距, 用于拼接前的投影预变换
+        viewModel.setFocalRatio(focalRatio);
+        // 传递每张图片的设备方向, 拼接时只在预测的相邻重叠区域内检测特征
+        viewModel.setCaptureOrientations(new ArrayList<>(captureOrientations));
 
         // 显示成功消息
         Toast.makeText(requireContext(),
@@ -29,6 +29,7 @@ import com.example.panoramapro.utils.BitmapSaver;
 import com.example.panoramapro.utils.FileUtils;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -120,20 +121,27 @@ public class PreviewFragment extends Fragment {
         progressDialog.setCancelable(false); // 禁止点击外部取消
         progressDialog.show();
         Context context = requireActivity().getApplicationContext();
+        final float focalRatio = viewModel.getFocalRatio();
+        final List<float[]> orientations = viewModel.getCaptureOrientations();
 
         // 2. 在子线程中执行拼接
         stitchingExecutor.execute(() -> {
             try {
                 // =============== 核心调用开始 ===============
                 ImageProcessorFactory factory = new ImageProcessorFactory(context);
-                IStitcher stitch_photo = factory.getStitcher();
+                IStitcher stitch_photo = factory.getStitcher(focalRatio);
 
                 String modelPath = FileUtils.copyAssetToFilesDir(context, "lama_fp32.onnx");
                 if (modelPath == null) {
                     throw new Exception("模型文件拷贝失败");
                 }
 
-                Bitmap switchBitmap = stitch_photo.stitch(captures,true);// 进行图片拼接
+                Bitmap switchBitmap;
+                try {
+                    switchBitmap = stitch_photo.stitch(captures, orientations, true);// 进行图片拼接
+                } finally {
+                    stitch_photo.release(); // 释放 C++ 中保留的配准结果 (拼接抛出异常时同样释放)
+                }
 
                 // 4. 执行 AI 补全 (Java -> C++)
                 // 注意：LaMaCompleter 需要在不使用时 release，这里为了简单在方法内创建并释放
@@ -50,4 +50,26 @@ public class StitchingViewModel extends ViewModel {
         tempImagePaths.setValue(paths);
     }
 
+    // 拍摄时相机的焦距与图片长边之比, 0 表示未知 (由拼接算法估计)
+    private float focalRatio = 0f;
+
+    public float getFocalRatio() {
+        return focalRatio;
+    }
+
+    public void setFocalRatio(float focalRatio) {
+        this.focalRatio = focalRatio;
+    }
+
+    // 每张图片拍摄时的设备方向 {方位角, 俯仰角, 横滚角} (度), 与 captures 一一对应
+    private List<float[]> captureOrientations = new ArrayList<>();
+
+    public List<float[]> getCaptureOrientations() {
+        return captureOrientations;
+    }
+
+    public void setCaptureOrientations(List<float[]> orientations) {
+        this.captureOrientations = orientations;
+    }
+
 }
\ No newline at end of file
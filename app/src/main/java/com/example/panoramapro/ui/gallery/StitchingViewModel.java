@@ -113,7 +113,12 @@ public class StitchingViewModel extends AndroidViewModel {
                 if (inputBitmaps.size() < 2) throw new Exception("图片加载失败");
 
                 // 2. 拼接
-                Bitmap stitched = stitcher.stitch(inputBitmaps, true);
+                Bitmap stitched;
+                try {
+                    stitched = stitcher.stitch(inputBitmaps, true);
+                } finally {
+                    stitcher.release(); // 释放 C++ 中保留的配准结果 (拼接抛出异常时同样释放)
+                }
                 if (stitched == null) throw new Exception("拼接失败，特征点不足");
 
                 // 3. AI 补全
@@ -18,9 +18,16 @@ public class SettingsFragment extends Fragment {
     public static final String PREFS_NAME = "panorama_prefs";
     public static final String KEY_STITCH_ALGO = "stitch_algo";
     public static final String KEY_COMPLETE_ALGO = "complete_algo";
+    public static final String KEY_PROJECTION = "projection";
+    public static final String KEY_FEATURES = "features";
+
+    private static final String[] PROJECTION_OPTIONS = {"圆柱面投影", "球面投影", "平面 (不投影)"};
+    private static final String[] PROJECTION_VALUES = {"CYLINDRICAL", "SPHERICAL", "PLANAR"};
+    private static final String[] FEATURE_OPTIONS = {"SIFT (精确)", "ORB (最快, 适合快速预览)", "AKAZE (较快)"};
+    private static final String[] FEATURE_VALUES = {"SIFT", "ORB", "AKAZE"};
 
     private SharedPreferences prefs;
-    private TextView tvStitch, tvComp;
+    private TextView tvStitch, tvComp, tvProjection, tvFeatures;
 
     @Nullable
     @Override
@@ -35,6 +42,8 @@ public class SettingsFragment extends Fragment {
 
         tvStitch = view.findViewById(R.id.tv_current_stitch);
         tvComp = view.findViewById(R.id.tv_current_comp);
+        tvProjection = view.findViewById(R.id.tv_current_projection);
+        tvFeatures = view.findViewById(R.id.tv_current_features);
 
         // 初始化文字
         refreshTextLabels();
@@ -51,6 +60,14 @@ public class SettingsFragment extends Fragment {
             String[] values = {"LAMA", "OPENCV", "NONE"};
             showChoiceDialog("选择补全算法", KEY_COMPLETE_ALGO, options, values);
         });
+
+        view.findViewById(R.id.layout_projection_choice).setOnClickListener(v -> {
+            showChoiceDialog("选择投影方式", KEY_PROJECTION, PROJECTION_OPTIONS, PROJECTION_VALUES);
+        });
+
+        view.findViewById(R.id.layout_features_choice).setOnClickListener(v -> {
+            showChoiceDialog("选择特征类型", KEY_FEATURES, FEATURE_OPTIONS, FEATURE_VALUES);
+        });
     }
 
     private void showChoiceDialog(String title, String key, String[] options, String[] values) {
@@ -87,5 +104,21 @@ public class SettingsFragment extends Fragment {
                 break;
             }
         }
+
+        String projection = prefs.getString(KEY_PROJECTION, PROJECTION_VALUES[0]);
+        for (int i = 0; i < PROJECTION_VALUES.length; i++) {
+            if (PROJECTION_VALUES[i].equals(projection)) {
+                tvProjection.setText(PROJECTION_OPTIONS[i]);
+                break;
+            }
+        }
+
+        String features = prefs.getString(KEY_FEATURES, FEATURE_VALUES[0]);
+        for (int i = 0; i < FEATURE_VALUES.length; i++) {
+            if (FEATURE_VALUES[i].equals(features)) {
+                tvFeatures.setText(FEATURE_OPTIONS[i]);
+                break;
+            }
+        }
     }
 }
\ No newline at end of file